@@ -0,0 +1,8 @@
+uniform float $contrast;
+uniform float $brightness;
+
+vec4 $apply(vec4 color, vec2 coord) {
+    vec3 rgb = mix(vec3(0.5, 0.5, 0.5), color.rgb, $contrast);
+    rgb = mix(vec3(0.0, 0.0, 0.0), rgb, $brightness);
+    return vec4(rgb, 1.0);
+}
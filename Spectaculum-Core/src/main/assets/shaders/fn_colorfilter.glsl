@@ -0,0 +1,5 @@
+uniform vec4 $color;
+
+vec4 $apply(vec4 color, vec2 coord) {
+  return color * $color;
+}
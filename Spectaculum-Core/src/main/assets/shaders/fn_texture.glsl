@@ -0,0 +1,3 @@
+vec4 $apply(vec4 color, vec2 coord) {
+  return color;
+}
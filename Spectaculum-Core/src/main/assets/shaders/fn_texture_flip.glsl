@@ -0,0 +1,12 @@
+uniform int $mode;
+
+vec2 $map(vec2 coord) {
+  if($mode == 1) {
+    return vec2(1.0 - coord.x, coord.y);
+  } else if($mode == 2) {
+    return vec2(coord.x, 1.0 - coord.y);
+  } else if($mode == 3) {
+    return vec2(1.0 - coord.x, 1.0 - coord.y);
+  }
+  return coord;
+}
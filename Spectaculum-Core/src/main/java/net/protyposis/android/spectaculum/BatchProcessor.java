@@ -0,0 +1,420 @@
+/*
+ * Copyright 2016 Mario Guggenberger <mg@protyposis.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.protyposis.android.spectaculum;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.opengl.GLES20;
+import android.util.Log;
+
+import net.protyposis.android.spectaculum.effects.Effect;
+import net.protyposis.android.spectaculum.gles.FrameCapture;
+import net.protyposis.android.spectaculum.gles.GLRenderer;
+import net.protyposis.android.spectaculum.gles.OffscreenRenderer;
+import net.protyposis.android.spectaculum.gles.Texture2D;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Applies an effect to a batch of image files. The processing of an image is split into stages
+ * that run concurrently on different images:
+ * <ol>
+ *     <li>decoding on a worker pool,</li>
+ *     <li>texture upload on a loader thread with a GL context shared with the render thread,</li>
+ *     <li>rendering the effect on the render thread,</li>
+ *     <li>asynchronous readback (on GLES 3.0 contexts, see {@link FrameCapture}), and</li>
+ *     <li>compression to the output format on a worker pool.</li>
+ * </ol>
+ * The number of images in flight is bounded, which bounds the queues between the stages and
+ * keeps memory usage flat regardless of the batch size. With enough images in flight, the
+ * throughput is limited by the slowest stage instead of the sum of all stages.
+ */
+public class BatchProcessor {
+
+    private static final String TAG = BatchProcessor.class.getSimpleName();
+
+    public interface Listener {
+        /**
+         * Gets called from a worker thread when an image has been processed.
+         * @param input the input file
+         * @param output the output file, or null if processing failed
+         * @param e the cause if processing failed, else null
+         */
+        void onImageProcessed(File input, File output, Throwable e);
+    }
+
+    /**
+     * The processing stages of an image.
+     */
+    public enum Stage {
+        DECODE,
+        UPLOAD,
+        RENDER,
+        READBACK,
+        ENCODE
+    }
+
+    /**
+     * Statistics of a batch run.
+     */
+    public static class Statistics {
+        private int mImageCount;
+        private int mFailedCount;
+        private long mDurationNs;
+        private long[] mStageTimesNs = new long[Stage.values().length];
+
+        public int getImageCount() {
+            return mImageCount;
+        }
+
+        public int getFailedCount() {
+            return mFailedCount;
+        }
+
+        public long getDuration() {
+            return mDurationNs;
+        }
+
+        /**
+         * Gets the throughput of the batch in images per second.
+         */
+        public float getThroughput() {
+            return mDurationNs > 0 ? mImageCount * 1000000000f / mDurationNs : 0;
+        }
+
+        /**
+         * Gets the average latency of a stage per image in nanoseconds. For the readback stage,
+         * this includes the time that the GPU needs to finish rendering.
+         */
+        public long getAverageLatency(Stage stage) {
+            return mImageCount > 0 ? mStageTimesNs[stage.ordinal()] / mImageCount : 0;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("%d images (%d failed) in %.2fs, %.2f images/s",
+                    mImageCount, mFailedCount, mDurationNs / 1000000000f, getThroughput()));
+            for(Stage stage : Stage.values()) {
+                sb.append(String.format(", %s %.2fms", stage.name().toLowerCase(),
+                        getAverageLatency(stage) / 1000000f));
+            }
+            return sb.toString();
+        }
+    }
+
+    private Effect mEffect;
+    private Bitmap.CompressFormat mFormat;
+    private int mQuality;
+    private int mMaxInFlight;
+    private int mWorkerCount;
+    private Listener mListener;
+
+    private OffscreenRenderer mRenderer;
+    private OffscreenRenderer mLoader;
+    private FrameCapture mFrameCapture;
+
+    /**
+     * Creates a batch processor and its GL contexts.
+     * @param effect the effect to apply; it gets initialized in the context of the processor and
+     *               must not be used elsewhere
+     * @param format the output format
+     * @param quality the output quality, see {@link Bitmap#compress(Bitmap.CompressFormat, int, OutputStream)}
+     */
+    public BatchProcessor(Effect effect, Bitmap.CompressFormat format, int quality) {
+        mEffect = effect;
+        mFormat = format;
+        mQuality = quality;
+        mWorkerCount = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        mMaxInFlight = mWorkerCount * 2 + 2;
+
+        mRenderer = new OffscreenRenderer();
+        mLoader = new OffscreenRenderer(mRenderer);
+        mFrameCapture = mRenderer.run(new Callable<FrameCapture>() {
+            @Override
+            public FrameCapture call() throws Exception {
+                return new FrameCapture();
+            }
+        });
+    }
+
+    /**
+     * Sets the maximum number of images that are processed concurrently, which limits the memory
+     * usage to this number of decoded images and textures.
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        if(maxInFlight < 1) {
+            throw new IllegalArgumentException("invalid max in flight " + maxInFlight);
+        }
+        mMaxInFlight = maxInFlight;
+    }
+
+    /**
+     * Sets the number of threads of each of the decoding and encoding worker pools.
+     */
+    public void setWorkerCount(int workerCount) {
+        if(workerCount < 1) {
+            throw new IllegalArgumentException("invalid worker count " + workerCount);
+        }
+        mWorkerCount = workerCount;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Processes a batch of images and blocks until all are done. Output files are written to the
+     * output directory with the name of the input file and the extension of the output format.
+     * @return the statistics of the batch
+     */
+    public Statistics process(List<File> inputs, final File outputDirectory) throws InterruptedException {
+        final Statistics statistics = new Statistics();
+        final Semaphore inFlight = new Semaphore(mMaxInFlight);
+        final AtomicInteger pendingRenders = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicLong[] stageTimes = new AtomicLong[Stage.values().length];
+        for(int i = 0; i < stageTimes.length; i++) {
+            stageTimes[i] = new AtomicLong();
+        }
+
+        final ExecutorService decoders = Executors.newFixedThreadPool(mWorkerCount);
+        final ExecutorService encoders = Executors.newFixedThreadPool(mWorkerCount);
+        long startTime = System.nanoTime();
+
+        for(final File input : inputs) {
+            // Blocks while the maximum number of images is in flight
+            inFlight.acquire();
+
+            final Job job = new Job(input, new File(outputDirectory, getOutputName(input)));
+            job.inFlight = inFlight;
+            job.failed = failed;
+            job.stageTimes = stageTimes;
+
+            decoders.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long time = System.nanoTime();
+                    final Bitmap bitmap;
+                    try {
+                        bitmap = BitmapFactory.decodeFile(input.getAbsolutePath());
+                    } catch (Throwable e) {
+                        // e.g. an OutOfMemoryError, which must not cost the image its slot
+                        job.finish(e);
+                        return;
+                    }
+                    if(bitmap == null) {
+                        job.finish(new IOException("cannot decode " + input));
+                        return;
+                    }
+                    job.addStageTime(Stage.DECODE, time);
+
+                    mLoader.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            long time = System.nanoTime();
+                            final Texture2D texture;
+                            try {
+                                texture = new Texture2D(bitmap);
+                                // Make sure the texture is complete before it is used in the render context
+                                GLES20.glFinish();
+                            } catch (Throwable e) {
+                                job.finish(e);
+                                return;
+                            } finally {
+                                bitmap.recycle();
+                            }
+                            job.addStageTime(Stage.UPLOAD, time);
+
+                            pendingRenders.incrementAndGet();
+                            mRenderer.post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    pendingRenders.decrementAndGet();
+                                    render(job, texture, encoders);
+                                    /* Deliver completed readbacks. When no further image is waiting
+                                     * to be rendered, the pending readbacks are finished right away. */
+                                    mFrameCapture.process(pendingRenders.get() == 0);
+                                }
+                            });
+                        }
+                    });
+                }
+            });
+        }
+
+        // Wait until all images have passed all stages
+        inFlight.acquire(mMaxInFlight);
+        inFlight.release(mMaxInFlight);
+        decoders.shutdown();
+        encoders.shutdown();
+
+        statistics.mDurationNs = System.nanoTime() - startTime;
+        statistics.mImageCount = inputs.size();
+        statistics.mFailedCount = failed.get();
+        for(int i = 0; i < stageTimes.length; i++) {
+            statistics.mStageTimesNs[i] = stageTimes[i].get();
+        }
+
+        Log.d(TAG, statistics.toString());
+        return statistics;
+    }
+
+    private void render(final Job job, Texture2D texture, final ExecutorService encoders) {
+        long time = System.nanoTime();
+        try {
+            mRenderer.process(mEffect, texture,
+                    mFrameCapture.getFramebuffer(texture.getWidth(), texture.getHeight()));
+        } catch (Throwable e) {
+            job.finish(e);
+            return;
+        } finally {
+            texture.delete();
+        }
+        job.addStageTime(Stage.RENDER, time);
+
+        final long readbackTime = System.nanoTime();
+        try {
+            mFrameCapture.read(new GLRenderer.OnFrameCapturedCallback() {
+                @Override
+                public void onFrameCaptured(final Bitmap bitmap) {
+                    if(bitmap == null) {
+                        job.finish(new IllegalStateException("readback lost"));
+                        return;
+                    }
+                    job.addStageTime(Stage.READBACK, readbackTime);
+                    encoders.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            long time = System.nanoTime();
+                            try {
+                                encode(bitmap, job.output);
+                            } catch (Throwable e) {
+                                job.finish(e);
+                                return;
+                            } finally {
+                                bitmap.recycle();
+                            }
+                            job.addStageTime(Stage.ENCODE, time);
+                            job.finish(null);
+                        }
+                    });
+                }
+            });
+        } catch (Throwable e) {
+            // On GLES 2 contexts, the bitmap is allocated and delivered right away
+            job.finish(e);
+        }
+    }
+
+    private void encode(Bitmap bitmap, File file) throws IOException {
+        OutputStream os = null;
+        try {
+            os = new BufferedOutputStream(new FileOutputStream(file));
+            if(!bitmap.compress(mFormat, mQuality, os)) {
+                throw new IOException("cannot encode " + file);
+            }
+        } finally {
+            if (os != null) os.close();
+        }
+    }
+
+    private String getOutputName(File input) {
+        String name = input.getName();
+        int dot = name.lastIndexOf('.');
+        if(dot > 0) {
+            name = name.substring(0, dot);
+        }
+        switch (mFormat) {
+            case JPEG:
+                return name + ".jpg";
+            case PNG:
+                return name + ".png";
+            default:
+                return name + ".webp";
+        }
+    }
+
+    /**
+     * Releases the GL contexts and the resources of the effect.
+     */
+    public void release() {
+        mLoader.release();
+        if(mFrameCapture != null) {
+            // Delivers pending readbacks, so no job is left unfinished
+            mRenderer.run(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    mFrameCapture.delete();
+                    return null;
+                }
+            });
+            mFrameCapture = null;
+        }
+        mRenderer.release();
+    }
+
+    /**
+     * The state of an image that is passing through the stages.
+     */
+    private class Job {
+        File input;
+        File output;
+        Semaphore inFlight;
+        AtomicInteger failed;
+        AtomicLong[] stageTimes;
+
+        Job(File input, File output) {
+            this.input = input;
+            this.output = output;
+        }
+
+        void addStageTime(Stage stage, long startTime) {
+            stageTimes[stage.ordinal()].addAndGet(System.nanoTime() - startTime);
+        }
+
+        /**
+         * Finishes the job. Must be called exactly once per job, also when a stage fails, because
+         * the batch waits for all jobs to release their slot.
+         * @param e the cause if processing failed, else null
+         */
+        void finish(Throwable e) {
+            try {
+                if(e != null) {
+                    Log.w(TAG, "failed to process " + input, e);
+                    failed.incrementAndGet();
+                }
+                if(mListener != null) {
+                    mListener.onImageProcessed(input, e == null ? output : null, e);
+                }
+            } finally {
+                inFlight.release();
+            }
+        }
+    }
+}
@@ -17,7 +17,9 @@
 package net.protyposis.android.spectaculum;
 
 /**
- * The resolution in which the OpenGL pipeline will do the processing.
+ * The resolution in which the OpenGL pipeline will do the processing. The processing resolution
+ * can additionally be scaled relative to this resolution, or set independently of it, with
+ * {@link SpectaculumView#setProcessingScale(float)} and {@link SpectaculumView#setProcessingSize(int, int)}.
  */
 public enum PipelineResolution {
     /**
@@ -34,6 +34,9 @@ import net.protyposis.android.spectaculum.effects.Parameter;
 import net.protyposis.android.spectaculum.effects.ParameterHandler;
 import net.protyposis.android.spectaculum.gles.*;
 
+import java.io.File;
+import java.util.List;
+
 /**
  * Created by Mario on 14.06.2014.
  */
@@ -46,8 +49,10 @@ public class SpectaculumView extends GLSurfaceView implements
 
     public interface EffectEventListener extends GLRenderer.EffectEventListener {}
     public interface OnFrameCapturedCallback extends GLRenderer.OnFrameCapturedCallback {}
+    public interface OnPassStatisticsListener extends PassProfiler.OnStatisticsListener {}
 
     private GLRenderer mRenderer;
+    private ParameterHandler mParameterHandler;
     private InputSurfaceHolder mInputSurfaceHolder;
     private Handler mRunOnUiThreadHandler = new Handler();
     private ScaleGestureDetector mScaleGestureDetector;
@@ -55,8 +60,15 @@ public class SpectaculumView extends GLSurfaceView implements
 
     private EffectEventListener mEffectEventListener;
     private OnFrameCapturedCallback mOnFrameCapturedCallback;
+    private VideoRecorder mVideoRecorder;
 
     private PipelineResolution mPipelineResolution = PipelineResolution.SOURCE;
+    private float mProcessingScale = 1.0f;
+    private int mProcessingWidth;
+    private int mProcessingHeight;
+    private float mDynamicResolutionFrameRate;
+    private boolean mRegionOfInterestEnabled = true;
+    private OnPassStatisticsListener mOnPassStatisticsListener;
 
     private float mZoomLevel = 1.0f;
     private float mZoomSnappingRange = 0.02f;
@@ -89,10 +101,15 @@ public class SpectaculumView extends GLSurfaceView implements
         }
 
         LibraryHelper.setContext(context);
+        if(ProgramBinaryCache.getDirectory() == null) {
+            ProgramBinaryCache.setDirectory(new File(context.getCacheDir(), "spectaculum-programs"));
+        }
 
         mRenderer = new GLRenderer();
         mRenderer.setOnExternalSurfaceTextureCreatedListener(mExternalSurfaceTextureCreatedListener);
         mRenderer.setEffectEventListener(mRendererEffectEventListener);
+        mParameterHandler = new ParameterHandler(this);
+        mRenderer.setParameterHandler(mParameterHandler);
 
         mInputSurfaceHolder = new InputSurfaceHolder();
 
@@ -361,7 +378,7 @@ public class SpectaculumView extends GLSurfaceView implements
     public void addEffect(final Effect... effects) {
         for(Effect effect : effects) {
             effect.setListener(this);
-            effect.setParameterHandler(new ParameterHandler(this));
+            effect.setParameterHandler(mParameterHandler);
         }
         queueEvent(new Runnable() {
             @Override
@@ -487,14 +504,29 @@ public class SpectaculumView extends GLSurfaceView implements
     }
 
     /**
-     * Requests a render pass of the specified render pipeline section.
+     * Requests a render pass of the specified render pipeline section. Requests are merged in the
+     * renderer until the next frame, so frequent calls, e.g. from a camera or a slider, neither
+     * allocate nor flood the GL thread, and only the first call wakes up the renderer.
      * @param renderRequest specifies the pipeline section to be rendered
      */
-    protected void requestRender(final GLRenderer.RenderRequest renderRequest) {
+    protected void requestRender(GLRenderer.RenderRequest renderRequest) {
+        if(mRenderer.requestRender(renderRequest)) {
+            requestRender();
+        }
+    }
+
+    /**
+     * Sets a bitmap as pipeline input, which is uploaded directly into a texture on the GL thread
+     * instead of being drawn into the input surface. The bitmap must not be recycled while it
+     * is set. After a loss of the GL context, signalled by
+     * {@link #onInputSurfaceCreated(InputSurfaceHolder)}, the bitmap needs to be set again.
+     * @param bitmap the input bitmap, or null to switch back to the input surface
+     */
+    protected void setInputBitmap(final Bitmap bitmap) {
         queueEvent(new Runnable() {
             @Override
             public void run() {
-                mRenderer.setRenderRequest(renderRequest);
+                mRenderer.setInputBitmap(bitmap);
                 requestRender();
             }
         });
@@ -504,12 +536,34 @@ public class SpectaculumView extends GLSurfaceView implements
      * Requests a capture of the current frame on the view. The frame is asynchronously requested
      * from the renderer and will be passed back on the UI thread to {@link #onFrameCaptured(Bitmap)}
      * and the event listener that can be set with {@link #setOnFrameCapturedCallback(OnFrameCapturedCallback)}.
+     * The frame is captured as displayed, including zoom and pan.
      */
     public void captureFrame() {
+        captureFrame(GLRenderer.CaptureSource.SCREEN, 0, 0);
+    }
+
+    /**
+     * Requests a capture of the current frame from a stage of the pipeline in the stage's resolution.
+     * @see #captureFrame(GLRenderer.CaptureSource, int, int)
+     */
+    public void captureFrame(GLRenderer.CaptureSource source) {
+        captureFrame(source, 0, 0);
+    }
+
+    /**
+     * Requests a capture of the current frame from a stage of the pipeline, scaled to the requested
+     * size. Scaling happens on the GPU before the frame is read back, which makes captures of small
+     * thumbnails cheap. If only one dimension is given, the other is derived from the aspect ratio.
+     * @param source the pipeline stage to capture
+     * @param width the width of the captured frame, or 0
+     * @param height the height of the captured frame, or 0
+     * @see #captureFrame()
+     */
+    public void captureFrame(final GLRenderer.CaptureSource source, final int width, final int height) {
         queueEvent(new Runnable() {
             @Override
             public void run() {
-                mRenderer.saveCurrentFrame(new GLRenderer.OnFrameCapturedCallback() {
+                mRenderer.saveCurrentFrame(source, width, height, new GLRenderer.OnFrameCapturedCallback() {
                     @Override
                     public void onFrameCaptured(final Bitmap bitmap) {
                         mRunOnUiThreadHandler.post(new Runnable() {
@@ -520,12 +574,18 @@ public class SpectaculumView extends GLSurfaceView implements
                         });
                     }
                 });
+                if(mRenderer.isFrameCapturePending()) {
+                    /* The capture is read back asynchronously and delivered during the next frame,
+                     * which must be drawn because it is swapped to the screen */
+                    requestRender(GLRenderer.RenderRequest.GEOMETRY);
+                }
             }
         });
     }
 
     /**
-     * Receives a captured frame from the renderer. Can be overwritten in subclasses but must be
+     * Receives a captured frame from the renderer, or null if the capture has failed because the
+     * GL context has been lost. Can be overwritten in subclasses but must be
      * called through. External callers should use {@link #setOnFrameCapturedCallback(OnFrameCapturedCallback)}.
      */
     @Override
@@ -542,6 +602,53 @@ public class SpectaculumView extends GLSurfaceView implements
         mOnFrameCapturedCallback = callback;
     }
 
+    /**
+     * Starts recording the output of the effect pipeline into a video. The effect output is rendered
+     * into the encoder in addition to the screen, so the effects are only applied once per frame.
+     * Every new input frame is recorded with its input timestamp, independent of zoom and pan.
+     * Requires API level 18.
+     * @param recorder a recorder that has not been started yet
+     */
+    public void startRecording(final VideoRecorder recorder) {
+        if(mVideoRecorder != null) {
+            throw new IllegalStateException("already recording");
+        }
+        mVideoRecorder = recorder;
+        recorder.start();
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                mRenderer.startRecording(recorder.getInputSurface());
+                // Redraw the screen too, because the frame is swapped to it
+                requestRender(GLRenderer.RenderRequest.GEOMETRY);
+            }
+        });
+    }
+
+    /**
+     * Stops a recording. The recorder finishes the video file asynchronously.
+     * @see VideoRecorder#setOnRecordingFinishedListener(VideoRecorder.OnRecordingFinishedListener)
+     */
+    public void stopRecording() {
+        if(mVideoRecorder == null) {
+            return;
+        }
+        final VideoRecorder recorder = mVideoRecorder;
+        mVideoRecorder = null;
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                // The encoder surface must be released before the recorder releases its input surface
+                mRenderer.stopRecording();
+                recorder.stop();
+            }
+        });
+    }
+
+    public boolean isRecording() {
+        return mVideoRecorder != null;
+    }
+
     /**
      * Sets the resolution mode of the processing pipeline.
      * @see PipelineResolution
@@ -557,18 +664,184 @@ public class SpectaculumView extends GLSurfaceView implements
         return mPipelineResolution;
     }
 
+    /**
+     * Sets the scale factor of the processing resolution relative to the resolution of the output
+     * surface, which is determined by the {@link PipelineResolution}. The input frame is scaled
+     * once when it enters the pipeline, effects are processed in the scaled resolution, and the
+     * result is scaled to the output surface when it is rendered to the screen. A scale below 1.0
+     * saves lots of pixel processing with heavy effects, e.g. 0.5 processes a 4K video in 1080p.
+     * @param scale the scale factor, 1.0 by default
+     * @see #setProcessingSize(int, int)
+     */
+    public void setProcessingScale(final float scale) {
+        if(scale <= 0) {
+            throw new IllegalArgumentException("invalid processing scale " + scale);
+        }
+        mProcessingScale = scale;
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                mRenderer.setProcessingScale(scale);
+            }
+        });
+        requestRender(GLRenderer.RenderRequest.ALL);
+    }
+
+    /**
+     * Gets the scale factor of the processing resolution.
+     * @see #setProcessingScale(float)
+     */
+    public float getProcessingScale() {
+        return mProcessingScale;
+    }
+
+    /**
+     * Sets an explicit processing resolution that is independent of the input resolution and the
+     * output surface resolution, and overrides the processing scale. A size of 0x0 reverts to the
+     * processing scale.
+     * @see #setProcessingScale(float)
+     */
+    public void setProcessingSize(final int width, final int height) {
+        if(width < 0 || height < 0) {
+            throw new IllegalArgumentException("invalid processing size " + width + "x" + height);
+        }
+        mProcessingWidth = width;
+        mProcessingHeight = height;
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                mRenderer.setProcessingSize(width, height);
+            }
+        });
+        requestRender(GLRenderer.RenderRequest.ALL);
+    }
+
+    /**
+     * Gets the explicitly set processing width, or 0 if the processing scale is used.
+     * @see #setProcessingSize(int, int)
+     */
+    public int getProcessingWidth() {
+        return mProcessingWidth;
+    }
+
+    /**
+     * Gets the explicitly set processing height, or 0 if the processing scale is used.
+     * @see #setProcessingSize(int, int)
+     */
+    public int getProcessingHeight() {
+        return mProcessingHeight;
+    }
+
+    /**
+     * Enables dynamic resolution, which continuously adjusts the processing resolution to hold a
+     * target frame rate. When heavy effects cannot be rendered at the target frame rate, the
+     * processing resolution is temporarily lowered, and raised again when there is enough headroom.
+     * The dynamic scale is applied on top of the processing scale or size.
+     * @param targetFrameRate the frame rate to hold, or 0 to disable dynamic resolution (default)
+     * @see ResolutionGovernor
+     */
+    public void setDynamicResolution(final float targetFrameRate) {
+        mDynamicResolutionFrameRate = targetFrameRate;
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                mRenderer.setDynamicResolution(targetFrameRate);
+            }
+        });
+        requestRender(GLRenderer.RenderRequest.ALL);
+    }
+
+    /**
+     * Gets the target frame rate of dynamic resolution, or 0 if it is disabled.
+     * @see #setDynamicResolution(float)
+     */
+    public float getDynamicResolution() {
+        return mDynamicResolutionFrameRate;
+    }
+
+    /**
+     * Enables or disables region of interest processing, which applies the effect only to the
+     * visible part of the frame when zoomed in. Enabled by default.
+     * @see GLRenderer#setRegionOfInterestEnabled(boolean)
+     */
+    public void setRegionOfInterestEnabled(final boolean enabled) {
+        mRegionOfInterestEnabled = enabled;
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                mRenderer.setRegionOfInterestEnabled(enabled);
+            }
+        });
+        requestRender(GLRenderer.RenderRequest.EFFECT);
+    }
+
+    public boolean isRegionOfInterestEnabled() {
+        return mRegionOfInterestEnabled;
+    }
+
+    /**
+     * Sets a listener that periodically receives the GPU render time statistics of every pass of
+     * the current effect, e.g. to find the passes of a multi-pass effect that take the most time.
+     * Setting a listener enables the measurement, which requires GPU timer queries unless CPU
+     * timing is enabled with {@link #setCpuPassTimingEnabled(boolean)}.
+     * @param listener the listener, which is called on the UI thread, or null to disable profiling
+     * @see PassProfiler
+     */
+    public void setOnPassStatisticsListener(OnPassStatisticsListener listener) {
+        mOnPassStatisticsListener = listener;
+        final boolean enabled = listener != null;
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                mRenderer.setPassStatisticsListener(enabled ? mRendererPassStatisticsListener : null);
+            }
+        });
+    }
+
+    /**
+     * Enables or disables the recording of frame metrics, i.e. frame times and counts of input
+     * frames, rendered frames and render requests. Disabled by default.
+     * @see #getMetrics()
+     */
+    public void setMetricsEnabled(boolean enabled) {
+        mRenderer.setMetricsEnabled(enabled);
+    }
+
+    /**
+     * Gets the frame metrics, or null if they are disabled.
+     * @see FrameMetrics#getSnapshot()
+     */
+    public FrameMetrics getMetrics() {
+        return mRenderer.getMetrics();
+    }
+
+    /**
+     * Enables timing of passes on the CPU on devices without GPU timer queries. For debugging only,
+     * because it serializes CPU and GPU.
+     * @see GLRenderer#setCpuPassTimingEnabled(boolean)
+     */
+    public void setCpuPassTimingEnabled(final boolean enabled) {
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                mRenderer.setCpuPassTimingEnabled(enabled);
+            }
+        });
+    }
+
     /**
      * Sets the resolution of the source data and recomputes the layout. This implicitly also sets
      * the resolution of the view output surface if pipeline resolution mode {@link PipelineResolution#SOURCE}
      * is set. In SOURCE mode, output will therefore be computed in the input resolution and then
      * at the very end scaled (most often downscaled) to fit the view in the layout.
      *
-     * TODO decouple input, processing and output resolution
+     * The processing resolution can be decoupled from the input and output resolutions with
+     * {@link #setProcessingScale(float)} and {@link #setProcessingSize(int, int)}.
      *
      * @param width the width of the input image data
      * @param height the height of the input image data
      */
-    public void updateResolution(int width, int height) {
+    public void updateResolution(final int width, final int height) {
         if(width == mImageWidth && height == mImageHeight) {
             // Don't do anything if resolution has stayed the same
             return;
@@ -577,6 +850,13 @@ public class SpectaculumView extends GLSurfaceView implements
         mImageWidth = width;
         mImageHeight = height;
 
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                mRenderer.setInputSize(width, height);
+            }
+        });
+
         // If desired, set output resolution to source resolution
         if (width != 0 && height != 0 && mPipelineResolution == PipelineResolution.SOURCE) {
             getHolder().setFixedSize(width, height);
@@ -604,6 +884,23 @@ public class SpectaculumView extends GLSurfaceView implements
         }
     };
 
+    /**
+     * Pass statistics listener that transfers the statistics to the UI thread.
+     */
+    private PassProfiler.OnStatisticsListener mRendererPassStatisticsListener = new PassProfiler.OnStatisticsListener() {
+        @Override
+        public void onPassStatistics(final List<PassStatistics> statistics) {
+            mRunOnUiThreadHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if(mOnPassStatisticsListener != null) {
+                        mOnPassStatisticsListener.onPassStatistics(statistics);
+                    }
+                }
+            });
+        }
+    };
+
     /**
      * Effect event listener that transfers the events to the UI thread.
      */
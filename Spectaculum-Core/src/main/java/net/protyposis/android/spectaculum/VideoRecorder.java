@@ -0,0 +1,221 @@
+/*
+ * Copyright 2016 Mario Guggenberger <mg@protyposis.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.protyposis.android.spectaculum;
+
+import android.annotation.TargetApi;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.Build;
+import android.util.Log;
+import android.view.Surface;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes frames rendered into an input surface to an H.264 video in an MP4 file. The encoder
+ * output is drained and muxed on a separate thread, so rendering into the input surface never
+ * blocks on the encoder.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+public class VideoRecorder {
+
+    private static final String TAG = VideoRecorder.class.getSimpleName();
+
+    private static final String MIME_TYPE = MediaFormat.MIMETYPE_VIDEO_AVC;
+    private static final int I_FRAME_INTERVAL = 1; // seconds
+    private static final long DEQUEUE_TIMEOUT_US = 10000;
+
+    public interface OnRecordingFinishedListener {
+        /**
+         * Gets called on the encoder thread when the video file has been completely written.
+         * @param file the recorded video file
+         * @param e the cause if recording failed, else null
+         */
+        void onRecordingFinished(File file, Exception e);
+    }
+
+    private File mFile;
+    private MediaCodec mEncoder;
+    private MediaMuxer mMuxer;
+    private Surface mInputSurface;
+    private Thread mDrainThread;
+    private OnRecordingFinishedListener mOnRecordingFinishedListener;
+
+    /**
+     * Creates a recorder and configures the encoder.
+     * @param file the output file
+     * @param width the width of the video, should be a multiple of 16
+     * @param height the height of the video, should be a multiple of 16
+     * @param bitRate the bit rate of the video in bits per second
+     * @param frameRate the nominal frame rate of the video; the actual frame timing is
+     *                  determined by the presentation timestamps of the rendered frames
+     */
+    public VideoRecorder(File file, int width, int height, int bitRate, int frameRate) throws IOException {
+        if(Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            throw new IllegalStateException("recording requires API level 18");
+        }
+        if(width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("invalid video size " + width + "x" + height);
+        }
+
+        mFile = file;
+
+        MediaFormat format = MediaFormat.createVideoFormat(MIME_TYPE, width, height);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL);
+
+        mEncoder = MediaCodec.createEncoderByType(MIME_TYPE);
+        mEncoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        mInputSurface = mEncoder.createInputSurface();
+
+        mMuxer = new MediaMuxer(file.getAbsolutePath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+    }
+
+    /**
+     * Gets the surface into which the frames to record must be rendered.
+     */
+    public Surface getInputSurface() {
+        return mInputSurface;
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    public void setOnRecordingFinishedListener(OnRecordingFinishedListener listener) {
+        mOnRecordingFinishedListener = listener;
+    }
+
+    /**
+     * Starts the encoder. Frames rendered into the input surface are recorded from now on.
+     */
+    public void start() {
+        mEncoder.start();
+        mDrainThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Exception exception = null;
+                try {
+                    drain();
+                } catch (Exception e) {
+                    Log.e(TAG, "recording failed", e);
+                    exception = e;
+                } finally {
+                    Exception releaseException = release();
+                    if(exception == null) {
+                        exception = releaseException;
+                    }
+                    // The listener is always notified, else a caller waiting for the file would hang
+                    if(mOnRecordingFinishedListener != null) {
+                        mOnRecordingFinishedListener.onRecordingFinished(mFile, exception);
+                    }
+                }
+            }
+        }, TAG);
+        mDrainThread.start();
+    }
+
+    /**
+     * Stops the recording. Frames rendered into the input surface afterwards are dropped. The
+     * encoder is flushed and the file finished asynchronously, see
+     * {@link #setOnRecordingFinishedListener(OnRecordingFinishedListener)}.
+     */
+    public void stop() {
+        mEncoder.signalEndOfInputStream();
+    }
+
+    private void drain() {
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        ByteBuffer[] outputBuffers = mEncoder.getOutputBuffers();
+        int track = -1;
+
+        while(true) {
+            int index = mEncoder.dequeueOutputBuffer(info, DEQUEUE_TIMEOUT_US);
+            if(index == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                continue;
+            } else if(index == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                outputBuffers = mEncoder.getOutputBuffers();
+            } else if(index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                // The format contains the codec specific data that the muxer needs to start
+                track = mMuxer.addTrack(mEncoder.getOutputFormat());
+                mMuxer.start();
+            } else if(index >= 0) {
+                if((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+                    // Already passed to the muxer with the output format
+                    info.size = 0;
+                }
+                if(info.size > 0) {
+                    if(track == -1) {
+                        throw new RuntimeException("encoder output before format");
+                    }
+                    ByteBuffer buffer = outputBuffers[index];
+                    buffer.position(info.offset);
+                    buffer.limit(info.offset + info.size);
+                    mMuxer.writeSampleData(track, buffer, info);
+                }
+                mEncoder.releaseOutputBuffer(index, false);
+
+                if((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    if(track != -1) {
+                        mMuxer.stop();
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Releases the encoder, muxer and input surface. Each is released even if releasing another
+     * one fails, e.g. when the encoder is in an error state after a failed drain.
+     * @return the first exception that occurred, or null
+     */
+    private Exception release() {
+        Exception exception = null;
+        try {
+            mEncoder.stop();
+        } catch (Exception e) {
+            Log.w(TAG, "cannot stop encoder", e);
+            exception = e;
+        }
+        try {
+            mEncoder.release();
+        } catch (Exception e) {
+            Log.w(TAG, "cannot release encoder", e);
+            exception = exception != null ? exception : e;
+        }
+        try {
+            mMuxer.release();
+        } catch (Exception e) {
+            Log.w(TAG, "cannot release muxer", e);
+            exception = exception != null ? exception : e;
+        }
+        try {
+            mInputSurface.release();
+        } catch (Exception e) {
+            Log.w(TAG, "cannot release input surface", e);
+            exception = exception != null ? exception : e;
+        }
+        return exception;
+    }
+}
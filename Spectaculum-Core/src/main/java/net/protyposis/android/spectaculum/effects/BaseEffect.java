@@ -19,7 +19,9 @@ package net.protyposis.android.spectaculum.effects;
 import java.util.ArrayList;
 import java.util.List;
 
+import net.protyposis.android.spectaculum.gles.ExternalSurfaceTexture;
 import net.protyposis.android.spectaculum.gles.Framebuffer;
+import net.protyposis.android.spectaculum.gles.FramebufferPool;
 import net.protyposis.android.spectaculum.gles.Texture2D;
 
 /**
@@ -28,13 +30,14 @@ import net.protyposis.android.spectaculum.gles.Texture2D;
  * {@link ShaderEffect}.
  * Created by Mario on 18.07.2014.
  */
-public abstract class BaseEffect implements Effect, Parameter.Listener {
+public abstract class BaseEffect implements PipelineEffect, Parameter.Listener {
 
     private String mName;
     private List<Parameter> mParameters;
     private boolean mInitialized;
     private Listener mListener;
     private ParameterHandler mParameterHandler;
+    private FramebufferPool mFramebufferPool;
     private boolean mBlockEvents;
 
     public BaseEffect(String name) {
@@ -59,6 +62,16 @@ public abstract class BaseEffect implements Effect, Parameter.Listener {
 
     public abstract void init(int width, int height);
 
+    /**
+     * Keeps all resources of the effect, because the base class does not hold any that depend on
+     * the resolution. Effects with resolution dependent state, e.g. texture size uniforms or
+     * intermediate framebuffers, must override this method and update it in place, without
+     * recreating their programs.
+     */
+    @Override
+    public void resize(int width, int height) {
+    }
+
     @Override
     public boolean isInitialized() {
         return mInitialized;
@@ -66,6 +79,21 @@ public abstract class BaseEffect implements Effect, Parameter.Listener {
 
     public abstract void apply(Texture2D source, Framebuffer target);
 
+    @Override
+    public boolean isExternalTextureSupported() {
+        return false;
+    }
+
+    @Override
+    public int getNeighborhoodRadius() {
+        return NEIGHBORHOOD_UNBOUNDED;
+    }
+
+    @Override
+    public void apply(ExternalSurfaceTexture source, Framebuffer target) {
+        throw new UnsupportedOperationException(getName() + " does not support external textures");
+    }
+
     @Override
     public void setParameterHandler(ParameterHandler handler) {
         mParameterHandler = handler;
@@ -78,6 +106,22 @@ public abstract class BaseEffect implements Effect, Parameter.Listener {
         return mParameterHandler;
     }
 
+    @Override
+    public void setFramebufferPool(FramebufferPool pool) {
+        mFramebufferPool = pool;
+    }
+
+    /**
+     * Gets the framebuffer pool to acquire intermediate framebuffers from. If no pool has been
+     * set, the effect gets a private pool.
+     */
+    protected FramebufferPool getFramebufferPool() {
+        if(mFramebufferPool == null) {
+            mFramebufferPool = new FramebufferPool();
+        }
+        return mFramebufferPool;
+    }
+
     @Override
     public void addParameter(Parameter parameter) {
         mParameters.add(parameter);
@@ -16,16 +16,41 @@
 
 package net.protyposis.android.spectaculum.effects;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * Created by maguggen on 21.08.2014.
  */
 public abstract class BaseParameter<T> implements Parameter<T> {
 
+    /**
+     * A single run of an animation. Each start creates a new run, so restarting the same
+     * animation instance begins from the start again.
+     */
+    private static class AnimationRun {
+
+        private final ParameterAnimation mAnimation;
+
+        /**
+         * The start time of the run, only accessed on the GL thread
+         */
+        private boolean mStarted;
+        private long mStartTime;
+
+        AnimationRun(ParameterAnimation animation) {
+            mAnimation = animation;
+        }
+    }
+
     private String mName;
     private Delegate<T> mDelegate;
     private String mDescription;
     private Listener mListener;
     private ParameterHandler mHandler;
+    private final AtomicBoolean mPending = new AtomicBoolean();
+    private final AtomicReference<AnimationRun> mAnimationRun = new AtomicReference<>();
+    private volatile T mDelegateValue;
 
     protected BaseParameter(String name, Delegate<T> delegate) {
         mName = name;
@@ -61,20 +86,111 @@ public abstract class BaseParameter<T> implements Parameter<T> {
         }
     }
 
-    protected void setDelegateValue(final T value) {
-        if(mHandler != null) {
-            mHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    mDelegate.setValue(value);
-                }
-            });
+    /**
+     * Hands the current value over to the delegate. If a handler is set, the value is applied on
+     * the GL thread with the next frame, and of multiple changes until then, only the latest
+     * value is applied.
+     */
+    protected void setDelegateValue() {
+        ParameterHandler handler = mHandler;
+        if(handler != null) {
+            if(mPending.compareAndSet(false, true)) {
+                handler.schedule();
+            }
         } else {
-            mDelegate.setValue(value);
+            applyDelegateValue();
         }
         fireParameterChanged();
     }
 
+    /**
+     * Hands a value over to the delegate, like {@link #setDelegateValue()}.
+     * @deprecated Store the value in the subclass, override {@link #applyDelegateValue()} and call
+     *             {@link #setDelegateValue()} instead, which avoids boxing the value.
+     */
+    @Deprecated
+    protected void setDelegateValue(T value) {
+        mDelegateValue = value;
+        setDelegateValue();
+    }
+
+    /**
+     * Passes the current value to the delegate. The value is written on the caller thread and
+     * read on the GL thread, so implementations must store it in a volatile field. The default
+     * implementation passes the value of {@link #setDelegateValue(Object)}.
+     */
+    protected void applyDelegateValue() {
+        mDelegate.setValue(mDelegateValue);
+    }
+
+    /**
+     * Applies the current value if it has changed since it was last applied.
+     */
+    void applyPendingValue() {
+        // Clear the flag before reading the value, so a concurrent change is applied again next time
+        if(mPending.compareAndSet(true, false)) {
+            applyDelegateValue();
+        }
+    }
+
+    /**
+     * Starts an animation of the value, which replaces a running animation, also when it is the
+     * same animation, which then restarts from the beginning. The animation is
+     * stepped on the GL thread by the handler, starting with the next frame, and therefore only
+     * runs while a handler is set. Values set during an animation are overwritten by the
+     * animation.
+     */
+    protected void startAnimation(ParameterAnimation animation) {
+        if(!animation.hasKeyframes()) {
+            throw new IllegalArgumentException("animation has no keyframes");
+        }
+        mAnimationRun.set(new AnimationRun(animation));
+        // Request a frame to start the animation
+        fireParameterChanged();
+    }
+
+    /**
+     * Stops a running animation, which keeps the current value.
+     */
+    public void cancelAnimation() {
+        mAnimationRun.set(null);
+    }
+
+    public boolean isAnimating() {
+        return mAnimationRun.get() != null;
+    }
+
+    /**
+     * Sets an animated value. Must be implemented by parameters that support animations.
+     */
+    protected void setAnimatedValue(float value) {
+        throw new UnsupportedOperationException(getName() + " cannot be animated");
+    }
+
+    /**
+     * Sets the value of a running animation at the frame time. Must be called on the GL thread.
+     * @param frameTime the frame time in nanoseconds
+     */
+    void stepAnimation(long frameTime) {
+        AnimationRun run = mAnimationRun.get();
+        if(run == null) {
+            return;
+        }
+        if(!run.mStarted) {
+            // The animation starts with the first frame on which it is stepped
+            run.mStarted = true;
+            run.mStartTime = frameTime;
+        }
+
+        long time = (frameTime - run.mStartTime) / 1000000;
+        setAnimatedValue(run.mAnimation.getValue(time));
+
+        if(run.mAnimation.isFinished(time)) {
+            // Only remove the animation if it has not been replaced or restarted in the meantime
+            mAnimationRun.compareAndSet(run, null);
+        }
+    }
+
     /**
      * Sets a ParameterHandler on which parameter value changes will be executed. Parameter values
      * need to be set on the GL thread where the effect that the parameter belongs is active, and
@@ -83,6 +199,15 @@ public abstract class BaseParameter<T> implements Parameter<T> {
      * @param handler the parameter handler to set, or null to unset
      */
     public void setHandler(ParameterHandler handler) {
+        if(mHandler != null) {
+            mHandler.unregister(this);
+        }
         mHandler = handler;
+        if(handler != null) {
+            handler.register(this);
+            if(mPending.get()) {
+                handler.schedule();
+            }
+        }
     }
 }
@@ -21,11 +21,23 @@ package net.protyposis.android.spectaculum.effects;
  */
 public class BooleanParameter extends BaseParameter<Boolean> {
 
+    /**
+     * A delegate for boxed values.
+     * @see BooleanDelegate
+     */
     public interface Delegate extends Parameter.Delegate<Boolean> {
     }
 
+    /**
+     * A delegate that receives the primitive value, which avoids boxing every value change.
+     */
+    public interface BooleanDelegate {
+        void setValue(boolean value);
+    }
+
     private boolean mDefault;
-    private boolean mValue;
+    private volatile boolean mValue;
+    private BooleanDelegate mBooleanDelegate;
 
     public BooleanParameter(String name, boolean init, Delegate delegate, String description) {
         super(name, delegate, description);
@@ -37,22 +49,40 @@ public class BooleanParameter extends BaseParameter<Boolean> {
         this(name, init, delegate, null);
     }
 
+    public BooleanParameter(String name, boolean init, BooleanDelegate delegate, String description) {
+        this(name, init, (Delegate) null, description);
+        mBooleanDelegate = delegate;
+    }
+
+    public BooleanParameter(String name, boolean init, BooleanDelegate delegate) {
+        this(name, init, delegate, null);
+    }
+
     public boolean getValue() {
         return mValue;
     }
 
     public void setValue(boolean value) {
         mValue = value;
-        setDelegateValue(mValue);
+        setDelegateValue();
     }
 
     public boolean getDefault() {
         return mDefault;
     }
 
+    @Override
+    protected void applyDelegateValue() {
+        if(mBooleanDelegate != null) {
+            mBooleanDelegate.setValue(mValue);
+        } else {
+            getDelegate().setValue(mValue);
+        }
+    }
+
     @Override
     public void reset() {
         mValue = mDefault;
-        setDelegateValue(mValue);
+        setDelegateValue();
     }
 }
@@ -16,6 +16,7 @@
 
 package net.protyposis.android.spectaculum.effects;
 
+import net.protyposis.android.spectaculum.LibraryHelper;
 import net.protyposis.android.spectaculum.effects.FloatParameter;
 import net.protyposis.android.spectaculum.effects.ShaderEffect;
 import net.protyposis.android.spectaculum.gles.ColorFilterShaderProgram;
@@ -24,10 +25,16 @@ import net.protyposis.android.spectaculum.gles.TextureShaderProgram;
 /**
  * Created by Mario on 19.07.2014.
  */
-public class ColorFilterEffect extends ShaderEffect {
+public class ColorFilterEffect extends ShaderEffect implements FusibleEffect {
 
     private float mR, mG, mB, mA;
 
+    public ColorFilterEffect() {
+        setNeighborhoodRadius(0);
+        // Samples the source only at the texture coordinate
+        setExternalTextureSupported(true);
+    }
+
     @Override
     protected TextureShaderProgram initShaderProgram() {
         final ColorFilterShaderProgram colorFilterShader = new ColorFilterShaderProgram();
@@ -37,30 +44,30 @@ public class ColorFilterEffect extends ShaderEffect {
         mB = 0.0f;
         mA = 1.0f;
 
-        addParameter(new FloatParameter("Red", 0.0f, 1.0f, mR, new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("Red", 0.0f, 1.0f, mR, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mR = value;
                 colorFilterShader.setColor(mR, mG, mB, mA);
             }
         }));
-        addParameter(new FloatParameter("Green", 0.0f, 1.0f, mG, new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("Green", 0.0f, 1.0f, mG, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mG = value;
                 colorFilterShader.setColor(mR, mG, mB, mA);
             }
         }));
-        addParameter(new FloatParameter("Blue", 0.0f, 1.0f, mB, new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("Blue", 0.0f, 1.0f, mB, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mB = value;
                 colorFilterShader.setColor(mR, mG, mB, mA);
             }
         }));
-        addParameter(new FloatParameter("Alpha", 0.0f, 1.0f, mA, new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("Alpha", 0.0f, 1.0f, mA, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mA = value;
                 colorFilterShader.setColor(mR, mG, mB, mA);
             }
@@ -68,4 +75,14 @@ public class ColorFilterEffect extends ShaderEffect {
 
         return colorFilterShader;
     }
+
+    @Override
+    public String getFusionCode() {
+        return LibraryHelper.loadTextFromAsset("shaders/fn_colorfilter.glsl");
+    }
+
+    @Override
+    public String[] getFusionUniforms() {
+        return new String[] { "color" };
+    }
 }
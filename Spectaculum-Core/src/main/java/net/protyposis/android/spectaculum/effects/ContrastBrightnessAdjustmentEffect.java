@@ -16,17 +16,24 @@
 
 package net.protyposis.android.spectaculum.effects;
 
+import net.protyposis.android.spectaculum.LibraryHelper;
 import net.protyposis.android.spectaculum.gles.ContrastBrightnessAdjustmentShaderProgram;
 import net.protyposis.android.spectaculum.gles.TextureShaderProgram;
 
 /**
  * Created by Mario on 02.10.2014.
  */
-public class ContrastBrightnessAdjustmentEffect extends ShaderEffect {
+public class ContrastBrightnessAdjustmentEffect extends ShaderEffect implements FusibleEffect {
 
     private float mContrast;
     private float mBrightness;
 
+    public ContrastBrightnessAdjustmentEffect() {
+        setNeighborhoodRadius(0);
+        // Samples the source only at the texture coordinate
+        setExternalTextureSupported(true);
+    }
+
     @Override
     protected TextureShaderProgram initShaderProgram() {
         final ContrastBrightnessAdjustmentShaderProgram adjustmentsShader = new ContrastBrightnessAdjustmentShaderProgram();
@@ -34,16 +41,16 @@ public class ContrastBrightnessAdjustmentEffect extends ShaderEffect {
         mContrast = 1.0f;
         mBrightness = 1.0f;
 
-        addParameter(new FloatParameter("Contrast", 0.0f, 5.0f, mContrast, new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("Contrast", 0.0f, 5.0f, mContrast, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mContrast = value;
                 adjustmentsShader.setContrast(mContrast);
             }
         }));
-        addParameter(new FloatParameter("Brightness", 0.0f, 5.0f, mBrightness, new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("Brightness", 0.0f, 5.0f, mBrightness, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mBrightness = value;
                 adjustmentsShader.setBrightness(mBrightness);
             }
@@ -51,4 +58,14 @@ public class ContrastBrightnessAdjustmentEffect extends ShaderEffect {
 
         return adjustmentsShader;
     }
+
+    @Override
+    public String getFusionCode() {
+        return LibraryHelper.loadTextFromAsset("shaders/fn_adjust_contrast_brightness.glsl");
+    }
+
+    @Override
+    public String[] getFusionUniforms() {
+        return new String[] { "contrast", "brightness" };
+    }
 }
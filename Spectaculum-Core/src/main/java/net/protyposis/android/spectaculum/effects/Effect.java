@@ -77,6 +77,9 @@ public interface Effect {
      * Applies the effect to a source texture and writes it to the target framebuffer. The source
      * texture is the input image data that the effect is applied to, and the target can be an
      * intermediate framebuffer (for chaining to another effect) or the screen for direct output.
+     * Effects that change the GL state directly instead of through the
+     * {@link net.protyposis.android.spectaculum.gles.GLState} tracker must invalidate it before
+     * they return.
      * @param source the source texture where the input image is read from
      * @param target the target framebuffer where the result with the applied effect is written to
      */
@@ -22,7 +22,7 @@ package net.protyposis.android.spectaculum.effects;
 public class EnumParameter<T extends Enum<T>> extends BaseParameter<T> {
 
     private T mDefault;
-    private T mValue;
+    private volatile T mValue;
     private T[] mValues;
 
     public EnumParameter(String name, Class<T> enumClass, T init, Delegate<T> delegate, String description) {
@@ -43,7 +43,7 @@ public class EnumParameter<T extends Enum<T>> extends BaseParameter<T> {
 
     public void setValue(T value) {
         mValue = value;
-        setDelegateValue(mValue);
+        setDelegateValue();
     }
 
 
@@ -55,9 +55,14 @@ public class EnumParameter<T extends Enum<T>> extends BaseParameter<T> {
         return mValues;
     }
 
+    @Override
+    protected void applyDelegateValue() {
+        getDelegate().setValue(mValue);
+    }
+
     @Override
     public void reset() {
         mValue = mDefault;
-        setDelegateValue(mValue);
+        setDelegateValue();
     }
 }
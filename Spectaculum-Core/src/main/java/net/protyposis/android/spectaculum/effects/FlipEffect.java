@@ -16,13 +16,14 @@
 
 package net.protyposis.android.spectaculum.effects;
 
+import net.protyposis.android.spectaculum.LibraryHelper;
 import net.protyposis.android.spectaculum.gles.TextureFlipShaderProgram;
 import net.protyposis.android.spectaculum.gles.TextureShaderProgram;
 
 /**
  * Created by maguggen on 22.08.2014.
  */
-public class FlipEffect extends ShaderEffect {
+public class FlipEffect extends ShaderEffect implements FusibleEffect {
 
     public enum Mode {
         NONE,
@@ -48,4 +49,14 @@ public class FlipEffect extends ShaderEffect {
 
         return flipShader;
     }
+
+    @Override
+    public String getFusionCode() {
+        return LibraryHelper.loadTextFromAsset("shaders/fn_texture_flip.glsl");
+    }
+
+    @Override
+    public String[] getFusionUniforms() {
+        return new String[] { "mode" };
+    }
 }
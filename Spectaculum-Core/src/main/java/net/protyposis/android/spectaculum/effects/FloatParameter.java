@@ -21,13 +21,25 @@ package net.protyposis.android.spectaculum.effects;
  */
 public class FloatParameter extends BaseParameter<Float> {
 
+    /**
+     * A delegate for boxed values.
+     * @see FloatDelegate
+     */
     public interface Delegate extends Parameter.Delegate<Float> {
     }
 
+    /**
+     * A delegate that receives the primitive value, which avoids boxing every value change.
+     */
+    public interface FloatDelegate {
+        void setValue(float value);
+    }
+
     private float mMin;
     private float mMax;
     private float mDefault;
-    private float mValue;
+    private volatile float mValue;
+    private FloatDelegate mFloatDelegate;
 
     public FloatParameter(String name, float min, float max, float init, Delegate delegate, String description) {
         super(name, delegate, description);
@@ -41,13 +53,26 @@ public class FloatParameter extends BaseParameter<Float> {
         this(name, min, max, init, delegate, null);
     }
 
+    public FloatParameter(String name, float min, float max, float init, FloatDelegate delegate, String description) {
+        this(name, min, max, init, (Delegate) null, description);
+        mFloatDelegate = delegate;
+    }
+
+    public FloatParameter(String name, float min, float max, float init, FloatDelegate delegate) {
+        this(name, min, max, init, delegate, null);
+    }
+
     public float getValue() {
         return mValue;
     }
 
-    public void setValue(Float value) {
+    public void setValue(float value) {
         mValue = value;
-        setDelegateValue(mValue);
+        setDelegateValue();
+    }
+
+    public void setValue(Float value) {
+        setValue(value.floatValue());
     }
 
     public float getMin() {
@@ -62,9 +87,31 @@ public class FloatParameter extends BaseParameter<Float> {
         return mDefault;
     }
 
+    /**
+     * Animates the value on the GL thread. Animated values are clamped to the range of the parameter.
+     * @see ParameterAnimation
+     */
+    public void animate(ParameterAnimation animation) {
+        startAnimation(animation);
+    }
+
+    @Override
+    protected void setAnimatedValue(float value) {
+        setValue(Math.max(mMin, Math.min(mMax, value)));
+    }
+
+    @Override
+    protected void applyDelegateValue() {
+        if(mFloatDelegate != null) {
+            mFloatDelegate.setValue(mValue);
+        } else {
+            getDelegate().setValue(mValue);
+        }
+    }
+
     @Override
     public void reset() {
         mValue = mDefault;
-        setDelegateValue(mValue);
+        setDelegateValue();
     }
 }
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2016 Mario Guggenberger <mg@protyposis.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.protyposis.android.spectaculum.effects;
+
+import net.protyposis.android.spectaculum.gles.FusedShaderProgram;
+import net.protyposis.android.spectaculum.gles.TextureShaderProgram;
+
+/**
+ * Interface for pointwise effects, i.e. effects that compute each output pixel only from the input
+ * pixel at the same position. A {@link StackEffect} fuses consecutive fusible effects into a single
+ * shader pass instead of rendering each of them in a separate pass.
+ * @see FusedShaderProgram
+ */
+public interface FusibleEffect extends PipelineEffect {
+
+    /**
+     * Gets the GLSL code snippet of the effect's fused shader stage.
+     * @see FusedShaderProgram for the format of the snippet
+     */
+    String getFusionCode();
+
+    /**
+     * Gets the names of the uniforms of the effect's shader program that are used in the snippet.
+     */
+    String[] getFusionUniforms();
+
+    /**
+     * Gets the shader program of the effect, from which the uniform values are mirrored.
+     */
+    TextureShaderProgram getShaderProgram();
+}
@@ -21,13 +21,25 @@ package net.protyposis.android.spectaculum.effects;
  */
 public class IntegerParameter extends BaseParameter<Integer> {
 
+    /**
+     * A delegate for boxed values.
+     * @see IntegerDelegate
+     */
     public interface Delegate extends BaseParameter.Delegate<Integer> {
     }
 
+    /**
+     * A delegate that receives the primitive value, which avoids boxing every value change.
+     */
+    public interface IntegerDelegate {
+        void setValue(int value);
+    }
+
     private int mMin;
     private int mMax;
     private int mDefault;
-    private int mValue;
+    private volatile int mValue;
+    private IntegerDelegate mIntegerDelegate;
 
     public IntegerParameter(String name, int min, int max, int init, Delegate delegate, String description) {
         super(name, delegate, description);
@@ -41,13 +53,26 @@ public class IntegerParameter extends BaseParameter<Integer> {
         this(name, min, max, init, delegate, null);
     }
 
+    public IntegerParameter(String name, int min, int max, int init, IntegerDelegate delegate, String description) {
+        this(name, min, max, init, (Delegate) null, description);
+        mIntegerDelegate = delegate;
+    }
+
+    public IntegerParameter(String name, int min, int max, int init, IntegerDelegate delegate) {
+        this(name, min, max, init, delegate, null);
+    }
+
     public int getValue() {
         return mValue;
     }
 
-    public void setValue(Integer value) {
+    public void setValue(int value) {
         mValue = value;
-        setDelegateValue(mValue);
+        setDelegateValue();
+    }
+
+    public void setValue(Integer value) {
+        setValue(value.intValue());
     }
 
     public int getMin() {
@@ -62,9 +87,31 @@ public class IntegerParameter extends BaseParameter<Integer> {
         return mDefault;
     }
 
+    /**
+     * Animates the value on the GL thread. Animated values are clamped to the range of the parameter.
+     * @see ParameterAnimation
+     */
+    public void animate(ParameterAnimation animation) {
+        startAnimation(animation);
+    }
+
+    @Override
+    protected void setAnimatedValue(float value) {
+        setValue(Math.max(mMin, Math.min(mMax, Math.round(value))));
+    }
+
+    @Override
+    protected void applyDelegateValue() {
+        if(mIntegerDelegate != null) {
+            mIntegerDelegate.setValue(mValue);
+        } else {
+            getDelegate().setValue(mValue);
+        }
+    }
+
     @Override
     public void reset() {
         mValue = mDefault;
-        setDelegateValue(mValue);
+        setDelegateValue();
     }
 }
@@ -23,6 +23,11 @@ import net.protyposis.android.spectaculum.gles.TextureShaderProgram;
  * Created by Mario on 18.07.2014.
  */
 public class KernelEdgeDetectEffect extends ShaderEffect {
+
+    public KernelEdgeDetectEffect() {
+        setNeighborhoodRadius(1); // 3x3 kernel
+    }
+
     @Override
     protected TextureShaderProgram initShaderProgram() {
         return new TextureKernelShaderProgram(TextureKernelShaderProgram.Kernel.EDGE_DETECT);
@@ -23,6 +23,11 @@ import net.protyposis.android.spectaculum.gles.TextureShaderProgram;
  * Created by Mario on 18.07.2014.
  */
 public class KernelEmbossEffect extends ShaderEffect {
+
+    public KernelEmbossEffect() {
+        setNeighborhoodRadius(1); // 3x3 kernel
+    }
+
     @Override
     protected TextureShaderProgram initShaderProgram() {
         return new TextureKernelShaderProgram(TextureKernelShaderProgram.Kernel.EMBOSS);
@@ -16,19 +16,33 @@
 
 package net.protyposis.android.spectaculum.effects;
 
+import net.protyposis.android.spectaculum.LibraryHelper;
 import net.protyposis.android.spectaculum.gles.TextureShaderProgram;
 
 /**
  * Created by Mario on 18.07.2014.
  */
-public class NoEffect extends ShaderEffect {
+public class NoEffect extends ShaderEffect implements FusibleEffect {
 
     public NoEffect() {
         super("None");
+        setNeighborhoodRadius(0);
+        // Samples the source only at the texture coordinate
+        setExternalTextureSupported(true);
     }
 
     @Override
     protected TextureShaderProgram initShaderProgram() {
         return new TextureShaderProgram();
     }
+
+    @Override
+    public String getFusionCode() {
+        return LibraryHelper.loadTextFromAsset("shaders/fn_texture.glsl");
+    }
+
+    @Override
+    public String[] getFusionUniforms() {
+        return new String[0];
+    }
 }
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2016 Mario Guggenberger <mg@protyposis.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.protyposis.android.spectaculum.effects;
+
+import android.animation.TimeInterpolator;
+
+import java.util.Arrays;
+
+/**
+ * A keyframe animation of a numeric parameter value. The animation is evaluated on the GL thread
+ * at the start of each rendered frame, with the frame time, so the animated value changes exactly
+ * once per frame without any work on the UI thread. The renderer keeps rendering while an
+ * animation is running and goes idle when it has finished.
+ *
+ * An animation only describes the value over time and can be started on multiple parameters,
+ * each running from the frame on which it has been started. It must not be modified once it
+ * has been started.
+ * @see FloatParameter#animate(ParameterAnimation)
+ * @see IntegerParameter#animate(ParameterAnimation)
+ */
+public class ParameterAnimation {
+
+    /**
+     * Repeat count of an animation that repeats until it is cancelled.
+     */
+    public static final int INFINITE = -1;
+
+    /**
+     * Repeat mode that restarts the animation from the first keyframe.
+     */
+    public static final int RESTART = 1;
+
+    /**
+     * Repeat mode that plays every other repetition backwards.
+     */
+    public static final int REVERSE = 2;
+
+    private long[] mTimes = new long[0];
+    private float[] mValues = new float[0];
+    private TimeInterpolator mInterpolator;
+    private int mRepeatCount;
+    private int mRepeatMode = RESTART;
+
+    /**
+     * Creates an animation without keyframes. At least one keyframe must be added before the
+     * animation is started.
+     */
+    public ParameterAnimation() {
+    }
+
+    /**
+     * Creates an animation from one value to another.
+     * @param from the value at the start
+     * @param to the value at the end
+     * @param duration the duration in milliseconds
+     */
+    public ParameterAnimation(float from, float to, long duration) {
+        addKeyframe(0, from);
+        addKeyframe(duration, to);
+    }
+
+    /**
+     * Adds a keyframe. Keyframes must be added in the order of their times.
+     * @param time the time of the keyframe in milliseconds from the start of the animation
+     * @param value the value of the parameter at the keyframe
+     */
+    public void addKeyframe(long time, float value) {
+        if(time < 0 || (mTimes.length > 0 && time < mTimes[mTimes.length - 1])) {
+            throw new IllegalArgumentException("keyframe time " + time + " out of order");
+        }
+        mTimes = Arrays.copyOf(mTimes, mTimes.length + 1);
+        mValues = Arrays.copyOf(mValues, mValues.length + 1);
+        mTimes[mTimes.length - 1] = time;
+        mValues[mValues.length - 1] = value;
+    }
+
+    /**
+     * Sets the interpolator that eases the value between each pair of keyframes, e.g. an
+     * {@link android.view.animation.AccelerateDecelerateInterpolator}. Linear by default.
+     */
+    public void setInterpolator(TimeInterpolator interpolator) {
+        mInterpolator = interpolator;
+    }
+
+    /**
+     * Sets how often the animation is repeated after the first run.
+     * @param repeatCount the number of repetitions, or {@link #INFINITE}
+     */
+    public void setRepeatCount(int repeatCount) {
+        if(repeatCount < INFINITE) {
+            throw new IllegalArgumentException("invalid repeat count " + repeatCount);
+        }
+        mRepeatCount = repeatCount;
+    }
+
+    /**
+     * Sets how the animation is repeated.
+     * @param repeatMode {@link #RESTART} or {@link #REVERSE}
+     */
+    public void setRepeatMode(int repeatMode) {
+        if(repeatMode != RESTART && repeatMode != REVERSE) {
+            throw new IllegalArgumentException("invalid repeat mode " + repeatMode);
+        }
+        mRepeatMode = repeatMode;
+    }
+
+    /**
+     * Gets the duration of a single run in milliseconds, which is the time of the last keyframe.
+     */
+    public long getDuration() {
+        return mTimes.length > 0 ? mTimes[mTimes.length - 1] : 0;
+    }
+
+    boolean hasKeyframes() {
+        return mTimes.length > 0;
+    }
+
+    /**
+     * Checks if the animation has finished all runs at the given time since its start.
+     */
+    boolean isFinished(long time) {
+        long duration = getDuration();
+        return mRepeatCount != INFINITE && (duration == 0 || time >= duration * (mRepeatCount + 1));
+    }
+
+    /**
+     * Evaluates the animated value at the given time since the start of the animation.
+     * @param time the time in milliseconds
+     */
+    float getValue(long time) {
+        long duration = getDuration();
+        if(mTimes.length == 1 || duration == 0) {
+            return mValues[mValues.length - 1];
+        }
+
+        long run;
+        if(isFinished(time)) {
+            // Hold the value at the end of the last run
+            run = mRepeatCount;
+            time = duration;
+        } else {
+            run = time / duration;
+            time = time % duration;
+        }
+        if(mRepeatMode == REVERSE && run % 2 == 1) {
+            time = duration - time;
+        }
+
+        // Find the keyframe segment that contains the time
+        int i = 0;
+        while(i < mTimes.length - 2 && time > mTimes[i + 1]) {
+            i++;
+        }
+        long segmentDuration = mTimes[i + 1] - mTimes[i];
+        float fraction = segmentDuration == 0 ? 1.0f
+                : Math.max(0.0f, Math.min(1.0f, (float) (time - mTimes[i]) / segmentDuration));
+        if(mInterpolator != null) {
+            fraction = mInterpolator.getInterpolation(fraction);
+        }
+        return mValues[i] + (mValues[i + 1] - mValues[i]) * fraction;
+    }
+}
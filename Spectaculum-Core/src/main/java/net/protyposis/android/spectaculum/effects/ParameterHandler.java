@@ -16,15 +16,32 @@
 
 package net.protyposis.android.spectaculum.effects;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import net.protyposis.android.spectaculum.SpectaculumView;
 
 /**
  * A simple parameter handler that executes on the rendering thread of the Spectaculum view.
+ *
+ * Parameter value changes are not posted as events, but collected in a mailbox: each parameter
+ * keeps its latest value and a pending flag, and the renderer applies all pending values in one
+ * batch at the start of each frame with {@link #applyPendingValues()}. A parameter is therefore
+ * applied at most once per frame, and changing a value neither allocates nor locks. Parameter
+ * animations are stepped on the GL thread with {@link #runAnimations(long)}.
  * Created by Mario on 18.08.2016.
  */
 public class ParameterHandler {
 
+    private static final BaseParameter[] NO_PARAMETERS = new BaseParameter[0];
+
     private SpectaculumView mHost;
+    private final AtomicBoolean mPending = new AtomicBoolean();
+
+    /**
+     * The registered parameters. The array is replaced on every change, so it can be iterated
+     * on the GL thread without locking.
+     */
+    private volatile BaseParameter[] mParameters = NO_PARAMETERS;
 
     public ParameterHandler(SpectaculumView host) {
         mHost = host;
@@ -33,4 +50,63 @@ public class ParameterHandler {
     public void post(Runnable r) {
         mHost.queueEvent(r);
     }
+
+    synchronized void register(BaseParameter parameter) {
+        for(BaseParameter p : mParameters) {
+            if(p == parameter) {
+                return;
+            }
+        }
+        BaseParameter[] parameters = new BaseParameter[mParameters.length + 1];
+        System.arraycopy(mParameters, 0, parameters, 0, mParameters.length);
+        parameters[mParameters.length] = parameter;
+        mParameters = parameters;
+    }
+
+    synchronized void unregister(BaseParameter parameter) {
+        int count = 0;
+        BaseParameter[] parameters = new BaseParameter[mParameters.length];
+        for(BaseParameter p : mParameters) {
+            if(p != parameter) {
+                parameters[count++] = p;
+            }
+        }
+        if(count < mParameters.length) {
+            BaseParameter[] trimmed = new BaseParameter[count];
+            System.arraycopy(parameters, 0, trimmed, 0, count);
+            mParameters = trimmed;
+        }
+    }
+
+    /**
+     * Signals that a registered parameter has a pending value. Must be called after the pending
+     * flag of the parameter has been set.
+     */
+    void schedule() {
+        mPending.set(true);
+    }
+
+    /**
+     * Steps the running animations of all parameters to the frame time, which sets their animated
+     * values as pending values. Must be called on the GL thread before the pending values are applied.
+     * @param frameTime the frame time in nanoseconds
+     */
+    public void runAnimations(long frameTime) {
+        for(BaseParameter p : mParameters) {
+            p.stepAnimation(frameTime);
+        }
+    }
+
+    /**
+     * Applies the latest values of all parameters that have changed since the last call. Must be
+     * called on the GL thread.
+     */
+    public void applyPendingValues() {
+        if(!mPending.getAndSet(false)) {
+            return;
+        }
+        for(BaseParameter p : mParameters) {
+            p.applyPendingValue();
+        }
+    }
 }
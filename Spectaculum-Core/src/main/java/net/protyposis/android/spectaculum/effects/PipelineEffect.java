@@ -0,0 +1,85 @@
+/*
+ * Copyright 2016 Mario Guggenberger <mg@protyposis.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.protyposis.android.spectaculum.effects;
+
+import net.protyposis.android.spectaculum.gles.ExternalSurfaceTexture;
+import net.protyposis.android.spectaculum.gles.Framebuffer;
+import net.protyposis.android.spectaculum.gles.FramebufferPool;
+
+/**
+ * Optional capabilities of an effect that let the render pipeline process it more efficiently.
+ * All effects derived from {@link BaseEffect} implement this interface. Renderers treat effects
+ * that only implement {@link Effect} conservatively: they are reinitialized instead of resized,
+ * always read a 2D texture, cannot be processed in tiles or regions, and allocate their own
+ * framebuffers.
+ */
+public interface PipelineEffect extends Effect {
+
+    /**
+     * Neighborhood radius of effects whose output pixels can depend on any input pixel or on
+     * their absolute position in the image, which cannot be processed in tiles.
+     * @see #getNeighborhoodRadius()
+     */
+    int NEIGHBORHOOD_UNBOUNDED = -1;
+
+    /**
+     * Adapts an initialized effect to a new resolution of the render pipeline. Opposed to
+     * {@link #init(int, int)}, loaded resources that do not depend on the resolution (e.g. shaders)
+     * are kept, which makes resizing cheap enough to be done while rendering, e.g. when the
+     * processing resolution is adjusted dynamically.
+     * @param width the new texture width
+     * @param height the new texture height
+     */
+    void resize(int width, int height);
+
+    /**
+     * Checks if the effect can be applied directly to an external texture, i.e. the frame from a
+     * camera or video decoder, which saves copying the frame into a 2D texture first. Effects that
+     * need a stable 2D texture, e.g. to read it in multiple passes, or that compute the source
+     * texture coordinates themselves, do not support external textures.
+     * @return true if {@link #apply(ExternalSurfaceTexture, Framebuffer)} is supported, else false
+     */
+    boolean isExternalTextureSupported();
+
+    /**
+     * Gets the radius in pixels of the neighborhood around an input pixel that the effect reads
+     * to compute the output pixel at the same position, accumulated over all passes of the effect.
+     * When an image is processed in tiles, each tile is extended by a halo of this size so that
+     * the output is equal to processing the whole image at once.
+     * @return 0 for pointwise effects, a positive radius for neighborhood effects (e.g. 1 for
+     *         3x3 kernels), or {@link #NEIGHBORHOOD_UNBOUNDED} if the effect cannot be tiled
+     */
+    int getNeighborhoodRadius();
+
+    /**
+     * Applies the effect directly to an external source texture.
+     * @param source the external texture where the input image is read from
+     * @param target the target framebuffer where the result with the applied effect is written to
+     * @throws UnsupportedOperationException if external textures are not supported
+     * @see #isExternalTextureSupported()
+     */
+    void apply(ExternalSurfaceTexture source, Framebuffer target);
+
+    /**
+     * Sets the framebuffer pool from which the effect acquires its intermediate framebuffers.
+     * The pool is shared between all effects of a renderer, which allows effects to reuse
+     * framebuffers instead of each of them allocating its own set.
+     * Must be set before the effect is initialized.
+     * @param pool the framebuffer pool of the GL context that the effect is used in
+     */
+    void setFramebufferPool(FramebufferPool pool);
+}
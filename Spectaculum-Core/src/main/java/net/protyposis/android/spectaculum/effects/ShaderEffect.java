@@ -16,7 +16,10 @@
 
 package net.protyposis.android.spectaculum.effects;
 
+import net.protyposis.android.spectaculum.gles.ExternalSurfaceTexture;
+import net.protyposis.android.spectaculum.gles.ExternalTextureShaderProgram;
 import net.protyposis.android.spectaculum.gles.Framebuffer;
+import net.protyposis.android.spectaculum.gles.PassProfiler;
 import net.protyposis.android.spectaculum.gles.Texture2D;
 import net.protyposis.android.spectaculum.gles.TextureShaderProgram;
 import net.protyposis.android.spectaculum.gles.TexturedRectangle;
@@ -27,8 +30,16 @@ import net.protyposis.android.spectaculum.gles.TexturedRectangle;
  */
 public abstract class ShaderEffect extends BaseEffect {
 
+    /**
+     * The name of the effect's single pass in the pass statistics.
+     */
+    private static final String PASS_NAME = "shader";
+
     private TexturedRectangle mTexturedRectangle;
     private TextureShaderProgram mShaderProgram;
+    private ExternalTextureShaderProgram mExternalShaderProgram;
+    private boolean mExternalTextureSupported;
+    private int mNeighborhoodRadius = NEIGHBORHOOD_UNBOUNDED;
 
     protected ShaderEffect(String name) {
         super(name);
@@ -47,6 +58,7 @@ public abstract class ShaderEffect extends BaseEffect {
         // TODO deliver the events on the UI thread
         setEventBlocking(true);
         mShaderProgram = initShaderProgram();
+        mExternalShaderProgram = null; // compiled on demand
         reset(); // initialize shader program with default values
         mShaderProgram.setTextureSize(width, height);
         setEventBlocking(false);
@@ -57,15 +69,66 @@ public abstract class ShaderEffect extends BaseEffect {
         setInitialized();
     }
 
+    @Override
+    public void resize(int width, int height) {
+        mShaderProgram.setTextureSize(width, height);
+    }
+
     public TextureShaderProgram getShaderProgram() {
         return mShaderProgram;
     }
 
     @Override
     public void apply(Texture2D source, Framebuffer target) {
-        target.bind();
+        PassProfiler.beginPass(PASS_NAME);
+        target.bind(Framebuffer.BindMode.DONT_CARE);
         mShaderProgram.use();
         mShaderProgram.setTexture(source);
         mTexturedRectangle.draw(mShaderProgram);
+        PassProfiler.endPass();
+    }
+
+    /**
+     * Enables or disables direct sampling of external textures, which is disabled by default. May
+     * only be enabled by effects whose shader uses the texture coordinates for nothing but sampling
+     * the source at them, because the coordinates of external textures are transformed by the
+     * texture matrix, which can flip, rotate and crop the picture. Neighborhood offsets, e.g. of
+     * asymmetric kernels, would be transformed along with it.
+     * @see #isExternalTextureSupported()
+     */
+    protected void setExternalTextureSupported(boolean supported) {
+        mExternalTextureSupported = supported;
+    }
+
+    @Override
+    public boolean isExternalTextureSupported() {
+        return mExternalTextureSupported && ExternalTextureShaderProgram.isConvertible(mShaderProgram);
+    }
+
+    /**
+     * Sets the neighborhood radius of the effect's shader, which is unbounded by default.
+     * @see #getNeighborhoodRadius()
+     */
+    protected void setNeighborhoodRadius(int radius) {
+        mNeighborhoodRadius = radius;
+    }
+
+    @Override
+    public int getNeighborhoodRadius() {
+        return mNeighborhoodRadius;
+    }
+
+    @Override
+    public void apply(ExternalSurfaceTexture source, Framebuffer target) {
+        if(mExternalShaderProgram == null) {
+            mExternalShaderProgram = new ExternalTextureShaderProgram(mShaderProgram);
+        }
+        PassProfiler.beginPass(PASS_NAME);
+        target.bind(Framebuffer.BindMode.DONT_CARE);
+        mExternalShaderProgram.use();
+        mExternalShaderProgram.syncUniforms();
+        mExternalShaderProgram.setTexture(source);
+        mTexturedRectangle.draw(mExternalShaderProgram);
+        PassProfiler.endPass();
     }
 }
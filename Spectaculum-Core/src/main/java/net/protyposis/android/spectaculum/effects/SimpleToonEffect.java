@@ -23,6 +23,11 @@ import net.protyposis.android.spectaculum.gles.TextureToonShaderProgram;
  * Created by Mario on 18.07.2014.
  */
 public class SimpleToonEffect extends ShaderEffect {
+
+    public SimpleToonEffect() {
+        setNeighborhoodRadius(1); // 3x3 sobel kernel
+    }
+
     @Override
     protected TextureShaderProgram initShaderProgram() {
         return new TextureToonShaderProgram();
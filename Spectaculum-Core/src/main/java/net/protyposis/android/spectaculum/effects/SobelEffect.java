@@ -29,6 +29,7 @@ public class SobelEffect extends ShaderEffect {
 
     public SobelEffect() {
         super("Sobel Edge Detect");
+        setNeighborhoodRadius(1); // 3x3 kernel
     }
 
     @Override
@@ -41,37 +42,37 @@ public class SobelEffect extends ShaderEffect {
         mG = 1.0f;
         mB = 0.0f;
 
-        addParameter(new FloatParameter("Low", 0.0f, 1.0f, mLow, new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("Low", 0.0f, 1.0f, mLow, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mLow = value;
                 sobelShader.setThreshold(mLow, mHigh);
             }
         }));
-        addParameter(new FloatParameter("High", 0.0f, 1.0f, mHigh, new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("High", 0.0f, 1.0f, mHigh, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mHigh = value;
                 sobelShader.setThreshold(mLow, mHigh);
             }
         }));
-        addParameter(new FloatParameter("Red", 0.0f, 1.0f, mR, new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("Red", 0.0f, 1.0f, mR, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mR = value;
                 sobelShader.setColor(mR, mG, mB);
             }
         }));
-        addParameter(new FloatParameter("Green", 0.0f, 1.0f, mG, new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("Green", 0.0f, 1.0f, mG, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mG = value;
                 sobelShader.setColor(mR, mG, mB);
             }
         }));
-        addParameter(new FloatParameter("Blue", 0.0f, 1.0f, mB, new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("Blue", 0.0f, 1.0f, mB, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mB = value;
                 sobelShader.setColor(mR, mG, mB);
             }
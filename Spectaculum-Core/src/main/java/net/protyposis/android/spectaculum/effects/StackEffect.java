@@ -16,22 +16,136 @@
 
 package net.protyposis.android.spectaculum.effects;
 
+import net.protyposis.android.spectaculum.gles.ExternalSurfaceTexture;
+import net.protyposis.android.spectaculum.gles.ExternalTextureShaderProgram;
 import net.protyposis.android.spectaculum.gles.Framebuffer;
+import net.protyposis.android.spectaculum.gles.FramebufferPool;
+import net.protyposis.android.spectaculum.gles.FusedShaderProgram;
+import net.protyposis.android.spectaculum.gles.RenderGraph;
 import net.protyposis.android.spectaculum.gles.Texture2D;
+import net.protyposis.android.spectaculum.gles.TexturedRectangle;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 
 /**
  * Creates a stack of effects that are applied sequentially one by one. Useful to combine effects
  * together, e.g. convert the image with a toon effect, adjust its brightness and add a watermark on top.
+ *
+ * Runs of consecutive {@link FusibleEffect}s are fused into a single shader pass, which saves the
+ * memory bandwidth of the intermediate passes. All other effects are applied in separate passes.
  */
 public class StackEffect extends BaseEffect {
 
+    /**
+     * A step of the stack that is applied in a single render pass, either a single effect or
+     * a fused run of effects. A step that is declared without inputs reads the external source.
+     */
+    private class Step implements RenderGraph.Pass {
+        private String mName;
+        private Effect mEffect;
+        private List<FusibleEffect> mFusedEffects;
+        private List<FusedShaderProgram.Stage> mStages;
+        private FusedShaderProgram mFusedShaderProgram;
+        private FusedShaderProgram mExternalShaderProgram;
+        private int mWidth;
+        private int mHeight;
+
+        Step(Effect effect) {
+            mEffect = effect;
+            mName = effect.getName();
+        }
+
+        Step(List<FusibleEffect> effects) {
+            mFusedEffects = effects;
+
+            mStages = new ArrayList<>(effects.size());
+            for(FusibleEffect e : effects) {
+                mStages.add(new FusedShaderProgram.Stage(e.getShaderProgram(),
+                        e.getFusionCode(), e.getFusionUniforms()));
+            }
+            mFusedShaderProgram = new FusedShaderProgram(mStages);
+
+            StringBuilder sb = new StringBuilder();
+            for(FusibleEffect e : effects) {
+                if(sb.length() > 0) {
+                    sb.append('+');
+                }
+                sb.append(e.getName());
+            }
+            mName = sb.toString();
+        }
+
+        void setTextureSize(int width, int height) {
+            mWidth = width;
+            mHeight = height;
+            if(mFusedShaderProgram != null) {
+                mFusedShaderProgram.setTextureSize(width, height);
+            }
+            if(mExternalShaderProgram != null) {
+                mExternalShaderProgram.setTextureSize(width, height);
+            }
+        }
+
+        boolean isExternalTextureSupported() {
+            if(mEffect != null) {
+                return mEffect instanceof PipelineEffect
+                        && ((PipelineEffect) mEffect).isExternalTextureSupported();
+            }
+            for(FusibleEffect e : mFusedEffects) {
+                if(!e.isExternalTextureSupported()) {
+                    return false;
+                }
+            }
+            return ExternalTextureShaderProgram.isConvertible(mFusedShaderProgram);
+        }
+
+        @Override
+        public void execute(Texture2D[] inputs, Framebuffer output) {
+            if(inputs.length == 0) {
+                apply(mExternalSource, output);
+            } else {
+                apply(inputs[0], output);
+            }
+        }
+
+        void apply(Texture2D source, Framebuffer target) {
+            if(mEffect != null) {
+                mEffect.apply(source, target);
+                return;
+            }
+            target.bind(Framebuffer.BindMode.DONT_CARE);
+            mFusedShaderProgram.use();
+            mFusedShaderProgram.syncUniforms();
+            mFusedShaderProgram.setTexture(source);
+            mTexturedRectangle.draw(mFusedShaderProgram);
+        }
+
+        void apply(ExternalSurfaceTexture source, Framebuffer target) {
+            if(mEffect != null) {
+                ((PipelineEffect) mEffect).apply(source, target);
+                return;
+            }
+            if(mExternalShaderProgram == null) {
+                // The uniforms are mirrored from the effects directly, not through the 2D variant
+                mExternalShaderProgram = new FusedShaderProgram(mStages, true);
+                mExternalShaderProgram.setTextureSize(mWidth, mHeight);
+            }
+            target.bind(Framebuffer.BindMode.DONT_CARE);
+            mExternalShaderProgram.use();
+            mExternalShaderProgram.syncUniforms();
+            mExternalShaderProgram.setTexture(source);
+            mTexturedRectangle.draw(mExternalShaderProgram);
+        }
+    }
+
     private List<Effect> mEffects;
-    private Framebuffer mFramebuffer;
+    private RenderGraph mGraph;
+    private RenderGraph mExternalGraph;
+    private ExternalSurfaceTexture mExternalSource;
+    private List<Step> mSteps;
+    private TexturedRectangle mTexturedRectangle;
 
     public StackEffect(String name) {
         super(name);
@@ -55,10 +169,24 @@ public class StackEffect extends BaseEffect {
         Collections.addAll(mEffects, effects);
     }
 
+    @Override
+    public void setFramebufferPool(FramebufferPool pool) {
+        super.setFramebufferPool(pool);
+        for (Effect e : mEffects) {
+            if(e instanceof PipelineEffect) {
+                ((PipelineEffect) e).setFramebufferPool(pool);
+            }
+        }
+    }
+
     @Override
     public void init(int width, int height) {
-        // Create an internal framebuffer which is required to apply a sequence of effects
-        mFramebuffer = new Framebuffer(width, height);
+        // The graphs manage the internal framebuffers which are required to apply a sequence of effects
+        mGraph = new RenderGraph(getFramebufferPool(), width, height);
+        mExternalGraph = new RenderGraph(getFramebufferPool(), width, height);
+
+        // Make sure that all effects share a common pool, even if none has been set on the stack
+        setFramebufferPool(getFramebufferPool());
 
         setEventBlocking(true);
 
@@ -74,36 +202,143 @@ public class StackEffect extends BaseEffect {
 
         setEventBlocking(false);
 
+        mTexturedRectangle = new TexturedRectangle();
+        mTexturedRectangle.reset();
+
+        // Plan the render passes and compile the fused shaders once for the lifetime of the stack
+        mSteps = createSteps();
+        for(Step step : mSteps) {
+            step.setTextureSize(width, height);
+        }
+        declareGraph(mGraph, false);
+        declareGraph(mExternalGraph, true);
+
         setInitialized();
     }
 
+    /**
+     * Groups the effects into steps. Consecutive fusible effects are grouped into a fused step,
+     * except coordinate remapping effects (e.g. flip), which can only be the first stage of a fused
+     * step because they affect where the source texture is sampled.
+     */
+    private List<Step> createSteps() {
+        List<Step> steps = new ArrayList<>();
+        List<FusibleEffect> run = new ArrayList<>();
+
+        for (Effect e : mEffects) {
+            if(e instanceof FusibleEffect) {
+                FusibleEffect fe = (FusibleEffect) e;
+                if(!run.isEmpty() && FusedShaderProgram.isCoordinateCode(fe.getFusionCode())) {
+                    addRun(steps, run);
+                    run = new ArrayList<>();
+                }
+                run.add(fe);
+            } else {
+                addRun(steps, run);
+                run = new ArrayList<>();
+                steps.add(new Step(e));
+            }
+        }
+        addRun(steps, run);
+
+        return steps;
+    }
+
+    private void addRun(List<Step> steps, List<FusibleEffect> run) {
+        if(run.size() == 1) {
+            // Nothing to fuse, the effect renders faster with its own specialized shader
+            steps.add(new Step(run.get(0)));
+        } else if(run.size() > 1) {
+            steps.add(new Step(run));
+        }
+    }
+
+    @Override
+    public void resize(int width, int height) {
+        mGraph.setSize(width, height);
+        mExternalGraph.setSize(width, height);
+        for (Effect e : mEffects) {
+            if(e instanceof PipelineEffect) {
+                ((PipelineEffect) e).resize(width, height);
+            } else {
+                e.init(width, height);
+            }
+        }
+        for(Step step : mSteps) {
+            step.setTextureSize(width, height);
+        }
+    }
+
     @Override
     public void apply(Texture2D source, Framebuffer target) {
-        Iterator<Effect> i = mEffects.iterator();
-
-        /*
-         * The first source texture must always be the passed in texture, the last output framebuffer
-         * must always be the passed in target framebuffer. In between, we need to switch source
-         * textures and target framebuffers between the passed in external framebuffer and the internal
-         * framebuffer, because we cannot read and write to the same framebuffer in one render pass.
-         * If the number of effects is even, we start by writing the internal framebuffer, else we
-         * start with the external framebuffer.
-         */
-        Framebuffer internalFB = mFramebuffer;
-        Framebuffer externalFB = target;
-        boolean useInternalFB = mEffects.size() % 2 == 0; // keeps track of which framebuffer to use as target
-
-        while(i.hasNext()) {
-            Effect e = i.next();
-
-            if(i.hasNext()) {
-                e.apply(source, useInternalFB ? internalFB : externalFB);
-                source = useInternalFB ? internalFB.getTexture() : externalFB.getTexture();
-                useInternalFB = !useInternalFB; // switch framebuffer flag
+        apply(source, null, target);
+    }
+
+    /**
+     * The neighborhoods of sequentially applied effects add up.
+     */
+    @Override
+    public int getNeighborhoodRadius() {
+        int radius = 0;
+        for (Effect e : mEffects) {
+            if(!(e instanceof PipelineEffect)) {
+                return NEIGHBORHOOD_UNBOUNDED;
+            }
+            int effectRadius = ((PipelineEffect) e).getNeighborhoodRadius();
+            if(effectRadius == NEIGHBORHOOD_UNBOUNDED) {
+                return NEIGHBORHOOD_UNBOUNDED;
+            }
+            radius += effectRadius;
+        }
+        return radius;
+    }
+
+    /**
+     * A stack supports external textures if its first step does, because only the first step
+     * reads the source texture.
+     */
+    @Override
+    public boolean isExternalTextureSupported() {
+        return mSteps != null && !mSteps.isEmpty() && mSteps.get(0).isExternalTextureSupported();
+    }
+
+    @Override
+    public void apply(ExternalSurfaceTexture source, Framebuffer target) {
+        apply(null, source, target);
+    }
+
+    /**
+     * Declares the passes of the steps. The first source texture must always be the passed in
+     * texture, the last output framebuffer must always be the passed in target framebuffer. In
+     * between, every step writes into a transient texture of the render graph. The graph maps the
+     * transient textures alternately onto the target and an internal framebuffer, because we cannot
+     * read and write to the same framebuffer in one render pass.
+     * @param externalSource true if the first step reads the external source texture
+     */
+    private void declareGraph(RenderGraph graph, boolean externalSource) {
+        graph.reset();
+
+        int input = RenderGraph.SOURCE;
+        for(int i = 0; i < mSteps.size(); i++) {
+            Step step = mSteps.get(i);
+            int result = i == mSteps.size() - 1 ? RenderGraph.TARGET : graph.createTexture();
+            if(i == 0 && externalSource) {
+                // The external texture is read directly and not managed by the graph
+                graph.addPass(step.mName, step, result);
             } else {
-                // Last effect; always write result to the target framebuffer
-                e.apply(source, target);
+                graph.addPass(step.mName, step, result, input);
             }
+            input = result;
+        }
+    }
+
+    private void apply(Texture2D source, ExternalSurfaceTexture externalSource, Framebuffer target) {
+        if(externalSource != null) {
+            mExternalSource = externalSource;
+            mExternalGraph.execute(null, target);
+            mExternalSource = null;
+        } else {
+            mGraph.execute(source, target);
         }
     }
 }
@@ -18,6 +18,7 @@ package net.protyposis.android.spectaculum.effects;
 
 import android.graphics.Bitmap;
 
+import net.protyposis.android.spectaculum.LibraryHelper;
 import net.protyposis.android.spectaculum.gles.Texture2D;
 import net.protyposis.android.spectaculum.gles.TextureShaderProgram;
 import net.protyposis.android.spectaculum.gles.WatermarkShaderProgram;
@@ -25,7 +26,7 @@ import net.protyposis.android.spectaculum.gles.WatermarkShaderProgram;
 /**
  * Watermarks the content with a bitmap.
  */
-public class WatermarkEffect extends ShaderEffect {
+public class WatermarkEffect extends ShaderEffect implements FusibleEffect {
 
     public enum Alignment {
         LOWER_LEFT,
@@ -61,34 +62,34 @@ public class WatermarkEffect extends ShaderEffect {
     protected TextureShaderProgram initShaderProgram() {
         mShaderProgram = new WatermarkShaderProgram();
 
-        mScaleParameter = new FloatParameter("Scale", 0f, 10f, mScale, new FloatParameter.Delegate() {
+        mScaleParameter = new FloatParameter("Scale", 0f, 10f, mScale, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mShaderProgram.setWatermarkScale(value);
             }
         });
         addParameter(mScaleParameter);
 
-        mOpacityParameter = new FloatParameter("Opacity", 0f, 1f, mOpacity, new FloatParameter.Delegate() {
+        mOpacityParameter = new FloatParameter("Opacity", 0f, 1f, mOpacity, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mShaderProgram.setWatermarkOpacity(value);
             }
         });
         addParameter(mOpacityParameter);
 
-        mMarginXParameter = new FloatParameter("Margin X", -1f, 1f, mMarginX, new FloatParameter.Delegate() {
+        mMarginXParameter = new FloatParameter("Margin X", -1f, 1f, mMarginX, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mMarginX = value;
                 mShaderProgram.setWatermarkMargin(mMarginX, mMarginY);
             }
         });
         addParameter(mMarginXParameter);
 
-        mMarginYParameter = new FloatParameter("Margin Y", -1f, 1f, mMarginY, new FloatParameter.Delegate() {
+        mMarginYParameter = new FloatParameter("Margin Y", -1f, 1f, mMarginY, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mMarginY = value;
                 mShaderProgram.setWatermarkMargin(mMarginX, mMarginY);
             }
@@ -154,4 +155,14 @@ public class WatermarkEffect extends ShaderEffect {
             mAlignment = alignment;
         }
     }
+
+    @Override
+    public String getFusionCode() {
+        return LibraryHelper.loadTextFromAsset("shaders/fn_watermark.glsl");
+    }
+
+    @Override
+    public String[] getFusionUniforms() {
+        return new String[] { "watermark", "size", "scale", "opacity", "margin", "alignment" };
+    }
 }
@@ -92,20 +92,20 @@ public class ColoredRectangle extends Shape {
             return;
         }
 
+        GLState state = GLState.get();
+
         // write vertex data
         mVertices.position(sPositionOffset);
-        GLES20.glVertexAttribPointer(mShaderProgram.mPositionHandle, sPositionDataSize,
-                GLES20.GL_FLOAT, false, sStrideBytes, mVertices);
-        GLES20.glEnableVertexAttribArray(mShaderProgram.mPositionHandle);
+        state.vertexAttribPointer(mShaderProgram.mPositionHandle, sPositionDataSize,
+                sStrideBytes, mVertices);
 
         // write color data
         mVertices.position(sColorOffset);
-        GLES20.glVertexAttribPointer(mShaderProgram.mColorHandle, sColorDataSize,
-                GLES20.GL_FLOAT, false, sStrideBytes, mVertices);
-        GLES20.glEnableVertexAttribArray(mShaderProgram.mColorHandle);
+        state.vertexAttribPointer(mShaderProgram.mColorHandle, sColorDataSize,
+                sStrideBytes, mVertices);
 
         // write the MVP matrix
-        GLES20.glUniformMatrix4fv(mShaderProgram.mMVPMatrixHandle, 1, false, mvpMatrix, 0);
+        mShaderProgram.setUniformMatrix4fv(mShaderProgram.mMVPMatrixHandle, mvpMatrix, 0);
 
         // finally, render the rectangle
         GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
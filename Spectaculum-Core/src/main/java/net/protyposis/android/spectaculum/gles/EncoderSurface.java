@@ -0,0 +1,172 @@
+/*
+ * Copyright 2016 Mario Guggenberger <mg@protyposis.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.protyposis.android.spectaculum.gles;
+
+import android.annotation.TargetApi;
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.os.Build;
+import android.util.Log;
+import android.view.Surface;
+
+/**
+ * An EGL window surface on a video encoder input surface (e.g. from
+ * {@link android.media.MediaCodec#createInputSurface()}) that can be rendered to with the current
+ * GL context. Frames are rendered by making this surface current, drawing into the default
+ * framebuffer, and swapping the buffers, which submits the frame to the encoder. Afterwards, the
+ * previous surface of the context must be restored.
+ *
+ * Since the context is shared with the current surface (e.g. the screen), all textures of the
+ * pipeline are available when rendering to the encoder.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+public class EncoderSurface {
+
+    private static final String TAG = EncoderSurface.class.getSimpleName();
+
+    private static final int EGL_RECORDABLE_ANDROID = 0x3142;
+
+    private EGLDisplay mDisplay;
+    private EGLContext mContext;
+    private EGLSurface mSurface;
+    private EGLSurface mPreviousDrawSurface;
+    private EGLSurface mPreviousReadSurface;
+    private int mWidth;
+    private int mHeight;
+
+    /**
+     * Creates a window surface for the context that is current on the calling thread.
+     * @param surface the input surface of the encoder
+     */
+    public EncoderSurface(Surface surface) {
+        if(Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            throw new IllegalStateException("encoder surfaces require API level 18");
+        }
+
+        mDisplay = EGL14.eglGetCurrentDisplay();
+        mContext = EGL14.eglGetCurrentContext();
+        if(mContext == EGL14.EGL_NO_CONTEXT) {
+            throw new IllegalStateException("no current EGL context");
+        }
+
+        mSurface = EGL14.eglCreateWindowSurface(mDisplay, getConfig(), surface,
+                new int[] { EGL14.EGL_NONE }, 0);
+        checkEglError("eglCreateWindowSurface");
+        if(mSurface == null || mSurface == EGL14.EGL_NO_SURFACE) {
+            throw new RuntimeException("failed to create encoder surface");
+        }
+
+        int[] value = new int[1];
+        EGL14.eglQuerySurface(mDisplay, mSurface, EGL14.EGL_WIDTH, value, 0);
+        mWidth = value[0];
+        EGL14.eglQuerySurface(mDisplay, mSurface, EGL14.EGL_HEIGHT, value, 0);
+        mHeight = value[0];
+    }
+
+    /**
+     * Gets a config that is compatible with the current context. A window surface must be created
+     * with the config of the context it is made current with, which is not accessible through
+     * {@link android.opengl.GLSurfaceView}, so it is looked up by its ID.
+     */
+    private EGLConfig getConfig() {
+        int[] configId = new int[1];
+        EGL14.eglQueryContext(mDisplay, mContext, EGL14.EGL_CONFIG_ID, configId, 0);
+
+        int[] attributes = { EGL14.EGL_CONFIG_ID, configId[0], EGL14.EGL_NONE };
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] numConfigs = new int[1];
+        if(!EGL14.eglChooseConfig(mDisplay, attributes, 0, configs, 0, 1, numConfigs, 0)
+                || numConfigs[0] == 0) {
+            throw new RuntimeException("no EGL config for ID " + configId[0]);
+        }
+
+        int[] recordable = new int[1];
+        EGL14.eglGetConfigAttrib(mDisplay, configs[0], EGL_RECORDABLE_ANDROID, recordable, 0);
+        if(recordable[0] == 0) {
+            // Most devices work anyway, some need a recordable config for encoder surfaces
+            Log.w(TAG, "EGL config is not recordable");
+        }
+
+        return configs[0];
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Makes the encoder surface the current draw and read surface of the context. The previous
+     * surfaces are saved and can be restored with {@link #restore()}.
+     */
+    public void makeCurrent() {
+        mPreviousDrawSurface = EGL14.eglGetCurrentSurface(EGL14.EGL_DRAW);
+        mPreviousReadSurface = EGL14.eglGetCurrentSurface(EGL14.EGL_READ);
+        if(!EGL14.eglMakeCurrent(mDisplay, mSurface, mSurface, mContext)) {
+            checkEglError("eglMakeCurrent");
+        }
+    }
+
+    /**
+     * Sets the presentation time of the current frame, which is passed on to the encoder.
+     * @param timestampNs the presentation timestamp in nanoseconds
+     */
+    public void setPresentationTime(long timestampNs) {
+        EGLExt.eglPresentationTimeANDROID(mDisplay, mSurface, timestampNs);
+        checkEglError("eglPresentationTimeANDROID");
+    }
+
+    /**
+     * Submits the current frame to the encoder.
+     */
+    public void swapBuffers() {
+        if(!EGL14.eglSwapBuffers(mDisplay, mSurface)) {
+            checkEglError("eglSwapBuffers");
+        }
+    }
+
+    /**
+     * Restores the surfaces that were current before {@link #makeCurrent()}.
+     */
+    public void restore() {
+        if(!EGL14.eglMakeCurrent(mDisplay, mPreviousDrawSurface, mPreviousReadSurface, mContext)) {
+            checkEglError("eglMakeCurrent");
+        }
+    }
+
+    /**
+     * Destroys the EGL surface. The encoder input surface must be released by its owner.
+     */
+    public void release() {
+        EGL14.eglDestroySurface(mDisplay, mSurface);
+        mSurface = EGL14.EGL_NO_SURFACE;
+    }
+
+    private static void checkEglError(String operation) {
+        int error = EGL14.eglGetError();
+        if(error != EGL14.EGL_SUCCESS) {
+            throw new RuntimeException("EGL ERROR " + String.format("0x%X", error) + " @ " + operation);
+        }
+    }
+}
@@ -20,6 +20,8 @@ import android.graphics.SurfaceTexture;
 import android.opengl.GLES11Ext;
 import android.opengl.GLES20;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * @author Mario Guggenberger
  */
@@ -30,6 +32,7 @@ public class ExternalSurfaceTexture extends Texture implements SurfaceTexture.On
     private SurfaceTexture mSurfaceTexture;
     private SurfaceTexture.OnFrameAvailableListener mOnFrameAvailableListener;
     private boolean mFrameAvailable;
+    private final AtomicInteger mAvailableFrameCount = new AtomicInteger();
 
     public ExternalSurfaceTexture() {
         super();
@@ -38,10 +41,11 @@ public class ExternalSurfaceTexture extends Texture implements SurfaceTexture.On
         GLES20.glGenTextures(1, textures, 0);
 
         mTexture = textures[0];
-        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mTexture);
+        GLState.get().bindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mTexture);
         GLUtils.checkError("glBindTexture");
 
-        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+        // Linear minification because the frame gets downscaled when the processing resolution is lower
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
         GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
         GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
         GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
@@ -57,6 +61,7 @@ public class ExternalSurfaceTexture extends Texture implements SurfaceTexture.On
     public void delete() {
         mSurfaceTexture.release();
         GLES20.glDeleteTextures(1, new int[] { mTexture }, 0);
+        GLState.get().onTextureDeleted(mTexture);
     }
 
     public SurfaceTexture getSurfaceTexture() {
@@ -83,6 +88,7 @@ public class ExternalSurfaceTexture extends Texture implements SurfaceTexture.On
     }
 
     private void notifyFrameAvailability() {
+        mAvailableFrameCount.incrementAndGet();
         mFrameAvailable = true;
         if(mOnFrameAvailableListener != null) {
             mOnFrameAvailableListener.onFrameAvailable(mSurfaceTexture);
@@ -93,9 +99,26 @@ public class ExternalSurfaceTexture extends Texture implements SurfaceTexture.On
         return mFrameAvailable;
     }
 
-    public void updateTexture() {
+    /**
+     * Updates the texture to the most recent frame.
+     * @return the number of frames that have become available since the last update, of which
+     *         all but the most recent have been skipped
+     */
+    public int updateTexture() {
         mFrameAvailable = false;
+        int frameCount = mAvailableFrameCount.getAndSet(0);
         mSurfaceTexture.updateTexImage();
+        // The surface texture binds its texture internally
+        GLState.get().invalidateTextures();
         mSurfaceTexture.getTransformMatrix(mTransformMatrix);
+        return frameCount;
+    }
+
+    /**
+     * Gets the timestamp of the current frame in nanoseconds, as set by the producer.
+     * @see SurfaceTexture#getTimestamp()
+     */
+    public long getTimestamp() {
+        return mSurfaceTexture.getTimestamp();
     }
 }
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016 Mario Guggenberger <mg@protyposis.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.protyposis.android.spectaculum.gles;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A variant of a texture shader program that samples its source directly from an
+ * {@link ExternalSurfaceTexture} (samplerExternalOES) instead of a 2D texture. This allows the first
+ * effect of the pipeline to consume camera or decoder frames without copying them into a 2D texture.
+ *
+ * The variant is compiled from the fragment shader code of the 2D program with the s_Texture sampler
+ * replaced. All other uniforms are mirrored from the 2D program with {@link #syncUniforms()}, so
+ * effects can keep setting their parameters on the 2D program only.
+ */
+public class ExternalTextureShaderProgram extends TextureShaderProgram {
+
+    private static final String SAMPLER_2D = "uniform sampler2D s_Texture;";
+    private static final String SAMPLER_EXTERNAL = "uniform samplerExternalOES s_Texture;";
+    private static final String EXTENSION = "#extension GL_OES_EGL_image_external : require\n";
+
+    private UniformMirror mUniformMirror;
+
+    public ExternalTextureShaderProgram(TextureShaderProgram program) {
+        super(program, convertFragmentShaderCode(program.getFragmentShaderCode()));
+
+        // These are set for each draw call anyway
+        Set<String> excluded = new HashSet<>(Arrays.asList("s_Texture", "u_MVPMatrix", "u_STMatrix"));
+        mUniformMirror = new UniformMirror(program, this);
+        mUniformMirror.addAll(excluded);
+    }
+
+    /**
+     * Checks if an external texture variant can be compiled from a texture shader program. This is
+     * the case when the source texture is declared as "uniform sampler2D s_Texture;".
+     */
+    public static boolean isConvertible(TextureShaderProgram program) {
+        return program.getFragmentShaderCode().contains(SAMPLER_2D);
+    }
+
+    static String convertFragmentShaderCode(String code) {
+        if(!code.contains(SAMPLER_2D)) {
+            throw new IllegalArgumentException("fragment shader does not declare " + SAMPLER_2D);
+        }
+        code = code.replace(SAMPLER_2D, SAMPLER_EXTERNAL);
+
+        // The extension directive must come before any code but after the version directive
+        if(code.trim().startsWith("#version")) {
+            int lineEnd = code.indexOf('\n', code.indexOf("#version")) + 1;
+            return code.substring(0, lineEnd) + EXTENSION + code.substring(lineEnd);
+        }
+        return EXTENSION + code;
+    }
+
+    /**
+     * Copies the uniform values of the 2D program to this variant if they have changed. Must be
+     * called while this program is in use.
+     */
+    public void syncUniforms() {
+        mUniformMirror.sync();
+    }
+
+    public void setTexture(ExternalSurfaceTexture texture) {
+        GLState.get().activeTexture(GLES20.GL_TEXTURE0);
+        GLState.get().bindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, texture.getHandle());
+        setUniform1i(mTextureHandle, 0); // bind texture unit 0 to the uniform
+        setUniformMatrix4fv(mSTMatrixHandle, texture.getTransformMatrix(), 0);
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2016 Mario Guggenberger <mg@protyposis.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.protyposis.android.spectaculum.gles;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Reads frames back from the GPU into bitmaps. The frame to capture is rendered upside down into
+ * the capture framebuffer (see {@link #bind(int, int)}), so the vertical flip from the GL to the
+ * bitmap coordinate system happens on the GPU while the frame is copied.
+ *
+ * On GLES 3.0 contexts, the pixels are read asynchronously into pixel buffer objects, which avoids
+ * stalling the pipeline until the GPU has finished rendering. A fence is inserted after each
+ * read, and the buffer is mapped one or two frames later when the fence has been signalled (see
+ * {@link #process(boolean)}). On GLES 2.0 contexts, the pixels are read synchronously.
+ */
+public class FrameCapture {
+
+    private static final String TAG = FrameCapture.class.getSimpleName();
+
+    /**
+     * The number of pixel buffers, i.e. the number of captures that can be in flight at once.
+     */
+    private static final int PIXEL_BUFFER_COUNT = 2;
+
+    /**
+     * The number of frames after which a capture is finished even if the GPU is not done yet.
+     */
+    private static final int MAX_LATENCY_FRAMES = 2;
+
+    private static final long WAIT_TIMEOUT_NS = 100000000L; // 100ms
+
+    private static class Readback {
+        int pixelBuffer;
+        long fence;
+        int width;
+        int height;
+        int age;
+        GLRenderer.OnFrameCapturedCallback callback;
+    }
+
+    private boolean mAsync;
+    private Framebuffer mFramebuffer;
+    private int[] mPixelBuffers;
+    private int mNextPixelBuffer;
+    private LinkedList<Readback> mReadbacks;
+    private ByteBuffer mBuffer;
+
+    public FrameCapture() {
+        mAsync = GLUtils.HAS_GLES30_CONTEXT;
+        mReadbacks = new LinkedList<>();
+    }
+
+    /**
+     * Checks if frames are read asynchronously through pixel buffer objects.
+     */
+    public boolean isAsync() {
+        return mAsync;
+    }
+
+    /**
+     * Binds the capture framebuffer as render target. The caller must render the frame vertically
+     * flipped into it and then call {@link #read(GLRenderer.OnFrameCapturedCallback)}.
+     */
+    public void bind(int width, int height) {
+        getFramebuffer(width, height).bind(Framebuffer.BindMode.CLEAR);
+    }
+
+    /**
+     * Gets the capture framebuffer in the requested size, e.g. to directly render an effect into
+     * it. Rows are read back in GL order, i.e. the bottom row of the framebuffer becomes the top
+     * row of the bitmap.
+     */
+    public Framebuffer getFramebuffer(int width, int height) {
+        if(mFramebuffer == null || mFramebuffer.getWidth() != width || mFramebuffer.getHeight() != height) {
+            if(mFramebuffer != null) {
+                mFramebuffer.delete();
+            }
+            // Bitmaps are 8 bit per channel, there's no need to read more
+            mFramebuffer = new Framebuffer(width, height, GLES20.GL_RGBA);
+        }
+        return mFramebuffer;
+    }
+
+    /**
+     * Reads the content of the capture framebuffer. The callback is called on the GL thread,
+     * either immediately or from a later call of {@link #process(boolean)}.
+     */
+    public void read(GLRenderer.OnFrameCapturedCallback callback) {
+        int width = mFramebuffer.getWidth();
+        int height = mFramebuffer.getHeight();
+
+        // Bind without clearing, the content is what we want to read
+        mFramebuffer.bind(Framebuffer.BindMode.LOAD);
+
+        if(!mAsync) {
+            int size = width * height * 4;
+            if(mBuffer == null || mBuffer.capacity() != size) {
+                mBuffer = ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            mBuffer.rewind();
+            GLES20.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, mBuffer);
+            GLUtils.checkError("glReadPixels");
+            mBuffer.rewind();
+            callback.onFrameCaptured(createBitmap(mBuffer, width, height));
+            return;
+        }
+
+        if(mPixelBuffers == null) {
+            mPixelBuffers = new int[PIXEL_BUFFER_COUNT];
+            GLES30.glGenBuffers(PIXEL_BUFFER_COUNT, mPixelBuffers, 0);
+        }
+
+        if(mReadbacks.size() == PIXEL_BUFFER_COUNT) {
+            // All buffers are in flight, the oldest needs to be finished before its buffer can be reused
+            finish(mReadbacks.removeFirst(), true);
+        }
+
+        Readback readback = new Readback();
+        readback.pixelBuffer = mPixelBuffers[mNextPixelBuffer];
+        readback.width = width;
+        readback.height = height;
+        readback.callback = callback;
+        mNextPixelBuffer = (mNextPixelBuffer + 1) % PIXEL_BUFFER_COUNT;
+
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, readback.pixelBuffer);
+        GLES30.glBufferData(GLES30.GL_PIXEL_PACK_BUFFER, width * height * 4, null, GLES30.GL_STREAM_READ);
+        // With a bound pack buffer, the last parameter is an offset into the buffer and the call returns immediately
+        GLES30.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, 0);
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        readback.fence = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        GLUtils.checkError("glReadPixels PBO");
+
+        mReadbacks.addLast(readback);
+    }
+
+    /**
+     * Delivers the asynchronous captures that have been completed by the GPU. Must be called once
+     * per frame.
+     * @param wait if true, waits for all pending captures to complete, e.g. when no further frame
+     *             is going to be rendered
+     */
+    public void process(boolean wait) {
+        Iterator<Readback> iterator = mReadbacks.iterator();
+        while(iterator.hasNext()) {
+            Readback readback = iterator.next();
+            readback.age++;
+            if(finish(readback, wait || readback.age >= MAX_LATENCY_FRAMES)) {
+                iterator.remove();
+            } else {
+                // Captures complete in order, the following are not done either
+                break;
+            }
+        }
+    }
+
+    /**
+     * Checks if there are asynchronous captures that have not been delivered yet.
+     */
+    public boolean isPending() {
+        return !mReadbacks.isEmpty();
+    }
+
+    private boolean finish(Readback readback, boolean wait) {
+        int status = GLES30.glClientWaitSync(readback.fence,
+                wait ? GLES30.GL_SYNC_FLUSH_COMMANDS_BIT : 0, wait ? WAIT_TIMEOUT_NS : 0);
+        if(status == GLES30.GL_TIMEOUT_EXPIRED) {
+            if(!wait) {
+                return false;
+            }
+            // Mapping the buffer implicitly waits for the GPU
+            Log.w(TAG, "capture fence timeout");
+        }
+        GLES30.glDeleteSync(readback.fence);
+
+        int size = readback.width * readback.height * 4;
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, readback.pixelBuffer);
+        ByteBuffer buffer = (ByteBuffer) GLES30.glMapBufferRange(GLES30.GL_PIXEL_PACK_BUFFER,
+                0, size, GLES30.GL_MAP_READ_BIT);
+        GLUtils.checkError("glMapBufferRange");
+        Bitmap bitmap = createBitmap(buffer, readback.width, readback.height);
+        GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+
+        readback.callback.onFrameCaptured(bitmap);
+        return true;
+    }
+
+    private static Bitmap createBitmap(ByteBuffer buffer, int width, int height) {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        bitmap.copyPixelsFromBuffer(buffer);
+        return bitmap;
+    }
+
+    /**
+     * Signals the pending captures as failed by passing a null bitmap to their callbacks, e.g.
+     * when the context has been lost. Does not call GL and can therefore be called without a
+     * current context.
+     */
+    public void abandon() {
+        while(!mReadbacks.isEmpty()) {
+            mReadbacks.removeFirst().callback.onFrameCaptured(null);
+        }
+        mPixelBuffers = null;
+        mFramebuffer = null;
+        mBuffer = null;
+    }
+
+    /**
+     * Deletes all GL resources. Pending captures are delivered first.
+     */
+    public void delete() {
+        process(true);
+        if(mPixelBuffers != null) {
+            GLES30.glDeleteBuffers(PIXEL_BUFFER_COUNT, mPixelBuffers, 0);
+            mPixelBuffers = null;
+        }
+        if(mFramebuffer != null) {
+            mFramebuffer.delete();
+            mFramebuffer = null;
+        }
+        mBuffer = null;
+    }
+}
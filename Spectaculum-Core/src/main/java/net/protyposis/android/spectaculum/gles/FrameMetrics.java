@@ -0,0 +1,318 @@
+/*
+ * Copyright 2016 Mario Guggenberger <mg@protyposis.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.protyposis.android.spectaculum.gles;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The frame metrics of a {@link GLRenderer}: histograms of frame times and input latencies, and
+ * counters of input frames, rendered frames and render requests. Recording does not allocate and
+ * only consists of a few uncontended atomic increments, and the renderer does not record anything
+ * while metrics are disabled. Snapshots can be taken from any thread.
+ *
+ * The frame time is the interval between two consecutive frames while the renderer is busy, i.e.
+ * while the next frame has already been requested when a frame is finished. Idle periods between
+ * on-demand frames are not frame times and are not recorded.
+ *
+ * The input latency is the time from the production of an input frame, according to the
+ * timestamp that the producer has set on the input surface, to its consumption by the renderer,
+ * and to the swap of the rendered frame to the screen. The time of the actual presentation on the
+ * display cannot be queried through the Java EGL API, so it is not included. The latency can only
+ * be measured for producers whose timestamps are based on the monotonic clock, like the camera.
+ * Frames whose timestamps are in another time base, e.g. the media time of a video, are skipped.
+ * @see GLRenderer#setMetricsEnabled(boolean)
+ */
+public class FrameMetrics {
+
+    /**
+     * Input latencies above this limit are considered to be in a different time base.
+     */
+    private static final long MAX_LATENCY = 1000000000; // 1 s
+
+    /**
+     * A lock-free histogram of durations with linear buckets. Durations above the range are
+     * counted in an additional overflow bucket.
+     */
+    private static class Histogram {
+
+        private final long mBucketWidth;
+        private final AtomicIntegerArray mBuckets;
+        private final AtomicLong mMax = new AtomicLong();
+
+        Histogram(long bucketWidth, int bucketCount) {
+            mBucketWidth = bucketWidth;
+            mBuckets = new AtomicIntegerArray(bucketCount + 1);
+        }
+
+        /**
+         * Records a duration. Must only be called from a single thread.
+         */
+        void add(long duration) {
+            int overflow = mBuckets.length() - 1;
+            mBuckets.incrementAndGet((int) Math.min(duration / mBucketWidth, overflow));
+            if(duration > mMax.get()) {
+                mMax.set(duration);
+            }
+        }
+
+        void reset() {
+            for(int i = 0; i < mBuckets.length(); i++) {
+                mBuckets.set(i, 0);
+            }
+            mMax.set(0);
+        }
+    }
+
+    /**
+     * An immutable summary of a histogram. All values are in nanoseconds, percentiles are rounded
+     * up to the resolution of the histogram.
+     */
+    public static class Distribution {
+
+        private final long mCount;
+        private final long mP50;
+        private final long mP90;
+        private final long mP99;
+        private final long mMax;
+
+        private Distribution(Histogram histogram) {
+            int[] buckets = new int[histogram.mBuckets.length()];
+            long count = 0;
+            for(int i = 0; i < buckets.length; i++) {
+                buckets[i] = histogram.mBuckets.get(i);
+                count += buckets[i];
+            }
+            mCount = count;
+            mMax = histogram.mMax.get();
+            mP50 = percentile(buckets, histogram.mBucketWidth, 0.5f);
+            mP90 = percentile(buckets, histogram.mBucketWidth, 0.9f);
+            mP99 = percentile(buckets, histogram.mBucketWidth, 0.99f);
+        }
+
+        private long percentile(int[] buckets, long bucketWidth, float percentile) {
+            if(mCount == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(mCount * percentile);
+            long cumulative = 0;
+            for(int i = 0; i < buckets.length - 1; i++) {
+                cumulative += buckets[i];
+                if(cumulative >= rank) {
+                    return Math.min((i + 1) * bucketWidth, mMax);
+                }
+            }
+            // The percentile is in the overflow bucket
+            return mMax;
+        }
+
+        /**
+         * Gets the number of recorded values.
+         */
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getP50() {
+            return mP50;
+        }
+
+        public long getP90() {
+            return mP90;
+        }
+
+        public long getP99() {
+            return mP99;
+        }
+
+        public long getMax() {
+            return mMax;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("p50 %.2f p90 %.2f p99 %.2f max %.2f ms (%d)",
+                    mP50 / 1e6, mP90 / 1e6, mP99 / 1e6, mMax / 1e6, mCount);
+        }
+    }
+
+    /**
+     * An immutable copy of the metrics at a point in time.
+     */
+    public static class Snapshot {
+
+        private final Distribution mFrameTimes;
+        private final Distribution mConsumeLatencies;
+        private final Distribution mSwapLatencies;
+        private final long mInputFramesReceived;
+        private final long mInputFramesSkipped;
+        private final long mFramesRendered;
+        private final long[] mRenderRequests;
+
+        private Snapshot(FrameMetrics metrics) {
+            mFrameTimes = new Distribution(metrics.mFrameTimes);
+            mConsumeLatencies = new Distribution(metrics.mConsumeLatencies);
+            mSwapLatencies = new Distribution(metrics.mSwapLatencies);
+            mInputFramesReceived = metrics.mCounters.get(COUNTER_INPUT_RECEIVED);
+            mInputFramesSkipped = metrics.mCounters.get(COUNTER_INPUT_SKIPPED);
+            mFramesRendered = metrics.mCounters.get(COUNTER_RENDERED);
+            mRenderRequests = new long[GLRenderer.RenderRequest.values().length];
+            for(int i = 0; i < mRenderRequests.length; i++) {
+                mRenderRequests[i] = metrics.mRenderRequests.get(i);
+            }
+        }
+
+        /**
+         * Gets the distribution of frame times, with a resolution of 0.25 ms up to 100 ms.
+         */
+        public Distribution getFrameTimes() {
+            return mFrameTimes;
+        }
+
+        /**
+         * Gets the distribution of the latencies from the production of input frames to their
+         * consumption by the renderer, with a resolution of 1 ms up to 500 ms.
+         */
+        public Distribution getConsumeLatencies() {
+            return mConsumeLatencies;
+        }
+
+        /**
+         * Gets the distribution of the latencies from the production of input frames to the swap
+         * of the rendered frames to the screen, with a resolution of 1 ms up to 500 ms.
+         */
+        public Distribution getSwapLatencies() {
+            return mSwapLatencies;
+        }
+
+        /**
+         * Gets the number of frames that the input surface has received.
+         */
+        public long getInputFramesReceived() {
+            return mInputFramesReceived;
+        }
+
+        /**
+         * Gets the number of input frames that have never been rendered, because a newer frame
+         * has arrived before they could be rendered.
+         */
+        public long getInputFramesSkipped() {
+            return mInputFramesSkipped;
+        }
+
+        public long getFramesRendered() {
+            return mFramesRendered;
+        }
+
+        /**
+         * Gets the number of render requests of a type, before they are merged.
+         */
+        public long getRenderRequests(GLRenderer.RenderRequest renderRequest) {
+            return mRenderRequests[renderRequest.ordinal()];
+        }
+
+        @Override
+        public String toString() {
+            return String.format("frame time %s, consume latency %s, swap latency %s, " +
+                            "input %d received %d skipped, %d rendered",
+                    mFrameTimes, mConsumeLatencies, mSwapLatencies,
+                    mInputFramesReceived, mInputFramesSkipped, mFramesRendered);
+        }
+    }
+
+    private static final int COUNTER_INPUT_RECEIVED = 0;
+    private static final int COUNTER_INPUT_SKIPPED = 1;
+    private static final int COUNTER_RENDERED = 2;
+
+    private final Histogram mFrameTimes = new Histogram(250000, 400); // 0.25 ms up to 100 ms
+    private final Histogram mConsumeLatencies = new Histogram(1000000, 500); // 1 ms up to 500 ms
+    private final Histogram mSwapLatencies = new Histogram(1000000, 500);
+    private final AtomicLongArray mCounters = new AtomicLongArray(3);
+    private final AtomicLongArray mRenderRequests = new AtomicLongArray(GLRenderer.RenderRequest.values().length);
+
+    FrameMetrics() {
+    }
+
+    /**
+     * Records the interval between two frames. Must only be called on the GL thread.
+     */
+    void addFrameTime(long frameTimeNs) {
+        mFrameTimes.add(frameTimeNs);
+    }
+
+    /**
+     * Records the latencies of an input frame. Must only be called on the GL thread.
+     * @param timestamp the timestamp of the input frame as set by the producer
+     * @param consumeTime the {@link System#nanoTime()} when the frame has been consumed
+     * @param swapTime the {@link System#nanoTime()} when the rendered frame has been swapped
+     */
+    void addInputLatency(long timestamp, long consumeTime, long swapTime) {
+        long consumeLatency = consumeTime - timestamp;
+        if(timestamp == 0 || consumeLatency < 0 || consumeLatency > MAX_LATENCY) {
+            // Not in the time base of the monotonic clock
+            return;
+        }
+        mConsumeLatencies.add(consumeLatency);
+        mSwapLatencies.add(swapTime - timestamp);
+    }
+
+    /**
+     * Records the input frames that have arrived since the last texture update, of which all but
+     * the latest have been skipped.
+     */
+    void addInputFrames(int count) {
+        if(count > 0) {
+            mCounters.addAndGet(COUNTER_INPUT_RECEIVED, count);
+            mCounters.addAndGet(COUNTER_INPUT_SKIPPED, count - 1);
+        }
+    }
+
+    void addRenderedFrame() {
+        mCounters.incrementAndGet(COUNTER_RENDERED);
+    }
+
+    /**
+     * Records a render request. Can be called from any thread.
+     */
+    void addRenderRequest(GLRenderer.RenderRequest renderRequest) {
+        mRenderRequests.incrementAndGet(renderRequest.ordinal());
+    }
+
+    /**
+     * Takes a snapshot of the current metrics. Can be called from any thread.
+     */
+    public Snapshot getSnapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Resets all metrics to zero, e.g. to measure a specific scenario. Records that happen during
+     * the reset may be partially lost.
+     */
+    public void reset() {
+        mFrameTimes.reset();
+        mConsumeLatencies.reset();
+        mSwapLatencies.reset();
+        for(int i = 0; i < mCounters.length(); i++) {
+            mCounters.set(i, 0);
+        }
+        for(int i = 0; i < mRenderRequests.length(); i++) {
+            mRenderRequests.set(i, 0);
+        }
+    }
+}
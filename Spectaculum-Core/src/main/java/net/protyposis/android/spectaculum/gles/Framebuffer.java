@@ -17,16 +17,54 @@
 package net.protyposis.android.spectaculum.gles;
 
 import android.opengl.GLES20;
+import android.opengl.GLES30;
 
 /**
  * Created by maguggen on 04.07.2014.
  */
 public class Framebuffer {
 
+    /**
+     * Specifies what happens to the previous content of a framebuffer when it is bound. Tile-based
+     * GPUs load the content into their tile memory at the start of a pass unless they are told
+     * that it is not needed, which costs a full read of the framebuffer.
+     */
+    public enum BindMode {
+        /**
+         * The previous content is not needed, because the pass overwrites every pixel. The content
+         * is invalidated on GLES 3 contexts and cleared otherwise.
+         */
+        DONT_CARE,
+
+        /**
+         * The content is cleared, for passes that do not cover every pixel.
+         */
+        CLEAR,
+
+        /**
+         * The previous content is kept, for passes that draw onto it or read it back.
+         */
+        LOAD
+    }
+
+    private static final int[] sAttachments = { GLES20.GL_COLOR_ATTACHMENT0 };
+
     private int mFramebuffer;
     private Texture2D mTargetTexture;
 
     public Framebuffer(int width, int height) {
+        this(Texture2D.generateFloatTexture(width, height));
+    }
+
+    /**
+     * Creates a framebuffer with an attached RGBA texture of the given internal format.
+     * @see Texture2D#generateTexture(int, int, int)
+     */
+    public Framebuffer(int width, int height, int internalformat) {
+        this(Texture2D.generateTexture(internalformat, width, height));
+    }
+
+    private Framebuffer(Texture2D targetTexture) {
         int[] framebuffer = new int[1];
         GLES20.glGenFramebuffers(1, framebuffer, 0);
         mFramebuffer = framebuffer[0];
@@ -36,34 +74,63 @@ public class Framebuffer {
          * http://stackoverflow.com/a/6435997
          * http://stackoverflow.com/a/6767452 (comments!)
          */
-        mTargetTexture = Texture2D.generateFloatTexture(width, height);
+        mTargetTexture = targetTexture;
 
-        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebuffer);
+        GLState.get().bindFramebuffer(mFramebuffer);
         GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
                 GLES20.GL_TEXTURE_2D, mTargetTexture.getHandle(), 0);
 
         checkFramebufferStatus();
     }
 
-    public void bind(boolean clear) {
-        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebuffer);
+    /**
+     * Binds the framebuffer as render target and sets the viewport to its size.
+     * @param mode what happens to the previous content
+     */
+    public void bind(BindMode mode) {
+        GLState.get().bindFramebuffer(mFramebuffer);
+        GLState.get().viewport(0, 0, getWidth(), getHeight());
 
-        if(clear) {
-            // for performance on Android, clear after every bind: http://stackoverflow.com/a/11052366
-            GLES20.glClear(GLES20.GL_DEPTH_BUFFER_BIT | GLES20.GL_COLOR_BUFFER_BIT);
+        if(mode == BindMode.DONT_CARE && GLUtils.HAS_GLES30_CONTEXT) {
+            GLES30.glInvalidateFramebuffer(GLES20.GL_FRAMEBUFFER, 1, sAttachments, 0);
+        } else if(mode != BindMode.LOAD) {
+            /* GLES 2 has no invalidation in the Java API (EXT_discard_framebuffer is not exposed),
+             * but a clear after every bind also avoids the load: http://stackoverflow.com/a/11052366
+             * The framebuffer has no depth attachment, so only the color buffer is cleared. */
+            GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
         }
     }
 
+    /**
+     * Binds the framebuffer as render target and sets the viewport to its size.
+     * @param clear clears the framebuffer after binding if true, else keeps the content
+     */
+    public void bind(boolean clear) {
+        bind(clear ? BindMode.CLEAR : BindMode.LOAD);
+    }
+
+    /**
+     * Binds and clears the framebuffer. Passes that overwrite every pixel should bind with
+     * {@link BindMode#DONT_CARE} instead.
+     */
     public void bind() {
-        bind(true);
+        bind(BindMode.CLEAR);
     }
 
     public Texture2D getTexture() {
         return mTargetTexture;
     }
 
+    public int getWidth() {
+        return mTargetTexture.getWidth();
+    }
+
+    public int getHeight() {
+        return mTargetTexture.getHeight();
+    }
+
     public void delete() {
-        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebuffer);
+        GLState.get().bindFramebuffer(mFramebuffer);
         // Detach texture from framebuffer
         GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
                 GLES20.GL_TEXTURE_2D, 0, 0);
@@ -71,6 +138,7 @@ public class Framebuffer {
         mTargetTexture.delete();
         // Delete framebuffer
         GLES20.glDeleteFramebuffers(1, new int[] { mFramebuffer }, 0);
+        GLState.get().onFramebufferDeleted(mFramebuffer);
     }
 
     private void checkFramebufferStatus() {
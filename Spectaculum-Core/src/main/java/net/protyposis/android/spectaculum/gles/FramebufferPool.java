@@ -0,0 +1,257 @@
+/*
+ * Copyright 2016 Mario Guggenberger <mg@protyposis.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.protyposis.android.spectaculum.gles;
+
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * A pool of framebuffers keyed by their width, height and texture format, that is shared between
+ * the renderer and all effects of a GL context. Effects acquire framebuffers when they need them
+ * (usually for the duration of an {@link net.protyposis.android.spectaculum.effects.Effect#apply(Texture2D, Framebuffer)}
+ * call) and release them afterwards, so that framebuffers are reused across effects instead of
+ * every effect holding its own set of full-resolution framebuffers even when it is not selected.
+ *
+ * Acquired framebuffers are reference counted. When the last reference is released, the framebuffer
+ * is not deleted but kept idle in the pool for reuse. Idle framebuffers are evicted in least
+ * recently used order when the total memory size of the pool exceeds the configured budget.
+ *
+ * The pool is not thread-safe and must only be used on the GL thread of the context it belongs to.
+ */
+public class FramebufferPool {
+
+    private static final String TAG = FramebufferPool.class.getSimpleName();
+
+    public static final long DEFAULT_MAX_BYTES = 256 * 1024 * 1024;
+
+    private static class Entry {
+        int width;
+        int height;
+        int internalFormat;
+        long bytes;
+        int refCount;
+
+        boolean matches(int width, int height, int internalFormat) {
+            return this.width == width && this.height == height && this.internalFormat == internalFormat;
+        }
+    }
+
+    private Map<Framebuffer, Entry> mEntries;
+    private LinkedList<Framebuffer> mIdle; // least recently used first
+    private long mMaxBytes;
+    private long mBytes;
+    private long mIdleBytes;
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+
+    public FramebufferPool(long maxBytes) {
+        mEntries = new HashMap<>();
+        mIdle = new LinkedList<>();
+        mMaxBytes = maxBytes;
+    }
+
+    public FramebufferPool() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Acquires a framebuffer with the given size in the default floating point format.
+     * @see Texture2D#getFloatTextureInternalFormat()
+     */
+    public Framebuffer acquire(int width, int height) {
+        return acquire(width, height, Texture2D.getFloatTextureInternalFormat());
+    }
+
+    /**
+     * Acquires a framebuffer with the given size and texture format. An idle framebuffer is reused
+     * when available, else a new one is created. The returned framebuffer has a reference count
+     * of one and must be given back with {@link #release(Framebuffer)} when it is not needed anymore.
+     * The content of the framebuffer is undefined.
+     */
+    public Framebuffer acquire(int width, int height, int internalFormat) {
+        // Linear search, the number of idle framebuffers is always small
+        Iterator<Framebuffer> iterator = mIdle.iterator();
+        while(iterator.hasNext()) {
+            Framebuffer framebuffer = iterator.next();
+            Entry entry = mEntries.get(framebuffer);
+            if(entry.matches(width, height, internalFormat)) {
+                iterator.remove();
+                mIdleBytes -= entry.bytes;
+                entry.refCount = 1;
+                mHitCount++;
+                return framebuffer;
+            }
+        }
+
+        mMissCount++;
+
+        Framebuffer framebuffer = new Framebuffer(width, height, internalFormat);
+        Entry entry = new Entry();
+        entry.width = width;
+        entry.height = height;
+        entry.internalFormat = internalFormat;
+        entry.bytes = framebuffer.getTexture().getByteSize();
+        entry.refCount = 1;
+        mEntries.put(framebuffer, entry);
+        mBytes += entry.bytes;
+
+        evict(mMaxBytes);
+
+        return framebuffer;
+    }
+
+    /**
+     * Increments the reference count of an acquired framebuffer. Each call must be balanced with
+     * a call to {@link #release(Framebuffer)}.
+     */
+    public void retain(Framebuffer framebuffer) {
+        Entry entry = mEntries.get(framebuffer);
+        if(entry == null || entry.refCount == 0) {
+            throw new IllegalStateException("framebuffer has not been acquired from this pool");
+        }
+        entry.refCount++;
+    }
+
+    /**
+     * Decrements the reference count of an acquired framebuffer. When the count drops to zero,
+     * the framebuffer goes back into the pool and may be handed out to the next caller of
+     * {@link #acquire(int, int, int)}.
+     */
+    public void release(Framebuffer framebuffer) {
+        Entry entry = mEntries.get(framebuffer);
+        if(entry == null) {
+            // The pool has been reset in the meantime and the framebuffer has become invalid with its context
+            Log.w(TAG, "released framebuffer does not belong to this pool");
+            return;
+        }
+        if(entry.refCount == 0) {
+            throw new IllegalStateException("framebuffer has already been released");
+        }
+        if(--entry.refCount == 0) {
+            mIdle.addLast(framebuffer);
+            mIdleBytes += entry.bytes;
+            evict(mMaxBytes);
+        }
+    }
+
+    /**
+     * Deletes all idle framebuffers, e.g. after a resolution change when they cannot be reused anymore.
+     */
+    public void trim() {
+        evict(0);
+    }
+
+    /**
+     * Forgets all framebuffers without deleting them. Must be called when the GL context has been
+     * lost and all framebuffers have therefore become invalid.
+     */
+    public void reset() {
+        mEntries.clear();
+        mIdle.clear();
+        mBytes = 0;
+        mIdleBytes = 0;
+    }
+
+    private void evict(long maxBytes) {
+        while(mBytes > maxBytes && !mIdle.isEmpty()) {
+            Framebuffer framebuffer = mIdle.removeFirst();
+            Entry entry = mEntries.remove(framebuffer);
+            framebuffer.delete();
+            mBytes -= entry.bytes;
+            mIdleBytes -= entry.bytes;
+            mEvictionCount++;
+        }
+    }
+
+    /**
+     * Sets the memory budget in bytes. When the total size of all framebuffers exceeds the budget,
+     * idle framebuffers are deleted. Framebuffers that are in use are never evicted, which means
+     * that the budget can be exceeded when the working set is larger.
+     */
+    public void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        evict(mMaxBytes);
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * Returns the total memory size of all framebuffers (idle and in use) in bytes.
+     */
+    public long getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * Returns the memory size of the idle framebuffers in bytes.
+     */
+    public long getIdleBytes() {
+        return mIdleBytes;
+    }
+
+    /**
+     * Returns the total number of framebuffers (idle and in use) in the pool.
+     */
+    public int getCount() {
+        return mEntries.size();
+    }
+
+    public int getIdleCount() {
+        return mIdle.size();
+    }
+
+    /**
+     * Returns the number of acquisitions that could be served with an idle framebuffer.
+     */
+    public int getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * Returns the number of acquisitions that required the creation of a new framebuffer.
+     */
+    public int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * Returns the number of idle framebuffers that have been deleted to stay within the budget.
+     */
+    public int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    public void resetStatistics() {
+        mHitCount = 0;
+        mMissCount = 0;
+        mEvictionCount = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FramebufferPool %d framebuffers (%d idle), %d/%d bytes, %d hits, %d misses, %d evictions",
+                mEntries.size(), mIdle.size(), mBytes, mMaxBytes, mHitCount, mMissCount, mEvictionCount);
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2016 Mario Guggenberger <mg@protyposis.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.protyposis.android.spectaculum.gles;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A shader program that fuses a sequence of pointwise shader stages into a single pass, which saves
+ * the memory bandwidth of writing and reading intermediate textures between the stages.
+ *
+ * A stage is defined by a GLSL code snippet in which all global identifiers are prefixed with '$',
+ * which gets replaced by a unique per-stage prefix. A stage either defines a color function
+ * <pre>vec4 $apply(vec4 color, vec2 coord)</pre>
+ * that transforms the color of a pixel at the texture coordinate, or a coordinate function
+ * <pre>vec2 $map(vec2 coord)</pre>
+ * that remaps the coordinate where the source texture is sampled. A coordinate stage can only be
+ * the first stage. Snippets can read the global uniform u_TextureSize.
+ *
+ * The uniforms of each stage are mirrored from the stage's own shader program with
+ * {@link #syncUniforms()}, so effects can keep setting their parameters on their own program.
+ * A fused program can also sample its source from an {@link ExternalSurfaceTexture}, in which case
+ * the uniforms are mirrored from the stage programs directly as well.
+ */
+public class FusedShaderProgram extends TextureShaderProgram {
+
+    private static final String APPLY_FUNCTION = "$apply(";
+    private static final String MAP_FUNCTION = "$map(";
+
+    /**
+     * A stage of a fused shader program.
+     */
+    public static class Stage {
+        private TextureShaderProgram mProgram;
+        private String mCode;
+        private String[] mUniforms;
+
+        /**
+         * @param program the program of the stage that holds the uniform values
+         * @param code the GLSL code snippet of the stage
+         * @param uniforms the names of the stage's uniforms in the program, which are declared
+         *                 with a '$' prefix in the snippet
+         */
+        public Stage(TextureShaderProgram program, String code, String[] uniforms) {
+            if(!code.contains(APPLY_FUNCTION) && !code.contains(MAP_FUNCTION)) {
+                throw new IllegalArgumentException("stage code defines neither $apply nor $map");
+            }
+            mProgram = program;
+            mCode = code;
+            mUniforms = uniforms;
+        }
+
+        public boolean isCoordinateStage() {
+            return isCoordinateCode(mCode);
+        }
+    }
+
+    private List<UniformMirror> mUniformMirrors;
+
+    public FusedShaderProgram(List<Stage> stages) {
+        this(stages, false);
+    }
+
+    /**
+     * @param stages the stages to fuse
+     * @param externalTexture true to sample the source from an {@link ExternalSurfaceTexture}
+     *                        instead of a 2D texture
+     */
+    public FusedShaderProgram(List<Stage> stages, boolean externalTexture) {
+        super(stages.get(0).mProgram, externalTexture
+                ? ExternalTextureShaderProgram.convertFragmentShaderCode(generateCode(stages))
+                : generateCode(stages));
+
+        mUniformMirrors = new ArrayList<>(stages.size());
+        for(int i = 0; i < stages.size(); i++) {
+            Stage stage = stages.get(i);
+            UniformMirror mirror = new UniformMirror(stage.mProgram, this);
+            for(String uniform : stage.mUniforms) {
+                mirror.add(uniform, getPrefix(i) + uniform);
+            }
+            mUniformMirrors.add(mirror);
+        }
+    }
+
+    /**
+     * Checks if a stage code snippet defines a coordinate function.
+     */
+    public static boolean isCoordinateCode(String code) {
+        return code.contains(MAP_FUNCTION);
+    }
+
+    private static String getPrefix(int stage) {
+        return "s" + stage + "_";
+    }
+
+    /**
+     * Generates the fragment shader code of a fused program.
+     */
+    public static String generateCode(List<Stage> stages) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("precision highp float;\n\n");
+        sb.append("varying vec2 v_TextureCoord;\n");
+        sb.append("uniform sampler2D s_Texture;\n");
+        sb.append("uniform vec2 u_TextureSize;\n\n");
+
+        for(int i = 0; i < stages.size(); i++) {
+            Stage stage = stages.get(i);
+            if(i > 0 && stage.isCoordinateStage()) {
+                throw new IllegalArgumentException("coordinate stage " + i + " must be the first stage");
+            }
+            sb.append("// stage ").append(i).append("\n");
+            sb.append(stage.mCode.replace("$", getPrefix(i))).append("\n\n");
+        }
+
+        sb.append("void main() {\n");
+        sb.append("    vec2 coord = v_TextureCoord;\n");
+        int first = 0;
+        if(stages.get(0).isCoordinateStage()) {
+            sb.append("    vec4 color = texture2D(s_Texture, ").append(getPrefix(0)).append("map(coord));\n");
+            first = 1;
+        } else {
+            sb.append("    vec4 color = texture2D(s_Texture, coord);\n");
+        }
+        for(int i = first; i < stages.size(); i++) {
+            sb.append("    color = ").append(getPrefix(i)).append("apply(color, coord);\n");
+        }
+        sb.append("    gl_FragColor = color;\n");
+        sb.append("}\n");
+
+        return sb.toString();
+    }
+
+    /**
+     * Copies the uniform values of all stage programs to this program if they have changed. Must be
+     * called while this program is in use.
+     */
+    public void syncUniforms() {
+        for(UniformMirror mirror : mUniformMirrors) {
+            mirror.sync();
+        }
+    }
+
+    public void setTexture(ExternalSurfaceTexture texture) {
+        GLState.get().activeTexture(GLES20.GL_TEXTURE0);
+        GLState.get().bindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, texture.getHandle());
+        setUniform1i(mTextureHandle, 0); // bind texture unit 0 to the uniform
+        setUniformMatrix4fv(mSTMatrixHandle, texture.getTransformMatrix(), 0);
+    }
+}
@@ -21,15 +21,19 @@ import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 import android.opengl.Matrix;
 import android.util.Log;
+import android.view.Surface;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
 import net.protyposis.android.spectaculum.effects.Effect;
 import net.protyposis.android.spectaculum.effects.EffectException;
+import net.protyposis.android.spectaculum.effects.ParameterHandler;
+import net.protyposis.android.spectaculum.effects.PipelineEffect;
 
 /**
  * Created by Mario on 14.06.2014.
@@ -38,11 +42,53 @@ public class GLRenderer implements GLSurfaceView.Renderer {
 
     private static final String TAG = GLRenderer.class.getSimpleName();
 
+    /**
+     * The max fraction of the frame area that can be visible for region of interest processing,
+     * which is also the max pixel count of the region relative to the processing resolution.
+     */
+    private static final float ROI_MAX_AREA = 0.5f;
+
+    /**
+     * The fraction of the visible size that is additionally processed on each side of the region
+     * of interest, so small pans do not require the effect to be re-run.
+     */
+    private static final float ROI_MARGIN = 0.1f;
+
+    /**
+     * The size of the region of interest framebuffers is rounded up to a multiple of this value to
+     * avoid reallocations for every small zoom change.
+     */
+    private static final int ROI_SIZE_ALIGNMENT = 16;
+
+    /**
+     * The longest interval that is inserted into a recording when the time base of the input
+     * changes, and the interval that is assumed before one has been measured.
+     */
+    private static final long ENCODER_DEFAULT_FRAME_INTERVAL = 1000000000 / 30;
+
+    /**
+     * Dirty flags of the pipeline sections, which are merged from render requests and consumed
+     * once per frame.
+     */
+    private static final int DIRTY_INPUT = 1;
+    private static final int DIRTY_EFFECT = 1 << 1;
+    private static final int DIRTY_GEOMETRY = 1 << 2;
+
+    /**
+     * The pipeline sections that a render request re-renders. Each section implies the following
+     * sections, e.g. a re-rendered effect must also be rendered to the screen.
+     */
     public enum RenderRequest {
-        DEFAULT,
-        ALL,
-        EFFECT,
-        GEOMETRY
+        DEFAULT(0),
+        ALL(DIRTY_INPUT | DIRTY_EFFECT | DIRTY_GEOMETRY),
+        EFFECT(DIRTY_EFFECT | DIRTY_GEOMETRY),
+        GEOMETRY(DIRTY_GEOMETRY);
+
+        private final int mDirtyFlags;
+
+        RenderRequest(int dirtyFlags) {
+            mDirtyFlags = dirtyFlags;
+        }
     }
 
     /**
@@ -84,7 +130,33 @@ public class GLRenderer implements GLSurfaceView.Renderer {
         void onEffectError(int index, Effect effect, EffectException e);
     }
 
+    /**
+     * The stages of the pipeline that a frame can be captured from.
+     */
+    public enum CaptureSource {
+        /**
+         * The input frame in its source resolution, before any effect is applied.
+         */
+        INPUT,
+
+        /**
+         * The output of the effect pipeline in processing resolution, independent of zoom and pan.
+         * While a region of interest is processed, only the processed region is captured.
+         */
+        OUTPUT,
+
+        /**
+         * The frame as displayed on the screen in surface resolution, including zoom and pan.
+         */
+        SCREEN
+    }
+
     public interface OnFrameCapturedCallback {
+        /**
+         * Receives a captured frame.
+         * @param bitmap the captured frame, or null if the capture has failed because the GL
+         *               context has been lost before the frame could be read back
+         */
         void onFrameCaptured(Bitmap bitmap);
     }
 
@@ -98,31 +170,97 @@ public class GLRenderer implements GLSurfaceView.Renderer {
      */
     private float[] mProjectionMatrix = new float[16];
 
+    /**
+     * The size of the output surface
+     */
     private int mWidth;
     private int mHeight;
 
+    /**
+     * The size of the input frames, if known
+     */
+    private int mInputWidth;
+    private int mInputHeight;
+
+    /**
+     * The size in which the effects are processed
+     */
+    private int mProcessingWidth;
+    private int mProcessingHeight;
+    private float mProcessingScale = 1.0f;
+    private int mRequestedProcessingWidth;
+    private int mRequestedProcessingHeight;
+    private ResolutionGovernor mResolutionGovernor;
+
     private ExternalSurfaceTexture mExternalSurfaceTexture;
+    private Texture2D mInputTexture;
     private ReadExternalTextureShaderProgram mReadExternalTextureShaderProgram;
+    private FramebufferPool mFramebufferPool;
     private Framebuffer mFramebufferIn;
     private Framebuffer mFramebufferOut;
     private TexturedRectangle mTexturedRectangle;
     private TextureShaderProgram mTextureToScreenShaderProgram;
+    private FrameCapture mFrameCapture;
+    private EncoderSurface mEncoderSurface;
+    private long mEncoderTimestamp;
+    private long mEncoderSourceTimestamp;
+    private boolean mEncoderSourceClock;
+    private long mEncoderTimestampOffset;
+    private long mEncoderFrameInterval;
+    private boolean mEncoderFrameAvailable;
+    private float[] mCaptureViewMatrix = new float[16];
+    private float[] mCaptureProjectionMatrix = new float[16];
+
+    /**
+     * The region of interest, which is the part of the frame that is processed while zoomed in,
+     * as left, bottom, right, top in normalized texture coordinates
+     */
+    private boolean mRoiEnabled = true;
+    private boolean mRoiActive;
+    private float[] mRoi = new float[4];
+    private float[] mVisibleRegion = new float[4];
+    private Framebuffer mRoiFramebufferIn;
+    private Framebuffer mRoiFramebufferOut;
+    private float[] mRoiCropMatrix = new float[16];
+    private float[] mRoiTempMatrix = new float[16];
+    private float[] mRoiTempVector = new float[12];
 
-    private TextureShaderProgram mDefaultShaderProgram;
     private List<Effect> mEffects;
     private Effect mEffect;
-    private RenderRequest mRenderRequest;
+    private ParameterHandler mParameterHandler;
+    private final AtomicInteger mDirtyFlags = new AtomicInteger();
 
     private OnExternalSurfaceTextureCreatedListener mOnExternalSurfaceTextureCreatedListener;
     private EffectEventListener mEffectEventListener;
-    private FrameRateCalculator mFrameRateCalculator;
+    private PassProfiler.OnStatisticsListener mPassStatisticsListener;
+    private boolean mCpuPassTimingEnabled;
+    private PassProfiler mPassProfiler;
+    private volatile FrameMetrics mMetrics;
+    private long mLastFrameTime;
+    private FrameMetrics mFrameTimeMetrics;
+    private boolean mGovernorFrameInterval;
     private boolean mInitializeStuff;
+    private boolean mFramebufferInValid;
+
+    /**
+     * Feeds the measured GPU time of the effects into the resolution governor.
+     */
+    private final PassProfiler.OnEffectTimeListener mEffectTimeListener = new PassProfiler.OnEffectTimeListener() {
+        @Override
+        public void onEffectTime(long time) {
+            if(mResolutionGovernor != null) {
+                mResolutionGovernor.addFrameTime(time);
+            }
+        }
+    };
 
     public GLRenderer() {
         Log.d(TAG, "ctor");
 
         mTexturedRectangle = new TexturedRectangle();
 
+        mFramebufferPool = new FramebufferPool();
+
         mEffects = new ArrayList<>();
     }
 
@@ -134,14 +272,110 @@ public class GLRenderer implements GLSurfaceView.Renderer {
         this.mEffectEventListener = l;
     }
 
+    /**
+     * Requests a render pass of a pipeline section. Requests are merged until they are consumed by
+     * the next frame, so a request never overrides a pending request of a larger section. Can be
+     * called from any thread.
+     * @param renderRequest specifies the pipeline section to be rendered
+     * @return true if no request was pending before, which means that the caller needs to request
+     *         a new frame from the GL thread
+     */
+    public boolean requestRender(RenderRequest renderRequest) {
+        FrameMetrics metrics = mMetrics;
+        if(metrics != null) {
+            metrics.addRenderRequest(renderRequest);
+        }
+        return invalidate(renderRequest.mDirtyFlags) == 0;
+    }
+
+    /**
+     * @deprecated requests are merged now, use {@link #requestRender(RenderRequest)}
+     */
+    @Deprecated
     public void setRenderRequest(RenderRequest renderRequest) {
-        mRenderRequest = renderRequest;
+        requestRender(renderRequest);
+    }
+
+    /**
+     * Atomically adds dirty flags and returns the previous flags.
+     */
+    private int invalidate(int flags) {
+        while(true) {
+            int current = mDirtyFlags.get();
+            if((current | flags) == current || mDirtyFlags.compareAndSet(current, current | flags)) {
+                return current;
+            }
+        }
+    }
+
+    /**
+     * Sets the handler whose pending parameter values are applied at the start of each frame.
+     */
+    public void setParameterHandler(ParameterHandler handler) {
+        mParameterHandler = handler;
+    }
+
+    /**
+     * Gets the framebuffer pool that is shared between the renderer and all its effects.
+     * Must only be accessed on the GL thread.
+     */
+    public FramebufferPool getFramebufferPool() {
+        return mFramebufferPool;
+    }
+
+    /**
+     * Sets a listener that periodically receives the render time statistics of every pass of
+     * the effect pipeline, and enables their measurement. Passes are labeled with the name of
+     * the effect and the name of the pass. Must be called on the GL thread.
+     * @param listener the listener, which is called on the GL thread, or null to disable profiling
+     * @see PassProfiler
+     */
+    public void setPassStatisticsListener(PassProfiler.OnStatisticsListener listener) {
+        mPassStatisticsListener = listener;
+        releasePassProfiler();
+    }
+
+    /**
+     * Enables timing of passes on the CPU on devices that do not support GPU timer queries.
+     * This waits for the GPU to finish every pass, so it distorts the frame rate and should
+     * only be enabled for debugging. Must be called on the GL thread.
+     */
+    public void setCpuPassTimingEnabled(boolean enabled) {
+        mCpuPassTimingEnabled = enabled;
+        releasePassProfiler();
+    }
+
+    /**
+     * Enables or disables the recording of frame metrics. Disabled by default, in which case the
+     * metrics do not cost anything. Enabling starts a new recording. Can be called from any thread.
+     */
+    public void setMetricsEnabled(boolean enabled) {
+        mMetrics = enabled ? new FrameMetrics() : null;
+    }
+
+    /**
+     * Gets the frame metrics, or null if they are disabled. Can be called from any thread.
+     * @see FrameMetrics#getSnapshot()
+     */
+    public FrameMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    private void releasePassProfiler() {
+        if(mPassProfiler != null) {
+            mPassProfiler.release();
+            mPassProfiler = null;
+        }
     }
 
     @Override
     public void onSurfaceCreated(GL10 glUnused, EGLConfig config) {
         Log.d(TAG, "onSurfaceCreated");
         GLUtils.init();
+        // The new context starts with the default state and without the objects of a previous one
+        GLState.get().invalidate();
+        ScreenGeometry.get().reset();
+        mPassProfiler = null;
         //GLUtils.printSysConfig();
 
         // set the background color
@@ -158,19 +392,35 @@ public class GLRenderer implements GLSurfaceView.Renderer {
             mExternalSurfaceTexture.delete();
         }
 
+        // All pooled framebuffers have been invalidated with the previous context
+        mFramebufferPool.reset();
+        mFramebufferIn = null;
+        mFramebufferOut = null;
+        mRoiFramebufferIn = null;
+        mRoiFramebufferOut = null;
+        mRoiActive = false;
+
         mExternalSurfaceTexture = new ExternalSurfaceTexture();
+        mInputTexture = null; // lost with the previous context, needs to be set again
         mReadExternalTextureShaderProgram = new ReadExternalTextureShaderProgram();
 
-        mDefaultShaderProgram = new TextureShaderProgram();
-
         mTextureToScreenShaderProgram = new TextureShaderProgram();
 
+        if(mFrameCapture != null) {
+            // Pending captures of the previous context are lost, their callers are notified
+            mFrameCapture.abandon();
+        }
+        mFrameCapture = new FrameCapture();
+
+        if(mEncoderSurface != null) {
+            Log.w(TAG, "recording surface lost with the previous context");
+            mEncoderSurface = null;
+        }
+
         if(mOnExternalSurfaceTextureCreatedListener != null) {
             mOnExternalSurfaceTextureCreatedListener.onExternalSurfaceTextureCreated(mExternalSurfaceTexture);
         }
 
-        mFrameRateCalculator = new FrameRateCalculator(30);
-
         mInitializeStuff = true;
     }
 
@@ -178,39 +428,173 @@ public class GLRenderer implements GLSurfaceView.Renderer {
     public void onSurfaceChanged(GL10 glUnused, int width, int height) {
         Log.d(TAG, "onSurfaceChanged " + width + "x" + height);
 
+        boolean resized = mWidth != width || mHeight != height;
+        mWidth = width;
+        mHeight = height;
+
+        updateProcessingSize();
+
+        if(resized) {
+            // Delete idle framebuffers of the previous resolution that cannot be reused anymore
+            mFramebufferPool.trim();
+        }
+
+        setZoomLevel(1.0f);
+
+        // fully re-render current scene to adjust to the change
+        invalidate(RenderRequest.ALL.mDirtyFlags);
+        onDrawFrame(glUnused);
+    }
+
+    /**
+     * Sets the resolution of the input frames, which is the default resolution of captures from
+     * {@link CaptureSource#INPUT}.
+     */
+    public void setInputSize(int width, int height) {
+        mInputWidth = width;
+        mInputHeight = height;
+    }
+
+    /**
+     * Sets the scale factor of the processing resolution relative to the output surface resolution,
+     * e.g. 0.5 processes the effects in half the width and height of the surface. The input frame is
+     * scaled once when it is read into the pipeline, and the result is scaled to the surface size
+     * when it is rendered to the screen. Has no effect when an explicit processing size is set.
+     * @param scale the scale factor, 1.0 by default
+     * @see #setProcessingSize(int, int)
+     */
+    public void setProcessingScale(float scale) {
+        if(scale <= 0) {
+            throw new IllegalArgumentException("invalid processing scale " + scale);
+        }
+        mProcessingScale = scale;
+        updateProcessingSize();
+    }
+
+    public float getProcessingScale() {
+        return mProcessingScale;
+    }
+
+    /**
+     * Sets an explicit processing resolution that is independent of the input and output surface
+     * resolutions. Setting a size of 0x0 reverts to the processing scale.
+     * @see #setProcessingScale(float)
+     */
+    public void setProcessingSize(int width, int height) {
+        if(width < 0 || height < 0) {
+            throw new IllegalArgumentException("invalid processing size " + width + "x" + height);
+        }
+        mRequestedProcessingWidth = width;
+        mRequestedProcessingHeight = height;
+        updateProcessingSize();
+    }
+
+    /**
+     * Enables dynamic resolution, which continuously adjusts the processing resolution to hold a
+     * target frame rate. The render time of the effects is measured, and the processing resolution
+     * (as determined by the processing scale or size) is scaled down when effects are too slow to
+     * hold the frame rate and scaled up again when there is enough headroom.
+     *
+     * The render time is measured on the GPU with timer queries, which does not stall the pipeline.
+     * Where timer queries are not supported, the interval between frames is measured instead while
+     * the renderer is busy, i.e. while new frames are requested faster than they are rendered.
+     * Must be called on the GL thread.
+     * @param targetFrameRate the frame rate to hold, or 0 to disable dynamic resolution
+     * @see ResolutionGovernor
+     */
+    public void setDynamicResolution(float targetFrameRate) {
+        mResolutionGovernor = targetFrameRate > 0 ? new ResolutionGovernor(targetFrameRate) : null;
+        mGovernorFrameInterval = false;
+        releasePassProfiler();
+        updateProcessingSize();
+    }
+
+    public ResolutionGovernor getResolutionGovernor() {
+        return mResolutionGovernor;
+    }
+
+    /**
+     * Gets the width of the resolution in which the effects are processed.
+     */
+    public int getProcessingWidth() {
+        return mProcessingWidth;
+    }
+
+    /**
+     * Gets the height of the resolution in which the effects are processed.
+     */
+    public int getProcessingHeight() {
+        return mProcessingHeight;
+    }
+
+    /**
+     * Computes the processing resolution and reallocates the pipeline framebuffers and effects if it
+     * has changed. Does nothing as long as there is no surface.
+     */
+    private void updateProcessingSize() {
+        if(mWidth == 0 || mHeight == 0) {
+            return;
+        }
+
+        int width, height;
+        if(mRequestedProcessingWidth > 0 && mRequestedProcessingHeight > 0) {
+            width = mRequestedProcessingWidth;
+            height = mRequestedProcessingHeight;
+        } else {
+            width = Math.round(mWidth * mProcessingScale);
+            height = Math.round(mHeight * mProcessingScale);
+        }
+        if(mResolutionGovernor != null) {
+            width = Math.round(width * mResolutionGovernor.getScale());
+            height = Math.round(height * mResolutionGovernor.getScale());
+        }
+        width = Math.max(1, width);
+        height = Math.max(1, height);
+
         // Initialize stuff in the following block only if the surface was just created or the resolution has changed
-        if(mInitializeStuff || mWidth != width || mHeight != height) {
+        if(mInitializeStuff || mProcessingWidth != width || mProcessingHeight != height) {
+            Log.d(TAG, "processing size " + width + "x" + height);
+
+            // The region of interest is recomputed for the new resolution with the next frame
+            releaseRoiFramebuffers();
+            mRoiActive = false;
+
             if(mFramebufferIn != null) {
-                mFramebufferIn.delete();
-                mFramebufferOut.delete();
+                /* Return the framebuffers to the pool instead of deleting them. When the resolution
+                 * is changed back, e.g. by the dynamic resolution governor, they can be reused. */
+                // Restore the default filter mode before the framebuffer is handed out to effects
+                mFramebufferOut.getTexture().setFilterMode(GLES20.GL_NEAREST, GLES20.GL_NEAREST);
+                mFramebufferPool.release(mFramebufferIn);
+                mFramebufferPool.release(mFramebufferOut);
             }
 
-            mFramebufferIn = new Framebuffer(width, height);
-            mFramebufferOut = new Framebuffer(width, height);
-            mFramebufferOut.getTexture().setFilterMode(-1, GLES20.GL_LINEAR);
+            mFramebufferIn = mFramebufferPool.acquire(width, height);
+            mFramebufferInValid = false;
+            mFramebufferOut = mFramebufferPool.acquire(width, height);
+            // The output gets scaled to the surface size when it is rendered to the screen
+            mFramebufferOut.getTexture().setFilterMode(GLES20.GL_LINEAR, GLES20.GL_LINEAR);
 
             for (Effect effect : mEffects) {
-            /* After a surface change, if the resolution has changed, effects need to be
-             * reinitialized to update them to the new resolution. */
                 if (effect.isInitialized()) {
-                    Log.d(TAG, "reinitializing effect " + effect.getName());
-                    effect.init(width, height);
+                    if(mInitializeStuff) {
+                        /* After a surface change, effects need to be reinitialized because their
+                         * resources have been lost with the previous context. */
+                        Log.d(TAG, "reinitializing effect " + effect.getName());
+                        effect.init(width, height);
+                    } else {
+                        // If only the resolution has changed, effects can keep their resources
+                        resizeEffect(effect, width, height);
+                    }
                 }
             }
 
+            mProcessingWidth = width;
+            mProcessingHeight = height;
             mInitializeStuff = false;
-        }
-
-        // adjust the viewport to the surface size
-        GLES20.glViewport(0, 0, width, height);
-        mWidth = width;
-        mHeight = height;
 
-        setZoomLevel(1.0f);
-
-        // fully re-render current scene to adjust to the change
-        mRenderRequest = RenderRequest.ALL;
-        onDrawFrame(glUnused);
+            // The whole pipeline needs to be rendered in the new resolution
+            invalidate(RenderRequest.ALL.mDirtyFlags);
+        }
     }
 
     @Override
@@ -218,56 +602,566 @@ public class GLRenderer implements GLSurfaceView.Renderer {
 
         // PREPARE
 
+        FrameMetrics metrics = mMetrics;
+        long inputTimestamp = 0;
+        long inputConsumeTime = 0;
+        long frameTime = System.nanoTime();
+        // Only the interval to a frame that has been requested in time is a frame time
+        if(metrics != null && metrics == mFrameTimeMetrics) {
+            metrics.addFrameTime(frameTime - mLastFrameTime);
+        }
+        if(mResolutionGovernor != null && mGovernorFrameInterval) {
+            mResolutionGovernor.addFrameTime(frameTime - mLastFrameTime);
+        }
+        mLastFrameTime = frameTime;
+
+        /* Deliver captures that have been read back in the meantime. If no new frame is pending, the
+         * renderer may not be called again for a while, so pending captures are finished right away. */
+        mFrameCapture.process(mDirtyFlags.get() == 0
+                && !mExternalSurfaceTexture.isTextureUpdateAvailable());
+
         mTexturedRectangle.reset();
 
+        if(mParameterHandler != null) {
+            /* Animated parameter values are synced to the frame time. Setting a value requests
+             * another frame, so the renderer keeps rendering while animations are running. */
+            mParameterHandler.runAnimations(System.nanoTime());
+            // Apply the effect parameters that have changed since the last frame in one batch
+            mParameterHandler.applyPendingValues();
+        }
+
+        if(mResolutionGovernor != null) {
+            // Apply a resolution change of the governor, which requests a full re-render if necessary
+            updateProcessingSize();
+        }
+
+        updateRegionOfInterest();
+
+        // Consume all requests that have been merged since the last frame
+        int dirtyFlags = mDirtyFlags.getAndSet(0);
+
+        if((mPassStatisticsListener != null || mResolutionGovernor != null) && mPassProfiler == null) {
+            // The governor never times on the CPU, because that stalls the pipeline
+            mPassProfiler = new PassProfiler(mCpuPassTimingEnabled && mPassStatisticsListener != null);
+            mPassProfiler.setOnStatisticsListener(mPassStatisticsListener);
+            mPassProfiler.setOnEffectTimeListener(mEffectTimeListener);
+        }
 
         // FETCH AND TRANSFER FRAME TO TEXTURE
-        if(mRenderRequest == RenderRequest.ALL || mExternalSurfaceTexture.isTextureUpdateAvailable()) {
+        if(mInputTexture != null && mExternalSurfaceTexture.isTextureUpdateAvailable()) {
+            /* Frames of the external surface texture are ignored while a bitmap is the input. They
+             * are dropped nevertheless, else the pending frame would keep the renderer busy. */
             mExternalSurfaceTexture.updateTexture();
+        }
+        if((dirtyFlags & DIRTY_INPUT) != 0 || mExternalSurfaceTexture.isTextureUpdateAvailable()) {
+            if(mInputTexture == null) {
+                int frameCount = mExternalSurfaceTexture.updateTexture();
+                if(metrics != null && frameCount > 0) {
+                    // Without a new frame, the latency of the current frame has already been recorded
+                    metrics.addInputFrames(frameCount);
+                    inputTimestamp = mExternalSurfaceTexture.getTimestamp();
+                    inputConsumeTime = System.nanoTime();
+                }
+                mEncoderFrameAvailable = true;
+            }
 
-            mFramebufferIn.bind();
-            mReadExternalTextureShaderProgram.use();
-            mReadExternalTextureShaderProgram.setTexture(mExternalSurfaceTexture);
-            mTexturedRectangle.draw(mReadExternalTextureShaderProgram);
+            /* The frame is only copied into a 2D texture on demand when the effect cannot read
+             * the external texture directly, which saves a full read and write of the frame. */
+            mFramebufferInValid = false;
 
-            mRenderRequest = RenderRequest.EFFECT;
+            dirtyFlags |= DIRTY_EFFECT;
         }
 
 
         // MANIPULATE TEXTURE WITH SHADER(S)
 
-        if(mRenderRequest == RenderRequest.EFFECT) {
-            if (mEffect != null) {
-                mEffect.apply(mFramebufferIn.getTexture(), mFramebufferOut);
+        if((dirtyFlags & DIRTY_EFFECT) != 0) {
+            if(mPassProfiler != null) {
+                mPassProfiler.beginEffect(mEffect != null ? mEffect.getName() : PassProfiler.RENDERER);
+                if(mPassStatisticsListener == null) {
+                    // Only the total is needed, which then also covers draws outside of marked passes
+                    PassProfiler.beginPass("effect");
+                }
+            }
+
+            if (mRoiActive) {
+                applyRegionOfInterest();
+            } else if (mEffect == null) {
+                readInput(mFramebufferOut);
+            } else if (mEffect instanceof PipelineEffect
+                    && ((PipelineEffect) mEffect).isExternalTextureSupported()) {
+                /* Effects that can sample an external texture directly can also sample the input
+                 * texture, whose texture coordinates are transformed the same way. */
+                if(mInputTexture != null) {
+                    mEffect.apply(mInputTexture, mFramebufferOut);
+                } else {
+                    ((PipelineEffect) mEffect).apply(mExternalSurfaceTexture, mFramebufferOut);
+                }
             } else {
-                mFramebufferOut.bind();
-                mDefaultShaderProgram.use();
-                mDefaultShaderProgram.setTexture(mFramebufferIn.getTexture());
-                mTexturedRectangle.draw(mDefaultShaderProgram);
+                if(!mFramebufferInValid) {
+                    readInput(mFramebufferIn);
+                    mFramebufferInValid = true;
+                }
+                mEffect.apply(mFramebufferIn.getTexture(), mFramebufferOut);
+            }
+
+            if(mPassProfiler != null) {
+                if(mPassStatisticsListener == null) {
+                    PassProfiler.endPass();
+                }
+                mPassProfiler.endEffect();
             }
 
-            mRenderRequest = RenderRequest.GEOMETRY;
+            dirtyFlags |= DIRTY_GEOMETRY;
         }
 
 
         // RENDER TEXTURE TO SCREEN
 
-        if(mRenderRequest == RenderRequest.GEOMETRY) {
-            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0); // framebuffer 0 is the screen
+        if((dirtyFlags & DIRTY_GEOMETRY) != 0) {
+            GLState.get().bindFramebuffer(0); // framebuffer 0 is the screen
+            GLState.get().viewport(0, 0, mWidth, mHeight);
             GLES20.glClear(GLES20.GL_DEPTH_BUFFER_BIT | GLES20.GL_COLOR_BUFFER_BIT);
-            mTextureToScreenShaderProgram.use();
-            mTextureToScreenShaderProgram.setTexture(mFramebufferOut.getTexture());
+            if(mPassProfiler != null) {
+                mPassProfiler.beginEffect(PassProfiler.RENDERER);
+                PassProfiler.beginPass("output");
+            }
+            renderOutput(mProjectionMatrix);
+            if(mPassProfiler != null) {
+                PassProfiler.endPass();
+                mPassProfiler.endEffect();
+            }
+        }
 
-            mTexturedRectangle.translate(0.0f, 0.0f, -1.0f);
-            mTexturedRectangle.calculateMVP(mViewMatrix, mProjectionMatrix);
 
-            mTexturedRectangle.draw(mTextureToScreenShaderProgram);
+        // RENDER TEXTURE TO ENCODER
+
+        if(mEncoderSurface != null && mEncoderFrameAvailable) {
+            renderToEncoder();
         }
+        mEncoderFrameAvailable = false;
 
         // STUFF
 
-        //mFrameRateCalculator.frame();
-        mRenderRequest = RenderRequest.DEFAULT;
+        if(metrics != null) {
+            metrics.addRenderedFrame();
+            if(inputConsumeTime != 0) {
+                // GLSurfaceView swaps the buffers right after this method returns
+                metrics.addInputLatency(inputTimestamp, inputConsumeTime, System.nanoTime());
+            }
+        }
+
+        // If the next frame is already requested, the renderer is busy and the interval is a frame time
+        boolean busy = mDirtyFlags.get() != 0 || mExternalSurfaceTexture.isTextureUpdateAvailable();
+        mFrameTimeMetrics = busy ? metrics : null;
+        // The governor falls back to the frame interval if the effects cannot be timed on the GPU
+        mGovernorFrameInterval = busy && mResolutionGovernor != null
+                && (mPassProfiler == null || !mPassProfiler.isSupported());
+
+        if(mPassProfiler != null) {
+            // Reads back the timings of previous frames
+            mPassProfiler.endFrame();
+        }
+    }
+
+    /**
+     * Renders the output of the effect pipeline with the zoom and pan transformation into the
+     * currently bound framebuffer.
+     */
+    private void renderOutput(float[] projectionMatrix) {
+        mTextureToScreenShaderProgram.use();
+        mTextureToScreenShaderProgram.setTexture(getOutputFramebuffer().getTexture());
+
+        mTexturedRectangle.reset();
+        mTexturedRectangle.translate(0.0f, 0.0f, -1.0f);
+        if(mRoiActive) {
+            // Place the processed region at its position in the frame
+            mTexturedRectangle.translate(mRoi[0] + mRoi[2] - 1.0f, mRoi[1] + mRoi[3] - 1.0f, 0.0f);
+            mTexturedRectangle.scale(mRoi[2] - mRoi[0], mRoi[3] - mRoi[1], 1.0f);
+        }
+        mTexturedRectangle.calculateMVP(mViewMatrix, projectionMatrix);
+
+        mTexturedRectangle.draw(mTextureToScreenShaderProgram);
+    }
+
+    /**
+     * Gets the framebuffer that holds the output of the effect pipeline, which is the region of
+     * interest framebuffer while a region is processed.
+     */
+    private Framebuffer getOutputFramebuffer() {
+        return mRoiActive ? mRoiFramebufferOut : mFramebufferOut;
+    }
+
+    /**
+     * Enables or disables region of interest processing. When the view is zoomed in so far that
+     * only a small part of the frame is visible, the effect is only applied to the visible part,
+     * plus a margin for panning and the neighborhood that the effect samples around each pixel.
+     * The region is processed at a higher effective resolution than the full frame, bounded by
+     * the zoom level, the input resolution and a pixel budget of half the processing resolution,
+     * so zooming in makes the effect both sharper and cheaper. The region is only moved when the
+     * visible part leaves it, or gets much smaller, which re-runs the effect.
+     *
+     * Effects with an unbounded neighborhood (see {@link PipelineEffect#getNeighborhoodRadius()}) are
+     * always applied to the full frame, as well as all effects while recording.
+     */
+    public void setRegionOfInterestEnabled(boolean enabled) {
+        mRoiEnabled = enabled;
+    }
+
+    public boolean isRegionOfInterestEnabled() {
+        return mRoiEnabled;
+    }
+
+    /**
+     * Computes the part of the frame that is visible on the screen with the current zoom and pan
+     * as left, bottom, right, top in normalized texture coordinates.
+     */
+    private void computeVisibleRegion(float[] region) {
+        // Transform the lower left and upper right corners of the frame into clip space
+        Matrix.multiplyMM(mRoiTempMatrix, 0, mProjectionMatrix, 0, mViewMatrix, 0);
+        float[] v = mRoiTempVector;
+        v[8] = -1.0f; v[9] = -1.0f; v[10] = -1.0f; v[11] = 1.0f;
+        Matrix.multiplyMV(v, 4, mRoiTempMatrix, 0, v, 8);
+        v[8] = 1.0f; v[9] = 1.0f;
+        Matrix.multiplyMV(v, 0, mRoiTempMatrix, 0, v, 8);
+
+        for(int axis = 0; axis < 2; axis++) {
+            // The orthographic projection maps each axis linearly: clip = a * model + b
+            float a = (v[axis] - v[4 + axis]) / 2;
+            float b = v[4 + axis] + a;
+            // Invert the mapping for the screen edges at -1 and 1 and convert to texture coordinates
+            float m0 = (-1.0f - b) / a;
+            float m1 = (1.0f - b) / a;
+            region[axis] = Math.max(0.0f, (Math.min(m0, m1) + 1.0f) / 2);
+            region[axis + 2] = Math.min(1.0f, (Math.max(m0, m1) + 1.0f) / 2);
+        }
+    }
+
+    /**
+     * Updates the region of interest from the current zoom and pan, and requests the effect to be
+     * re-run if the region has changed.
+     */
+    private void updateRegionOfInterest() {
+        int radius = mEffect == null ? 0 : mEffect instanceof PipelineEffect
+                ? ((PipelineEffect) mEffect).getNeighborhoodRadius() : PipelineEffect.NEIGHBORHOOD_UNBOUNDED;
+        if(!mRoiEnabled || radius == PipelineEffect.NEIGHBORHOOD_UNBOUNDED || mEncoderSurface != null
+                || mProcessingWidth == 0 || mProcessingHeight == 0) {
+            disableRegionOfInterest();
+            return;
+        }
+
+        float[] visible = mVisibleRegion;
+        computeVisibleRegion(visible);
+        float visibleWidth = visible[2] - visible[0];
+        float visibleHeight = visible[3] - visible[1];
+        if(visibleWidth <= 0 || visibleHeight <= 0 || visibleWidth * visibleHeight >= ROI_MAX_AREA) {
+            // Not zoomed in far enough for the region to pay off
+            disableRegionOfInterest();
+            return;
+        }
+
+        if(mRoiActive && visible[0] >= mRoi[0] && visible[1] >= mRoi[1]
+                && visible[2] <= mRoi[2] && visible[3] <= mRoi[3]
+                && visibleWidth * visibleHeight * 4 > (mRoi[2] - mRoi[0]) * (mRoi[3] - mRoi[1])) {
+            // The visible part is still covered by the region in an adequate resolution
+            return;
+        }
+
+        float left = Math.max(0.0f, visible[0] - visibleWidth * ROI_MARGIN);
+        float bottom = Math.max(0.0f, visible[1] - visibleHeight * ROI_MARGIN);
+        float right = Math.min(1.0f, visible[2] + visibleWidth * ROI_MARGIN);
+        float top = Math.min(1.0f, visible[3] + visibleHeight * ROI_MARGIN);
+
+        /* The density of the region relative to the full frame processing resolution. There is no
+         * point in exceeding the zoom level, which is when the region gets displayed 1:1 in the
+         * processing scale, or the input resolution, and the pixel budget keeps it cheaper than the
+         * full frame. */
+        float density = 1.0f / Math.max(visibleWidth, visibleHeight);
+        density = Math.min(density, (float) Math.sqrt(ROI_MAX_AREA / ((right - left) * (top - bottom))));
+        if(mInputWidth > 0 && mInputHeight > 0) {
+            density = Math.min(density, Math.max((float) mInputWidth / mProcessingWidth,
+                    (float) mInputHeight / mProcessingHeight));
+        }
+        density = Math.max(1.0f, density);
+
+        // Add the halo of pixels that the effect samples around the region
+        float haloX = radius / (mProcessingWidth * density);
+        float haloY = radius / (mProcessingHeight * density);
+        left = Math.max(0.0f, left - haloX);
+        bottom = Math.max(0.0f, bottom - haloY);
+        right = Math.min(1.0f, right + haloX);
+        top = Math.min(1.0f, top + haloY);
+
+        int width = align(Math.round((right - left) * mProcessingWidth * density));
+        int height = align(Math.round((top - bottom) * mProcessingHeight * density));
+
+        if(!mRoiActive || mRoiFramebufferOut.getWidth() != width || mRoiFramebufferOut.getHeight() != height) {
+            Log.d(TAG, "region of interest size " + width + "x" + height);
+            releaseRoiFramebuffers();
+            mRoiFramebufferIn = mFramebufferPool.acquire(width, height);
+            mRoiFramebufferOut = mFramebufferPool.acquire(width, height);
+            // The output gets scaled to the surface size when it is rendered to the screen
+            mRoiFramebufferOut.getTexture().setFilterMode(GLES20.GL_LINEAR, GLES20.GL_LINEAR);
+            if(mEffect != null) {
+                resizeEffect(mEffect, width, height);
+            }
+        }
+
+        mRoi[0] = left;
+        mRoi[1] = bottom;
+        mRoi[2] = right;
+        mRoi[3] = top;
+
+        /* Map the region to the full clip space, so drawing the input crops it to the region and
+         * scales it to the region framebuffer. */
+        Matrix.setIdentityM(mRoiCropMatrix, 0);
+        Matrix.scaleM(mRoiCropMatrix, 0, 1.0f / (right - left), 1.0f / (top - bottom), 1.0f);
+        Matrix.translateM(mRoiCropMatrix, 0, 1.0f - (left + right), 1.0f - (bottom + top), 0.0f);
+
+        mRoiActive = true;
+        mFramebufferInValid = false;
+        invalidate(RenderRequest.EFFECT.mDirtyFlags);
+    }
+
+    private static int align(int size) {
+        return Math.max(1, (size + ROI_SIZE_ALIGNMENT - 1) / ROI_SIZE_ALIGNMENT * ROI_SIZE_ALIGNMENT);
+    }
+
+    /**
+     * Switches back to processing the full frame, and requests the effect to be re-run.
+     */
+    private void disableRegionOfInterest() {
+        if(!mRoiActive) {
+            return;
+        }
+        releaseRoiFramebuffers();
+        mRoiActive = false;
+        if(mEffect != null) {
+            resizeEffect(mEffect, mProcessingWidth, mProcessingHeight);
+        }
+        mFramebufferInValid = false;
+        invalidate(RenderRequest.EFFECT.mDirtyFlags);
+    }
+
+    /**
+     * Adapts an initialized effect to a new resolution. Effects that cannot be resized in place
+     * are reinitialized.
+     */
+    private static void resizeEffect(Effect effect, int width, int height) {
+        if(effect instanceof PipelineEffect) {
+            ((PipelineEffect) effect).resize(width, height);
+        } else {
+            effect.init(width, height);
+        }
+    }
+
+    private void releaseRoiFramebuffers() {
+        if(mRoiFramebufferIn != null) {
+            // Restore the default filter mode before the framebuffer is handed out to effects
+            mRoiFramebufferOut.getTexture().setFilterMode(GLES20.GL_NEAREST, GLES20.GL_NEAREST);
+            mFramebufferPool.release(mRoiFramebufferIn);
+            mFramebufferPool.release(mRoiFramebufferOut);
+            mRoiFramebufferIn = null;
+            mRoiFramebufferOut = null;
+        }
+    }
+
+    /**
+     * Applies the effect to the region of interest. The input is always cropped into the region
+     * framebuffer first, because effects that sample the external texture directly cover the
+     * full frame.
+     */
+    private void applyRegionOfInterest() {
+        mTexturedRectangle.reset();
+        Matrix.setIdentityM(mRoiTempMatrix, 0);
+        mTexturedRectangle.calculateMVP(mRoiCropMatrix, mRoiTempMatrix);
+
+        if(mEffect == null) {
+            readInput(mRoiFramebufferOut);
+        } else {
+            if(!mFramebufferInValid) {
+                readInput(mRoiFramebufferIn);
+                mFramebufferInValid = true;
+            }
+            mTexturedRectangle.reset();
+            mEffect.apply(mRoiFramebufferIn.getTexture(), mRoiFramebufferOut);
+        }
+        mTexturedRectangle.reset();
+    }
+
+    /**
+     * Renders the output of the effect pipeline into the encoder surface. This reuses the output
+     * texture that is rendered to the screen, so the effects are applied only once per frame.
+     */
+    private void renderToEncoder() {
+        /* Only new input frames are recorded, because the encoder requires increasing timestamps.
+         * Effect parameter changes on a paused input are visible in the next recorded frame. */
+        long sourceTimestamp = mInputTexture != null ? 0 : mExternalSurfaceTexture.getTimestamp();
+        boolean sourceClock = sourceTimestamp == 0;
+        if(sourceClock) {
+            /* Bitmap inputs have no timestamps, and the timestamp of the external texture does not
+             * advance while they are set. Some producers do not set timestamps either, e.g. when
+             * drawing with a canvas. */
+            sourceTimestamp = System.nanoTime();
+        }
+
+        long timestamp;
+        if(mEncoderTimestamp == 0) {
+            // First recorded frame
+            mEncoderTimestampOffset = 0;
+            timestamp = sourceTimestamp;
+        } else if(sourceClock == mEncoderSourceClock && sourceTimestamp == mEncoderSourceTimestamp) {
+            // The frame has already been recorded
+            return;
+        } else if(sourceClock != mEncoderSourceClock || sourceTimestamp < mEncoderSourceTimestamp) {
+            /* The time base of the input has changed, or its time went backward, e.g. when a
+             * video is seeked or looped. The recording continues one frame interval after the
+             * last recorded frame, so the encoder timeline stays monotonic. */
+            timestamp = mEncoderTimestamp + mEncoderFrameInterval;
+            mEncoderTimestampOffset = timestamp - sourceTimestamp;
+        } else {
+            timestamp = sourceTimestamp + mEncoderTimestampOffset;
+        }
+
+        if(mEncoderTimestamp != 0) {
+            // Pauses of the input are not repeated when the time base changes
+            mEncoderFrameInterval = Math.min(timestamp - mEncoderTimestamp, ENCODER_DEFAULT_FRAME_INTERVAL);
+        }
+        mEncoderTimestamp = timestamp;
+        mEncoderSourceTimestamp = sourceTimestamp;
+        mEncoderSourceClock = sourceClock;
+
+        mEncoderSurface.makeCurrent();
+        // The context is the same, so the framebuffer of the last pass may still be bound
+        GLState.get().bindFramebuffer(0);
+        GLState.get().viewport(0, 0, mEncoderSurface.getWidth(), mEncoderSurface.getHeight());
+        mTextureToScreenShaderProgram.use();
+        mTextureToScreenShaderProgram.setTexture(mFramebufferOut.getTexture());
+        mTexturedRectangle.reset();
+        mTexturedRectangle.draw(mTextureToScreenShaderProgram);
+        mEncoderSurface.setPresentationTime(timestamp);
+        mEncoderSurface.swapBuffers();
+        mEncoderSurface.restore();
+    }
+
+    /**
+     * Starts recording the output of the effect pipeline into an encoder input surface, e.g. from
+     * a {@link net.protyposis.android.spectaculum.VideoRecorder}. Every new input frame is
+     * rendered into the surface with the timestamp of the input frame, which is shifted into a
+     * monotonic timeline when the input seeks backward or changes. The output is recorded
+     * in the size of the encoder surface, independent of zoom and pan.
+     * @param surface the encoder input surface
+     */
+    public void startRecording(Surface surface) {
+        if(mEncoderSurface != null) {
+            throw new IllegalStateException("already recording");
+        }
+        mEncoderSurface = new EncoderSurface(surface);
+        mEncoderTimestamp = 0;
+        mEncoderFrameInterval = ENCODER_DEFAULT_FRAME_INTERVAL;
+        // Record the current frame right away
+        mEncoderFrameAvailable = true;
+    }
+
+    /**
+     * Stops recording and releases the encoder surface. The encoder input surface can be
+     * released afterwards.
+     */
+    public void stopRecording() {
+        if(mEncoderSurface != null) {
+            mEncoderSurface.release();
+            mEncoderSurface = null;
+        }
+    }
+
+    public boolean isRecording() {
+        return mEncoderSurface != null;
+    }
+
+    /**
+     * Copies the current input frame into a framebuffer.
+     */
+    private void readInput(Framebuffer target) {
+        PassProfiler.beginPass("input");
+        target.bind(Framebuffer.BindMode.DONT_CARE);
+        drawInput();
+        PassProfiler.endPass();
+    }
+
+    /**
+     * Draws the current input frame, which is either the input texture or the external texture,
+     * into the currently bound framebuffer.
+     */
+    private void drawInput() {
+        if(mInputTexture != null) {
+            mTextureToScreenShaderProgram.use();
+            mTextureToScreenShaderProgram.setTexture(mInputTexture);
+            mTexturedRectangle.draw(mTextureToScreenShaderProgram);
+        } else {
+            mReadExternalTextureShaderProgram.use();
+            mReadExternalTextureShaderProgram.setTexture(mExternalSurfaceTexture);
+            mTexturedRectangle.draw(mReadExternalTextureShaderProgram);
+        }
+    }
+
+    /**
+     * Sets a bitmap as input of the pipeline, which is uploaded directly into a texture instead of
+     * being written into the external surface texture. Changing the bitmap costs a single upload,
+     * and no copy if the bitmap has the same size as the previous one. While a bitmap is set,
+     * frames of the external surface texture are ignored. Must be called on the GL thread.
+     * @param bitmap the input bitmap, or null to switch back to the external surface texture
+     */
+    public void setInputBitmap(Bitmap bitmap) {
+        if(bitmap == null) {
+            if(mInputTexture != null) {
+                mInputTexture.delete();
+                mInputTexture = null;
+            }
+            return;
+        }
+
+        Bitmap source = bitmap;
+        int[] maxTextureSize = new int[1];
+        GLES20.glGetIntegerv(GLES20.GL_MAX_TEXTURE_SIZE, maxTextureSize, 0);
+        if(bitmap.getWidth() > maxTextureSize[0] || bitmap.getHeight() > maxTextureSize[0]) {
+            /* The view cannot display more than its surface resolution anyway. Full resolution
+             * results of large images can be computed with OffscreenRenderer in tiles. */
+            float scale = (float) maxTextureSize[0] / Math.max(bitmap.getWidth(), bitmap.getHeight());
+            Log.w(TAG, String.format("input bitmap %dx%d exceeds the max texture size, scaling by %.2f",
+                    bitmap.getWidth(), bitmap.getHeight(), scale));
+            bitmap = Bitmap.createScaledBitmap(bitmap,
+                    Math.max(1, (int) (bitmap.getWidth() * scale)),
+                    Math.max(1, (int) (bitmap.getHeight() * scale)), true);
+        }
+
+        if(mInputTexture != null && mInputTexture.getWidth() == bitmap.getWidth()
+                && mInputTexture.getHeight() == bitmap.getHeight()) {
+            mInputTexture.update(bitmap);
+        } else {
+            if(mInputTexture != null) {
+                mInputTexture.delete();
+            }
+            mInputTexture = new Texture2D(bitmap);
+            // The input gets scaled to the processing resolution
+            mInputTexture.setFilterMode(GLES20.GL_LINEAR, GLES20.GL_LINEAR);
+
+            /* Bitmap rows are stored top to bottom, while GL's origin is bottom left. Flip the
+             * texture coordinates like the transform of the external surface texture does. */
+            float[] transform = mInputTexture.getTransformMatrix();
+            Matrix.setIdentityM(transform, 0);
+            Matrix.translateM(transform, 0, 0.0f, 1.0f, 0.0f);
+            Matrix.scaleM(transform, 0, 1.0f, -1.0f, 1.0f);
+
+            setInputSize(bitmap.getWidth(), bitmap.getHeight());
+        }
+
+        if(bitmap != source) {
+            // Free the temporary scaled copy
+            bitmap.recycle();
+        }
+
+        mEncoderFrameAvailable = true;
+        invalidate(RenderRequest.ALL.mDirtyFlags);
     }
 
     public void setZoomLevel(float zoomLevel) {
@@ -285,6 +1179,9 @@ public class GLRenderer implements GLSurfaceView.Renderer {
     public void addEffect(Effect... effects) {
         for(Effect effect : effects) {
             Log.d(TAG, "adding effect " + effect.getName());
+            if(effect instanceof PipelineEffect) {
+                ((PipelineEffect) effect).setFramebufferPool(mFramebufferPool);
+            }
             mEffects.add(effect);
         }
     }
@@ -296,10 +1193,12 @@ public class GLRenderer implements GLSurfaceView.Renderer {
             return;
         }
         Effect effect = mEffects.get(index); // keep in a local variable until initialized, in case initialization fails
+        // The region of interest is recomputed for the new effect with the next frame
+        disableRegionOfInterest();
         if(!effect.isInitialized()) {
             Log.d(TAG, "initializing effect " + effect.getName());
             try {
-                effect.init(mWidth, mHeight);
+                effect.init(mProcessingWidth, mProcessingHeight);
                 if (mEffectEventListener != null) {
                     mEffectEventListener.onEffectInitialized(index, effect);
                 }
@@ -316,7 +1215,96 @@ public class GLRenderer implements GLSurfaceView.Renderer {
         }
     }
 
+    /**
+     * Captures the current frame as it is displayed on the screen.
+     * @see #saveCurrentFrame(CaptureSource, int, int, OnFrameCapturedCallback)
+     */
     public void saveCurrentFrame(OnFrameCapturedCallback callback) {
-        callback.onFrameCaptured(GLUtils.getFrameBuffer(mWidth, mHeight));
+        saveCurrentFrame(CaptureSource.SCREEN, 0, 0, callback);
+    }
+
+    /**
+     * Captures the current frame from a stage of the pipeline. The frame is rendered into a capture
+     * framebuffer of the requested size, which scales it on the GPU, and read back without blocking
+     * the pipeline where supported, so the callback can be called during one of the following frames.
+     * Requesting a small size, e.g. for thumbnails, saves the transfer of the full resolution frame.
+     * @param source the pipeline stage to capture
+     * @param width the width of the captured frame, or 0 to derive it from the height
+     * @param height the height of the captured frame, or 0 to derive it from the width; if both are
+     *               0, the frame is captured in the resolution of the source stage
+     * @see FrameCapture
+     */
+    public void saveCurrentFrame(CaptureSource source, int width, int height, OnFrameCapturedCallback callback) {
+        if(mFramebufferOut == null) {
+            Log.w(TAG, "no frame to capture");
+            return;
+        }
+
+        int sourceWidth, sourceHeight;
+        switch (source) {
+            case INPUT:
+                sourceWidth = mInputWidth;
+                sourceHeight = mInputHeight;
+                break;
+            case OUTPUT:
+                sourceWidth = getOutputFramebuffer().getWidth();
+                sourceHeight = getOutputFramebuffer().getHeight();
+                break;
+            default:
+                sourceWidth = mWidth;
+                sourceHeight = mHeight;
+                break;
+        }
+        if(sourceWidth <= 0 || sourceHeight <= 0) {
+            // The input size is unknown until it has been set
+            sourceWidth = mProcessingWidth;
+            sourceHeight = mProcessingHeight;
+        }
+
+        // Derive the missing dimensions from the aspect ratio of the source
+        if(width <= 0 && height <= 0) {
+            width = sourceWidth;
+            height = sourceHeight;
+        } else if(width <= 0) {
+            width = Math.max(1, Math.round((float) height * sourceWidth / sourceHeight));
+        } else if(height <= 0) {
+            height = Math.max(1, Math.round((float) width * sourceHeight / sourceWidth));
+        }
+
+        /* Render the frame upside down, because GL's origin is bottom left and the bitmap's top left.
+         * The flip is applied on top of the projection, which is symmetric, so it flips the whole picture. */
+        if(source == CaptureSource.SCREEN) {
+            Matrix.scaleM(mCaptureProjectionMatrix, 0, mProjectionMatrix, 0, 1.0f, -1.0f, 1.0f);
+            mFrameCapture.bind(width, height);
+            renderOutput(mCaptureProjectionMatrix);
+        } else {
+            Matrix.setIdentityM(mCaptureViewMatrix, 0);
+            Matrix.setIdentityM(mCaptureProjectionMatrix, 0);
+            Matrix.scaleM(mCaptureProjectionMatrix, 0, 1.0f, -1.0f, 1.0f);
+            mTexturedRectangle.reset();
+            mTexturedRectangle.calculateMVP(mCaptureViewMatrix, mCaptureProjectionMatrix);
+
+            mFrameCapture.bind(width, height);
+            if(source == CaptureSource.INPUT) {
+                // Read the input directly, which is sampled linearly when scaled
+                drawInput();
+            } else {
+                // The output texture is sampled linearly because it is scaled to the screen
+                mTextureToScreenShaderProgram.use();
+                mTextureToScreenShaderProgram.setTexture(getOutputFramebuffer().getTexture());
+                mTexturedRectangle.draw(mTextureToScreenShaderProgram);
+            }
+        }
+        mTexturedRectangle.reset();
+
+        mFrameCapture.read(callback);
+    }
+
+    /**
+     * Checks if there are frame captures that have not been delivered yet. The renderer needs
+     * to be called again to deliver them.
+     */
+    public boolean isFrameCapturePending() {
+        return mFrameCapture != null && mFrameCapture.isPending();
     }
 }
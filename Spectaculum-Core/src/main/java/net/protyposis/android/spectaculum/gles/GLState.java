@@ -0,0 +1,353 @@
+/*
+ * Copyright 2016 Mario Guggenberger <mg@protyposis.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.protyposis.android.spectaculum.gles;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+
+import java.nio.Buffer;
+import java.util.Arrays;
+
+/**
+ * Tracks the GL state of the context that is current on the calling thread and skips calls that
+ * would not change it. Covers the program in use, the textures bound to each texture unit, the
+ * framebuffer, the viewport, the array buffer and the vertex attribute arrays. Uniform values are
+ * cached per program by {@link ShaderProgram}.
+ *
+ * All state changes of the library go through this tracker, and the renderers invalidate it when
+ * their context is created. Code that changes the tracked state directly, e.g. an effect that
+ * uses GL calls of another library, must call {@link #invalidate()} afterwards, or one of the
+ * narrower variants if it only changes textures or vertex arrays.
+ *
+ * The tracker counts issued and skipped calls, which can be used to measure the savings, e.g.
+ * by reading and resetting the counters once per frame.
+ */
+public class GLState {
+
+    /**
+     * The types of calls that are tracked.
+     */
+    public enum Call {
+        PROGRAM,
+        TEXTURE,
+        FRAMEBUFFER,
+        VIEWPORT,
+        UNIFORM,
+        VERTEX_ARRAY
+    }
+
+    private static final int MAX_TEXTURE_UNITS = 32;
+    private static final int MAX_VERTEX_ATTRIBS = 16;
+    private static final int UNKNOWN = -1;
+
+    private static final ThreadLocal<GLState> sState = new ThreadLocal<GLState>() {
+        @Override
+        protected GLState initialValue() {
+            return new GLState();
+        }
+    };
+
+    /**
+     * Gets the state tracker of the context that is current on the calling thread.
+     */
+    public static GLState get() {
+        return sState.get();
+    }
+
+    private int mProgram;
+    private ShaderProgram mProgramObject;
+    private int mActiveTextureUnit;
+    private int[] mTextures2D = new int[MAX_TEXTURE_UNITS];
+    private int[] mTexturesExternal = new int[MAX_TEXTURE_UNITS];
+    private int mFramebuffer;
+    private int[] mViewport = new int[4];
+    private int mArrayBuffer;
+    private int[] mAttribBuffers = new int[MAX_VERTEX_ATTRIBS];
+    private int[] mAttribSizes = new int[MAX_VERTEX_ATTRIBS];
+    private int[] mAttribStrides = new int[MAX_VERTEX_ATTRIBS];
+    private int[] mAttribOffsets = new int[MAX_VERTEX_ATTRIBS];
+    private boolean[] mAttribEnabled = new boolean[MAX_VERTEX_ATTRIBS];
+
+    private int[] mIssuedCalls = new int[Call.values().length];
+    private int[] mSkippedCalls = new int[Call.values().length];
+
+    private GLState() {
+        invalidate();
+    }
+
+    /**
+     * Forgets all tracked state, so the next calls are issued in any case.
+     */
+    public void invalidate() {
+        mProgram = UNKNOWN;
+        mProgramObject = null;
+        mFramebuffer = UNKNOWN;
+        Arrays.fill(mViewport, UNKNOWN);
+        invalidateTextures();
+        invalidateVertexArrays();
+    }
+
+    /**
+     * Forgets the tracked texture bindings, e.g. after a {@link android.graphics.SurfaceTexture}
+     * has bound its texture internally.
+     */
+    public void invalidateTextures() {
+        mActiveTextureUnit = UNKNOWN;
+        Arrays.fill(mTextures2D, UNKNOWN);
+        Arrays.fill(mTexturesExternal, UNKNOWN);
+    }
+
+    /**
+     * Forgets the tracked array buffer and vertex attribute arrays.
+     */
+    public void invalidateVertexArrays() {
+        mArrayBuffer = UNKNOWN;
+        Arrays.fill(mAttribBuffers, UNKNOWN);
+        Arrays.fill(mAttribEnabled, false);
+    }
+
+    public void useProgram(ShaderProgram program) {
+        int handle = program.getHandle();
+        if(handle == mProgram) {
+            count(Call.PROGRAM, true);
+            return;
+        }
+        GLES20.glUseProgram(handle);
+        mProgram = handle;
+        mProgramObject = program;
+        count(Call.PROGRAM, false);
+    }
+
+    /**
+     * Gets the program in use, or null if it is unknown.
+     */
+    ShaderProgram getProgram() {
+        return mProgramObject;
+    }
+
+    public void activeTexture(int texture) {
+        int unit = texture - GLES20.GL_TEXTURE0;
+        if(unit == mActiveTextureUnit) {
+            count(Call.TEXTURE, true);
+            return;
+        }
+        GLES20.glActiveTexture(texture);
+        mActiveTextureUnit = unit >= 0 && unit < MAX_TEXTURE_UNITS ? unit : UNKNOWN;
+        count(Call.TEXTURE, false);
+    }
+
+    public void bindTexture(int target, int texture) {
+        int[] bindings = getTextureBindings(target);
+        if(bindings != null && mActiveTextureUnit != UNKNOWN && bindings[mActiveTextureUnit] == texture) {
+            count(Call.TEXTURE, true);
+            return;
+        }
+        GLES20.glBindTexture(target, texture);
+        if(bindings != null && mActiveTextureUnit != UNKNOWN) {
+            bindings[mActiveTextureUnit] = texture;
+        }
+        count(Call.TEXTURE, false);
+    }
+
+    private int[] getTextureBindings(int target) {
+        if(target == GLES20.GL_TEXTURE_2D) {
+            return mTextures2D;
+        } else if(target == GLES11Ext.GL_TEXTURE_EXTERNAL_OES) {
+            return mTexturesExternal;
+        }
+        return null;
+    }
+
+    public void bindFramebuffer(int framebuffer) {
+        if(framebuffer == mFramebuffer) {
+            count(Call.FRAMEBUFFER, true);
+            return;
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebuffer);
+        mFramebuffer = framebuffer;
+        count(Call.FRAMEBUFFER, false);
+    }
+
+    public void viewport(int x, int y, int width, int height) {
+        if(mViewport[0] == x && mViewport[1] == y && mViewport[2] == width && mViewport[3] == height) {
+            count(Call.VIEWPORT, true);
+            return;
+        }
+        GLES20.glViewport(x, y, width, height);
+        mViewport[0] = x;
+        mViewport[1] = y;
+        mViewport[2] = width;
+        mViewport[3] = height;
+        count(Call.VIEWPORT, false);
+    }
+
+    public void bindArrayBuffer(int buffer) {
+        if(buffer == mArrayBuffer) {
+            count(Call.VERTEX_ARRAY, true);
+            return;
+        }
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffer);
+        mArrayBuffer = buffer;
+        count(Call.VERTEX_ARRAY, false);
+    }
+
+    /**
+     * Points a float vertex attribute array into the bound array buffer and enables it. Because
+     * {@link ShaderProgram} binds the attributes of all programs to the same locations, the
+     * pointers of the shared geometry only need to be specified once per context.
+     * @param index the attribute location, ignored if negative (i.e. the attribute is unused)
+     * @param size the number of components per vertex
+     * @param stride the byte offset between consecutive vertices
+     * @param offset the byte offset of the first component in the buffer
+     */
+    public void vertexAttribPointer(int index, int size, int stride, int offset) {
+        if(index < 0) {
+            return;
+        }
+        boolean tracked = index < MAX_VERTEX_ATTRIBS && mArrayBuffer != UNKNOWN;
+        if(tracked && mAttribBuffers[index] == mArrayBuffer && mAttribSizes[index] == size
+                && mAttribStrides[index] == stride && mAttribOffsets[index] == offset) {
+            count(Call.VERTEX_ARRAY, true);
+        } else {
+            GLES20.glVertexAttribPointer(index, size, GLES20.GL_FLOAT, false, stride, offset);
+            if(tracked) {
+                mAttribBuffers[index] = mArrayBuffer;
+                mAttribSizes[index] = size;
+                mAttribStrides[index] = stride;
+                mAttribOffsets[index] = offset;
+            }
+            count(Call.VERTEX_ARRAY, false);
+        }
+        enableVertexAttribArray(index);
+    }
+
+    /**
+     * Points a float vertex attribute array to client memory and enables it. Client arrays
+     * are re-specified on every call and should only be used for geometry that changes.
+     */
+    public void vertexAttribPointer(int index, int size, int stride, Buffer data) {
+        if(index < 0) {
+            return;
+        }
+        bindArrayBuffer(0);
+        GLES20.glVertexAttribPointer(index, size, GLES20.GL_FLOAT, false, stride, data);
+        if(index < MAX_VERTEX_ATTRIBS) {
+            mAttribBuffers[index] = UNKNOWN;
+        }
+        count(Call.VERTEX_ARRAY, false);
+        enableVertexAttribArray(index);
+    }
+
+    private void enableVertexAttribArray(int index) {
+        if(index < MAX_VERTEX_ATTRIBS && mAttribEnabled[index]) {
+            return;
+        }
+        GLES20.glEnableVertexAttribArray(index);
+        if(index < MAX_VERTEX_ATTRIBS) {
+            mAttribEnabled[index] = true;
+        }
+    }
+
+    /**
+     * Must be called when a program is deleted.
+     */
+    public void onProgramDeleted(int program) {
+        if(program == mProgram) {
+            mProgram = UNKNOWN;
+            mProgramObject = null;
+        }
+    }
+
+    /**
+     * Must be called when a texture is deleted, which unbinds it from all units.
+     */
+    public void onTextureDeleted(int texture) {
+        for(int i = 0; i < MAX_TEXTURE_UNITS; i++) {
+            if(mTextures2D[i] == texture) {
+                mTextures2D[i] = 0;
+            }
+            if(mTexturesExternal[i] == texture) {
+                mTexturesExternal[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * Must be called when a framebuffer is deleted, which reverts the binding to the default
+     * framebuffer if it is bound.
+     */
+    public void onFramebufferDeleted(int framebuffer) {
+        if(framebuffer == mFramebuffer) {
+            mFramebuffer = 0;
+        }
+    }
+
+    /**
+     * Must be called when a buffer is deleted, which unbinds it and detaches it from all vertex
+     * attribute arrays.
+     */
+    public void onBufferDeleted(int buffer) {
+        if(buffer == mArrayBuffer) {
+            mArrayBuffer = 0;
+        }
+        for(int i = 0; i < MAX_VERTEX_ATTRIBS; i++) {
+            if(mAttribBuffers[i] == buffer) {
+                mAttribBuffers[i] = UNKNOWN;
+            }
+        }
+    }
+
+    void count(Call call, boolean skipped) {
+        if(skipped) {
+            mSkippedCalls[call.ordinal()]++;
+        } else {
+            mIssuedCalls[call.ordinal()]++;
+        }
+    }
+
+    /**
+     * Gets the number of calls of a type that have been issued since the counters were reset.
+     */
+    public int getIssuedCount(Call call) {
+        return mIssuedCalls[call.ordinal()];
+    }
+
+    /**
+     * Gets the number of calls of a type that have been skipped since the counters were reset.
+     */
+    public int getSkippedCount(Call call) {
+        return mSkippedCalls[call.ordinal()];
+    }
+
+    public void resetCounters() {
+        Arrays.fill(mIssuedCalls, 0);
+        Arrays.fill(mSkippedCalls, 0);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("GLState{");
+        for(Call call : Call.values()) {
+            if(call.ordinal() > 0) {
+                sb.append(", ");
+            }
+            sb.append(call.name().toLowerCase()).append(' ')
+                    .append(getIssuedCount(call)).append('/').append(getSkippedCount(call));
+        }
+        return sb.append(" issued/skipped}").toString();
+    }
+}
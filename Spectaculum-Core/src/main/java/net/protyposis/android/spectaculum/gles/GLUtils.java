@@ -40,6 +40,7 @@ public class GLUtils {
     private static final String TAG = GLUtils.class.getSimpleName();
 
     public static boolean HAS_GLES30;
+    public static boolean HAS_GLES30_CONTEXT;
     public static boolean HAS_GL_OES_texture_half_float;
     public static boolean HAS_GL_OES_texture_float;
     public static boolean HAS_FLOAT_FRAMEBUFFER_SUPPORT;
@@ -50,6 +51,8 @@ public class GLUtils {
      */
     public static void init() {
         HAS_GLES30 = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+        // A context requested as GLES 2.0 is usually a 3.x context on devices that support it
+        HAS_GLES30_CONTEXT = HAS_GLES30 && GLES20.glGetString(GLES20.GL_VERSION).startsWith("OpenGL ES 3.");
         HAS_GL_OES_texture_half_float = checkExtension("GL_OES_texture_half_float");
         HAS_GL_OES_texture_float = checkExtension("GL_OES_texture_float");
         HAS_GPU_TEGRA = GLES20.glGetString(GLES20.GL_RENDERER).toLowerCase().contains("tegra");
@@ -0,0 +1,400 @@
+/*
+ * Copyright 2016 Mario Guggenberger <mg@protyposis.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.protyposis.android.spectaculum.gles;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLSurface;
+import android.opengl.GLES20;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import net.protyposis.android.spectaculum.effects.Effect;
+import net.protyposis.android.spectaculum.effects.PipelineEffect;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A headless renderer that applies effects without a view. It owns an EGL context with a pbuffer
+ * surface and a render thread on which all GL work is executed, which makes it usable for batch
+ * processing, background exports and tests on software GL implementations.
+ *
+ * Effects are shared with the on-screen {@link GLRenderer} code path, but an effect instance is
+ * bound to the context it has been initialized in and must therefore only be used with a single
+ * renderer. Input and output images have the same orientation, i.e. the first row of the input
+ * is the first row of the output.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+public class OffscreenRenderer {
+
+    private static final String TAG = OffscreenRenderer.class.getSimpleName();
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+
+    private EGLDisplay mDisplay;
+    private EGLContext mContext;
+    private EGLSurface mSurface;
+
+    private FramebufferPool mFramebufferPool;
+    private TexturedRectangle mTexturedRectangle;
+
+    /**
+     * Creates a renderer and its EGL context on a new render thread.
+     */
+    public OffscreenRenderer() {
+        this(null);
+    }
+
+    /**
+     * Creates a renderer with an EGL context that shares its GL objects with the context of
+     * another renderer. This allows e.g. to upload textures on one thread while another one renders.
+     * Objects shared between threads must be synchronized by the caller, e.g. by finishing
+     * the upload with {@link GLES20#glFinish()} before passing the texture on.
+     * @param shared the renderer to share the context with, or null
+     */
+    public OffscreenRenderer(final OffscreenRenderer shared) {
+        if(Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            throw new IllegalStateException("offscreen rendering requires API level 17");
+        }
+
+        mThread = new HandlerThread(TAG);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+
+        run(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                initContext(shared != null ? shared.mContext : EGL14.EGL_NO_CONTEXT);
+                GLUtils.init();
+                mFramebufferPool = new FramebufferPool();
+                mTexturedRectangle = new TexturedRectangle();
+                mTexturedRectangle.reset();
+                return null;
+            }
+        });
+    }
+
+    private void initContext(EGLContext sharedContext) {
+        mDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        int[] version = new int[2];
+        if(!EGL14.eglInitialize(mDisplay, version, 0, version, 1)) {
+            throw new RuntimeException("eglInitialize failed");
+        }
+
+        int[] configAttributes = {
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_ALPHA_SIZE, 8,
+                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                EGL14.EGL_SURFACE_TYPE, EGL14.EGL_PBUFFER_BIT,
+                EGL14.EGL_NONE
+        };
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] numConfigs = new int[1];
+        if(!EGL14.eglChooseConfig(mDisplay, configAttributes, 0, configs, 0, 1, numConfigs, 0)
+                || numConfigs[0] == 0) {
+            throw new RuntimeException("no suitable EGL config");
+        }
+
+        int[] contextAttributes = { EGL14.EGL_CONTEXT_CLIENT_VERSION, 2, EGL14.EGL_NONE };
+        mContext = EGL14.eglCreateContext(mDisplay, configs[0], sharedContext, contextAttributes, 0);
+        if(mContext == null || mContext == EGL14.EGL_NO_CONTEXT) {
+            throw new RuntimeException("eglCreateContext failed");
+        }
+
+        // All rendering goes into framebuffers, the pbuffer is only needed to make the context current
+        int[] surfaceAttributes = { EGL14.EGL_WIDTH, 1, EGL14.EGL_HEIGHT, 1, EGL14.EGL_NONE };
+        mSurface = EGL14.eglCreatePbufferSurface(mDisplay, configs[0], surfaceAttributes, 0);
+        if(mSurface == null || mSurface == EGL14.EGL_NO_SURFACE) {
+            throw new RuntimeException("eglCreatePbufferSurface failed");
+        }
+
+        if(!EGL14.eglMakeCurrent(mDisplay, mSurface, mSurface, mContext)) {
+            throw new RuntimeException("eglMakeCurrent failed");
+        }
+        GLState.get().invalidate();
+        ScreenGeometry.get().reset();
+    }
+
+    /**
+     * Executes a task on the render thread and waits for its result. GL objects like textures
+     * can only be created and used inside such tasks.
+     */
+    public <T> T run(Callable<T> task) {
+        if(Thread.currentThread() == mThread) {
+            try {
+                return task.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        if(mHandler == null) {
+            throw new IllegalStateException("renderer has been released");
+        }
+
+        FutureTask<T> futureTask = new FutureTask<>(task);
+        mHandler.post(futureTask);
+        try {
+            return futureTask.get();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Executes a task on the render thread without waiting for it.
+     */
+    public void post(Runnable task) {
+        if(mHandler == null) {
+            throw new IllegalStateException("renderer has been released");
+        }
+        mHandler.post(task);
+    }
+
+    /**
+     * Applies an effect to a texture. Must be called on the render thread, i.e. from a task
+     * passed to {@link #run(Callable)}. The effect is initialized or resized to the texture size
+     * if necessary.
+     * @return the output framebuffer, which must be returned to {@link #getFramebufferPool()}
+     *         when it is not needed anymore
+     */
+    public Framebuffer process(Effect effect, Texture2D input) {
+        // 8 bit output, because reading back float framebuffers is not supported everywhere
+        Framebuffer output = mFramebufferPool.acquire(input.getWidth(), input.getHeight(), GLES20.GL_RGBA);
+        process(effect, input, output);
+        return output;
+    }
+
+    /**
+     * Applies an effect to a texture and writes the result into a framebuffer of the same size.
+     * Must be called on the render thread.
+     * @see #process(Effect, Texture2D)
+     */
+    public void process(Effect effect, Texture2D input, Framebuffer output) {
+        int width = input.getWidth();
+        int height = input.getHeight();
+
+        if(effect instanceof PipelineEffect) {
+            ((PipelineEffect) effect).setFramebufferPool(mFramebufferPool);
+        }
+        if(!effect.isInitialized() || !(effect instanceof PipelineEffect)) {
+            effect.init(width, height);
+        } else {
+            ((PipelineEffect) effect).resize(width, height);
+        }
+
+        effect.apply(input, output);
+    }
+
+    /**
+     * Applies an effect to a bitmap.
+     * @return a new bitmap of the same size holding the result
+     */
+    public Bitmap process(final Effect effect, final Bitmap input) {
+        return run(new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() throws Exception {
+                Texture2D texture = new Texture2D(input);
+                try {
+                    ByteBuffer buffer = processAndRead(effect, texture);
+                    Bitmap output = Bitmap.createBitmap(input.getWidth(), input.getHeight(), Bitmap.Config.ARGB_8888);
+                    output.copyPixelsFromBuffer(buffer);
+                    return output;
+                } finally {
+                    texture.delete();
+                }
+            }
+        });
+    }
+
+    /**
+     * Applies an effect to an image in RGBA format with 8 bits per channel.
+     * @return a new direct buffer of the same size holding the result in RGBA format
+     */
+    public ByteBuffer process(final Effect effect, final ByteBuffer input, final int width, final int height) {
+        if(input.remaining() < width * height * 4) {
+            throw new IllegalArgumentException("buffer too small for " + width + "x" + height + " RGBA pixels");
+        }
+        return run(new Callable<ByteBuffer>() {
+            @Override
+            public ByteBuffer call() throws Exception {
+                Texture2D texture = new Texture2D(GLES20.GL_RGBA, GLES20.GL_RGBA, width, height,
+                        GLES20.GL_UNSIGNED_BYTE, input);
+                try {
+                    return processAndRead(effect, texture);
+                } finally {
+                    texture.delete();
+                }
+            }
+        });
+    }
+
+    /**
+     * Applies an effect to a bitmap tile by tile. The GPU memory usage is bounded by the tile size
+     * instead of the image size, which allows processing images that are larger than the maximum
+     * texture size. Each tile is extended by a halo of the effect's neighborhood radius, and
+     * only the core of each processed tile is written to the output, so the result is equal to
+     * processing the whole image at once.
+     * @param tileSize the edge length of a tile including its halo, which is limited to the
+     *                 maximum texture size
+     * @return a new bitmap of the same size holding the result
+     * @throws IllegalArgumentException if the effect cannot be tiled or the tile size is not
+     *                                  larger than twice the neighborhood radius
+     * @see PipelineEffect#getNeighborhoodRadius()
+     */
+    public Bitmap process(final Effect effect, final Bitmap input, final int tileSize) {
+        final int radius = effect instanceof PipelineEffect
+                ? ((PipelineEffect) effect).getNeighborhoodRadius() : PipelineEffect.NEIGHBORHOOD_UNBOUNDED;
+        if(radius == PipelineEffect.NEIGHBORHOOD_UNBOUNDED) {
+            throw new IllegalArgumentException(effect.getName() + " cannot be processed in tiles");
+        }
+
+        return run(new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() throws Exception {
+                int[] maxTextureSize = new int[1];
+                GLES20.glGetIntegerv(GLES20.GL_MAX_TEXTURE_SIZE, maxTextureSize, 0);
+                int size = Math.min(tileSize, maxTextureSize[0]);
+                int step = size - 2 * radius; // the size of a tile's core without the halo
+                if(step < 1) {
+                    throw new IllegalArgumentException("tile size " + size
+                            + " too small for neighborhood radius " + radius);
+                }
+
+                int width = input.getWidth();
+                int height = input.getHeight();
+
+                /* All tiles have the same size, which is only smaller if the image is, so the
+                 * effect and the GL objects only need to be set up once. Tiles at the borders
+                 * are shifted inwards, where the image border takes the role of the halo. */
+                int tileWidth = Math.min(size, width);
+                int tileHeight = Math.min(size, height);
+
+                Bitmap output = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                Bitmap tile = Bitmap.createBitmap(tileWidth, tileHeight, Bitmap.Config.ARGB_8888);
+                int[] pixels = new int[tileWidth * tileHeight];
+                ByteBuffer buffer = ByteBuffer.allocateDirect(tileWidth * tileHeight * 4)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                Texture2D texture = new Texture2D(tileWidth, tileHeight);
+                Framebuffer framebuffer = mFramebufferPool.acquire(tileWidth, tileHeight, GLES20.GL_RGBA);
+
+                try {
+                    for (int y = 0; y < height; y += step) {
+                        for (int x = 0; x < width; x += step) {
+                            int coreWidth = Math.min(step, width - x);
+                            int coreHeight = Math.min(step, height - y);
+                            int tileX = Math.max(0, Math.min(x - radius, width - tileWidth));
+                            int tileY = Math.max(0, Math.min(y - radius, height - tileHeight));
+
+                            input.getPixels(pixels, 0, tileWidth, tileX, tileY, tileWidth, tileHeight);
+                            tile.setPixels(pixels, 0, tileWidth, 0, 0, tileWidth, tileHeight);
+                            texture.update(tile);
+
+                            process(effect, texture, framebuffer);
+
+                            framebuffer.bind(Framebuffer.BindMode.LOAD);
+                            buffer.rewind();
+                            GLES20.glReadPixels(0, 0, tileWidth, tileHeight,
+                                    GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, buffer);
+                            GLUtils.checkError("glReadPixels");
+                            buffer.rewind();
+                            tile.copyPixelsFromBuffer(buffer);
+
+                            tile.getPixels(pixels, 0, coreWidth, x - tileX, y - tileY, coreWidth, coreHeight);
+                            output.setPixels(pixels, 0, coreWidth, x, y, coreWidth, coreHeight);
+                        }
+                    }
+                } finally {
+                    texture.delete();
+                    mFramebufferPool.release(framebuffer);
+                    tile.recycle();
+                }
+
+                return output;
+            }
+        });
+    }
+
+    private ByteBuffer processAndRead(Effect effect, Texture2D input) {
+        Framebuffer output = process(effect, input);
+        try {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(output.getWidth() * output.getHeight() * 4)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            output.bind(Framebuffer.BindMode.LOAD);
+            GLES20.glReadPixels(0, 0, output.getWidth(), output.getHeight(),
+                    GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, buffer);
+            GLUtils.checkError("glReadPixels");
+            buffer.rewind();
+            return buffer;
+        } finally {
+            mFramebufferPool.release(output);
+        }
+    }
+
+    /**
+     * Gets the framebuffer pool of the renderer, which is shared by all effects applied with it.
+     */
+    public FramebufferPool getFramebufferPool() {
+        return mFramebufferPool;
+    }
+
+    /**
+     * Destroys the EGL context and stops the render thread. All GL objects of the context,
+     * including the resources of the applied effects, are released.
+     */
+    public void release() {
+        if(mHandler == null) {
+            return;
+        }
+        run(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                mFramebufferPool.reset();
+                ScreenGeometry.get().release();
+                EGL14.eglMakeCurrent(mDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+                EGL14.eglDestroySurface(mDisplay, mSurface);
+                EGL14.eglDestroyContext(mDisplay, mContext);
+                EGL14.eglReleaseThread();
+                EGL14.eglTerminate(mDisplay);
+                return null;
+            }
+        });
+        mThread.quit();
+        mHandler = null;
+        Log.d(TAG, "released");
+    }
+}
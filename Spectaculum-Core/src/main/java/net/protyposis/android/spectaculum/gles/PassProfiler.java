@@ -0,0 +1,402 @@
+/*
+ * Copyright 2016 Mario Guggenberger <mg@protyposis.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.protyposis.android.spectaculum.gles;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures the GPU time of individual render passes, labeled by effect and pass name, and keeps
+ * rolling statistics over the most recent measurements of each pass.
+ *
+ * Passes are timed with GPU timer queries (EXT_disjoint_timer_query), which requires a GLES 3
+ * context. The results are read back asynchronously a few frames later, so the measurement does
+ * not stall the pipeline. Where timer queries are not available, passes can optionally be timed
+ * on the CPU by finishing all GL commands before and after each pass. This is only meant for
+ * debugging, because it serializes CPU and GPU.
+ *
+ * Passes are marked with {@link #beginPass(String)} and {@link #endPass()}, which do nothing
+ * unless a profiler is active on the calling thread. {@link RenderGraph} marks all its passes.
+ * Only one pass can be timed at once, passes that are nested in another pass are part of it.
+ *
+ * Besides the statistics of individual passes, the total time of the effect passes of each frame
+ * can be received with an {@link OnEffectTimeListener}, e.g. to drive a {@link ResolutionGovernor}.
+ */
+public class PassProfiler {
+
+    private static final String TAG = PassProfiler.class.getSimpleName();
+
+    /**
+     * The effect name of the passes of the renderer itself.
+     */
+    public static final String RENDERER = "renderer";
+
+    /**
+     * Callback interface for receiving the statistics, which is called on the GL thread.
+     */
+    public interface OnStatisticsListener {
+        /**
+         * Called periodically with the statistics of all passes that have been measured since
+         * the last call, in the order in which they have first been executed.
+         */
+        void onPassStatistics(List<PassStatistics> statistics);
+    }
+
+    /**
+     * Callback interface for receiving the total time of the effect passes of each frame, i.e. of
+     * all passes except those of the {@link #RENDERER}. It is called on the GL thread, a few frames
+     * after the frame has been rendered. Frames whose measurement is incomplete are skipped.
+     */
+    public interface OnEffectTimeListener {
+        void onEffectTime(long time);
+    }
+
+    // EXT_disjoint_timer_query constants, which are not part of the Java GLES API
+    private static final int GL_TIME_ELAPSED_EXT = 0x88BF;
+    private static final int GL_GPU_DISJOINT_EXT = 0x8FBB;
+
+    /**
+     * The number of measurements that the statistics of a pass are computed from.
+     */
+    private static final int WINDOW_SIZE = 60;
+
+    /**
+     * The number of frames between two reports of the statistics.
+     */
+    private static final int REPORT_INTERVAL = 30;
+
+    /**
+     * The number of timer queries, which limits the number of passes that can be in flight.
+     */
+    private static final int QUERY_COUNT = 128;
+
+    private static final ThreadLocal<PassProfiler> sActive = new ThreadLocal<>();
+
+    /**
+     * Starts timing a pass of the current effect, if a profiler is active on the calling thread.
+     */
+    public static void beginPass(String name) {
+        PassProfiler profiler = sActive.get();
+        if(profiler != null) {
+            profiler.begin(name);
+        }
+    }
+
+    /**
+     * Stops timing the pass that has been started with {@link #beginPass(String)}.
+     */
+    public static void endPass() {
+        PassProfiler profiler = sActive.get();
+        if(profiler != null) {
+            profiler.end();
+        }
+    }
+
+    /**
+     * The rolling statistics of a pass.
+     */
+    private static class Accumulator {
+        String effectName;
+        String passName;
+        long[] samples = new long[WINDOW_SIZE];
+        int sampleCount;
+        int nextSample;
+        boolean updated;
+
+        void add(long time) {
+            samples[nextSample] = time;
+            nextSample = (nextSample + 1) % WINDOW_SIZE;
+            sampleCount = Math.min(sampleCount + 1, WINDOW_SIZE);
+            updated = true;
+        }
+
+        PassStatistics snapshot() {
+            long sum = 0;
+            long min = Long.MAX_VALUE;
+            long max = 0;
+            for(int i = 0; i < sampleCount; i++) {
+                sum += samples[i];
+                min = Math.min(min, samples[i]);
+                max = Math.max(max, samples[i]);
+            }
+            long last = samples[(nextSample + WINDOW_SIZE - 1) % WINDOW_SIZE];
+            return new PassStatistics(effectName, passName, sampleCount, last, sum / sampleCount, min, max);
+        }
+    }
+
+    private boolean mTimerQueries;
+    private boolean mCpuTiming;
+    private OnStatisticsListener mListener;
+    private OnEffectTimeListener mEffectTimeListener;
+
+    private Map<String, Map<String, Accumulator>> mAccumulators = new HashMap<>();
+    private List<Accumulator> mAccumulatorList = new ArrayList<>();
+    private Map<String, Accumulator> mEffectAccumulators;
+    private String mEffectName;
+    private int mFrameCount;
+    private int mFrame;
+
+    private int mDepth;
+    private Accumulator mCurrent;
+    private long mCpuStartTime;
+
+    private int[] mFreeQueries;
+    private int mFreeQueryCount;
+    private int[] mPendingQueries = new int[QUERY_COUNT];
+    private Accumulator[] mPendingAccumulators = new Accumulator[QUERY_COUNT];
+    private int[] mPendingFrames = new int[QUERY_COUNT];
+    private int mPendingStart;
+    private int mPendingCount;
+    private int[] mResult = new int[1];
+
+    // The effect time of the frame whose results are currently collected
+    private int mEffectTimeFrame = -1;
+    private long mEffectTime;
+    private int mEffectTimeCount;
+    private boolean mEffectTimeValid;
+    private int mIncompleteFrame = -1;
+
+    /**
+     * Creates a profiler for the context that is current on the calling thread.
+     * @param cpuTimingFallback times passes on the CPU if timer queries are not supported, which
+     *                          stalls the pipeline and should only be used for debugging
+     */
+    public PassProfiler(boolean cpuTimingFallback) {
+        mTimerQueries = GLUtils.HAS_GLES30_CONTEXT && GLUtils.checkExtension("GL_EXT_disjoint_timer_query");
+        if(mTimerQueries) {
+            mFreeQueries = new int[QUERY_COUNT];
+            GLES30.glGenQueries(QUERY_COUNT, mFreeQueries, 0);
+            GLUtils.checkError("glGenQueries");
+            mFreeQueryCount = QUERY_COUNT;
+            // Reset the disjoint flag
+            GLES20.glGetIntegerv(GL_GPU_DISJOINT_EXT, mResult, 0);
+        } else if(cpuTimingFallback) {
+            Log.w(TAG, "timer queries not supported, timing passes on the CPU");
+            mCpuTiming = true;
+        } else {
+            Log.w(TAG, "timer queries not supported, passes are not timed");
+        }
+    }
+
+    public void setOnStatisticsListener(OnStatisticsListener listener) {
+        mListener = listener;
+    }
+
+    public void setOnEffectTimeListener(OnEffectTimeListener listener) {
+        mEffectTimeListener = listener;
+    }
+
+    /**
+     * Checks if passes are timed, either on the GPU or on the CPU.
+     */
+    public boolean isSupported() {
+        return mTimerQueries || mCpuTiming;
+    }
+
+    /**
+     * Activates the profiler on the calling thread and labels the following passes with an
+     * effect name, until {@link #endEffect()} is called.
+     */
+    public void beginEffect(String effectName) {
+        if(!isSupported()) {
+            return;
+        }
+        mEffectName = effectName;
+        mEffectAccumulators = mAccumulators.get(effectName);
+        if(mEffectAccumulators == null) {
+            mEffectAccumulators = new HashMap<>();
+            mAccumulators.put(effectName, mEffectAccumulators);
+        }
+        sActive.set(this);
+    }
+
+    public void endEffect() {
+        if(mDepth > 0) {
+            // A pass has not been ended, e.g. because an exception has been thrown
+            mDepth = 1;
+            end();
+        }
+        sActive.remove();
+        mEffectName = null;
+        mEffectAccumulators = null;
+    }
+
+    private void begin(String passName) {
+        if(mDepth++ > 0) {
+            return;
+        }
+
+        Accumulator accumulator = mEffectAccumulators.get(passName);
+        if(accumulator == null) {
+            accumulator = new Accumulator();
+            accumulator.effectName = mEffectName;
+            accumulator.passName = passName;
+            mEffectAccumulators.put(passName, accumulator);
+            mAccumulatorList.add(accumulator);
+        }
+        mCurrent = accumulator;
+
+        if(mTimerQueries) {
+            if(mFreeQueryCount == 0) {
+                // Too many results are outstanding, skip this measurement
+                mCurrent = null;
+                mIncompleteFrame = mFrame;
+                return;
+            }
+            int query = mFreeQueries[--mFreeQueryCount];
+            GLES30.glBeginQuery(GL_TIME_ELAPSED_EXT, query);
+            int index = (mPendingStart + mPendingCount++) % QUERY_COUNT;
+            mPendingQueries[index] = query;
+            mPendingAccumulators[index] = accumulator;
+            mPendingFrames[index] = mFrame;
+        } else {
+            GLES20.glFinish();
+            mCpuStartTime = System.nanoTime();
+        }
+    }
+
+    private void end() {
+        if(mDepth == 0 || --mDepth > 0 || mCurrent == null) {
+            return;
+        }
+
+        if(mTimerQueries) {
+            GLES30.glEndQuery(GL_TIME_ELAPSED_EXT);
+        } else {
+            GLES20.glFinish();
+            long time = System.nanoTime() - mCpuStartTime;
+            mCurrent.add(time);
+            addEffectTime(mFrame, mCurrent, time, true);
+        }
+        mCurrent = null;
+    }
+
+    /**
+     * Collects the timer query results that have become available and reports the statistics
+     * to the listener in regular intervals. Must be called once at the end of every frame.
+     */
+    public void endFrame() {
+        if(mTimerQueries) {
+            collectResults();
+        }
+        if(mPendingCount == 0) {
+            // All results of the last frame are in
+            reportEffectTime();
+        }
+        mFrame++;
+
+        if(++mFrameCount >= REPORT_INTERVAL) {
+            mFrameCount = 0;
+            List<PassStatistics> statistics = new ArrayList<>();
+            for(Accumulator accumulator : mAccumulatorList) {
+                if(accumulator.updated) {
+                    statistics.add(accumulator.snapshot());
+                    accumulator.updated = false;
+                }
+            }
+            if(mListener != null && !statistics.isEmpty()) {
+                mListener.onPassStatistics(statistics);
+            }
+        }
+    }
+
+    private void collectResults() {
+        // Results become available in the order the queries have been issued
+        int available = 0;
+        while(available < mPendingCount) {
+            int index = (mPendingStart + available) % QUERY_COUNT;
+            GLES30.glGetQueryObjectuiv(mPendingQueries[index], GLES30.GL_QUERY_RESULT_AVAILABLE, mResult, 0);
+            if(mResult[0] == GLES20.GL_FALSE) {
+                break;
+            }
+            available++;
+        }
+        if(available == 0) {
+            return;
+        }
+
+        /* A disjoint operation, e.g. a GPU frequency change, makes the results of all queries that
+         * have been in flight meaningless. They are dropped. */
+        GLES20.glGetIntegerv(GL_GPU_DISJOINT_EXT, mResult, 0);
+        boolean disjoint = mResult[0] != 0;
+
+        for(int i = 0; i < available; i++) {
+            int index = mPendingStart;
+            long time = 0;
+            if(!disjoint) {
+                GLES30.glGetQueryObjectuiv(mPendingQueries[index], GLES30.GL_QUERY_RESULT, mResult, 0);
+                // The result is an unsigned 32 bit number of nanoseconds
+                time = mResult[0] & 0xFFFFFFFFL;
+                mPendingAccumulators[index].add(time);
+            }
+            addEffectTime(mPendingFrames[index], mPendingAccumulators[index], time, !disjoint);
+            mFreeQueries[mFreeQueryCount++] = mPendingQueries[index];
+            mPendingAccumulators[index] = null;
+            mPendingStart = (mPendingStart + 1) % QUERY_COUNT;
+            mPendingCount--;
+        }
+    }
+
+    /**
+     * Adds a result to the effect time of its frame. Results arrive in the order of the frames,
+     * so the effect time of the previous frame is complete when the first result of a frame arrives.
+     */
+    private void addEffectTime(int frame, Accumulator accumulator, long time, boolean valid) {
+        if(frame != mEffectTimeFrame) {
+            reportEffectTime();
+            mEffectTimeFrame = frame;
+            mEffectTime = 0;
+            mEffectTimeCount = 0;
+            mEffectTimeValid = frame != mIncompleteFrame;
+        }
+        if(!valid) {
+            mEffectTimeValid = false;
+        } else if(!RENDERER.equals(accumulator.effectName)) {
+            mEffectTime += time;
+            mEffectTimeCount++;
+        }
+    }
+
+    private void reportEffectTime() {
+        // Frames without effect passes, e.g. when only the zoom has changed, are not reported
+        if(mEffectTimeFrame != -1 && mEffectTimeValid && mEffectTimeCount > 0 && mEffectTimeListener != null) {
+            mEffectTimeListener.onEffectTime(mEffectTime);
+        }
+        mEffectTimeFrame = -1;
+    }
+
+    /**
+     * Deletes the timer queries. Must be called on the GL thread while the context still exists.
+     */
+    public void release() {
+        if(mTimerQueries) {
+            for(int i = 0; i < mPendingCount; i++) {
+                mFreeQueries[mFreeQueryCount++] = mPendingQueries[(mPendingStart + i) % QUERY_COUNT];
+            }
+            mPendingCount = 0;
+            GLES30.glDeleteQueries(mFreeQueryCount, mFreeQueries, 0);
+            mFreeQueryCount = 0;
+            mTimerQueries = false;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2016 Mario Guggenberger <mg@protyposis.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.protyposis.android.spectaculum.gles;
+
+/**
+ * A snapshot of the render time statistics of a single render pass over the most recent
+ * measurements, as reported by {@link PassProfiler}. All times are in nanoseconds.
+ */
+public class PassStatistics {
+
+    private final String mEffectName;
+    private final String mPassName;
+    private final int mSampleCount;
+    private final long mLastTime;
+    private final long mAverageTime;
+    private final long mMinTime;
+    private final long mMaxTime;
+
+    PassStatistics(String effectName, String passName, int sampleCount,
+                   long lastTime, long averageTime, long minTime, long maxTime) {
+        mEffectName = effectName;
+        mPassName = passName;
+        mSampleCount = sampleCount;
+        mLastTime = lastTime;
+        mAverageTime = averageTime;
+        mMinTime = minTime;
+        mMaxTime = maxTime;
+    }
+
+    /**
+     * Gets the name of the effect that has executed the pass, or {@link PassProfiler#RENDERER}
+     * for the passes of the renderer itself.
+     */
+    public String getEffectName() {
+        return mEffectName;
+    }
+
+    public String getPassName() {
+        return mPassName;
+    }
+
+    /**
+     * Gets the number of measurements that the statistics are computed from.
+     */
+    public int getSampleCount() {
+        return mSampleCount;
+    }
+
+    public long getLastTime() {
+        return mLastTime;
+    }
+
+    public long getAverageTime() {
+        return mAverageTime;
+    }
+
+    public long getMinTime() {
+        return mMinTime;
+    }
+
+    public long getMaxTime() {
+        return mMaxTime;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s/%s: avg %.2f ms, min %.2f ms, max %.2f ms (%d samples)",
+                mEffectName, mPassName, mAverageTime / 1e6, mMinTime / 1e6, mMaxTime / 1e6, mSampleCount);
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright 2016 Mario Guggenberger <mg@protyposis.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.protyposis.android.spectaculum.gles;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A persistent cache of linked program binaries, which saves the compilation and linking of
+ * shader programs from source on repeated startups. Binaries are stored in a directory, keyed by
+ * a hash of the preprocessed shader sources and the GPU renderer and driver version, so a driver
+ * update invalidates them. A binary that the driver rejects is deleted and the program is linked
+ * from source. The least recently used binaries are deleted when the cache exceeds its size limit.
+ *
+ * Program binaries require a GLES 3 context, because the Java GLES API does not expose
+ * OES_get_program_binary. On GLES 2 contexts, the cache is bypassed.
+ */
+public class ProgramBinaryCache {
+
+    private static final String TAG = ProgramBinaryCache.class.getSimpleName();
+
+    /**
+     * Changes of the key or file format, or of the program setup that is not part of the
+     * shader sources (e.g. the attribute locations), must increment the version.
+     */
+    private static final int VERSION = 1;
+
+    private static final String FILE_SUFFIX = ".bin";
+
+    public static final long DEFAULT_MAX_SIZE = 8 * 1024 * 1024;
+
+    private static File sDirectory;
+    private static long sMaxSize = DEFAULT_MAX_SIZE;
+    private static String sDeviceKey;
+    private static Boolean sSupported;
+
+    /**
+     * Sets the directory of the cache, e.g. a subdirectory of the app's cache directory.
+     * @param directory the directory, or null to disable the cache
+     */
+    public static synchronized void setDirectory(File directory) {
+        sDirectory = directory;
+    }
+
+    public static synchronized File getDirectory() {
+        return sDirectory;
+    }
+
+    /**
+     * Sets the maximum total size of the cached binaries in bytes.
+     */
+    public static synchronized void setMaxSize(long maxSize) {
+        sMaxSize = maxSize;
+    }
+
+    /**
+     * Computes the cache key of a program, or returns null if the cache cannot be used in the
+     * current context. Must be called on a GL thread.
+     */
+    static String getKey(String vertexShaderCode, String fragmentShaderCode) {
+        File directory = getDirectory();
+        if(directory == null || !isSupported()) {
+            return null;
+        }
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(getDeviceKey().getBytes("UTF-8"));
+            digest.update((byte) 0);
+            digest.update(vertexShaderCode.getBytes("UTF-8"));
+            digest.update((byte) 0);
+            digest.update(fragmentShaderCode.getBytes("UTF-8"));
+
+            StringBuilder key = new StringBuilder();
+            for(byte b : digest.digest()) {
+                key.append(String.format("%02x", b));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            Log.w(TAG, "cannot compute program key", e);
+            return null;
+        }
+    }
+
+    private static synchronized boolean isSupported() {
+        if(!GLUtils.HAS_GLES30_CONTEXT) {
+            return false;
+        }
+        if(sSupported == null) {
+            // Some drivers support program binaries in principle, but not a single format
+            int[] formats = new int[1];
+            GLES20.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS, formats, 0);
+            sSupported = formats[0] > 0;
+            if(!sSupported) {
+                Log.i(TAG, "program binaries not supported");
+            }
+        }
+        return sSupported;
+    }
+
+    private static synchronized String getDeviceKey() {
+        if(sDeviceKey == null) {
+            sDeviceKey = VERSION + "\n" + GLES20.glGetString(GLES20.GL_RENDERER)
+                    + "\n" + GLES20.glGetString(GLES20.GL_VERSION);
+        }
+        return sDeviceKey;
+    }
+
+    /**
+     * Loads a cached binary into a program.
+     * @return true if the program has been loaded and linked, false if it needs to be linked
+     *         from source
+     */
+    static boolean load(int program, String key) {
+        File file = getFile(key);
+        if(file == null || !file.exists()) {
+            return false;
+        }
+
+        int format;
+        byte[] binary;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            format = in.readInt();
+            int length = in.readInt();
+            if(length <= 0 || length > file.length()) {
+                throw new IOException("invalid length " + length);
+            }
+            binary = new byte[length];
+            in.readFully(binary);
+        } catch (IOException e) {
+            Log.w(TAG, "cannot read program binary " + file.getName(), e);
+            file.delete();
+            return false;
+        } finally {
+            close(in);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(binary.length).order(ByteOrder.nativeOrder());
+        buffer.put(binary).position(0);
+        GLES30.glProgramBinary(program, format, buffer, binary.length);
+
+        int[] linkStatus = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+        if(linkStatus[0] != GLES20.GL_TRUE) {
+            // The driver has rejected the binary, e.g. after an update that kept the version string
+            Log.w(TAG, "program binary " + file.getName() + " rejected");
+            GLUtils.clearError();
+            file.delete();
+            return false;
+        }
+
+        // Mark the binary as recently used
+        file.setLastModified(System.currentTimeMillis());
+        return true;
+    }
+
+    /**
+     * Must be called before a program that is going to be stored is linked.
+     */
+    static void prepare(int program) {
+        GLES30.glProgramParameteri(program, GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GLES20.GL_TRUE);
+    }
+
+    /**
+     * Stores the binary of a linked program.
+     */
+    static void store(int program, String key) {
+        File file = getFile(key);
+        if(file == null) {
+            return;
+        }
+
+        int[] length = new int[1];
+        GLES20.glGetProgramiv(program, GLES30.GL_PROGRAM_BINARY_LENGTH, length, 0);
+        if(length[0] <= 0) {
+            return;
+        }
+        int[] format = new int[1];
+        ByteBuffer buffer = ByteBuffer.allocateDirect(length[0]).order(ByteOrder.nativeOrder());
+        GLES30.glGetProgramBinary(program, length[0], length, 0, format, 0, buffer);
+        GLUtils.checkError("glGetProgramBinary");
+        byte[] binary = new byte[length[0]];
+        buffer.get(binary);
+
+        File directory = file.getParentFile();
+        DataOutputStream out = null;
+        File temp = null;
+        try {
+            if(!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("cannot create " + directory);
+            }
+            // Write to a temporary file first, so a concurrent reader never sees a partial binary
+            temp = File.createTempFile(key, null, directory);
+            out = new DataOutputStream(new FileOutputStream(temp));
+            out.writeInt(format[0]);
+            out.writeInt(binary.length);
+            out.write(binary);
+            out.close();
+            out = null;
+            if(!temp.renameTo(file)) {
+                throw new IOException("cannot rename " + temp);
+            }
+            temp = null;
+        } catch (IOException e) {
+            Log.w(TAG, "cannot write program binary " + file.getName(), e);
+        } finally {
+            close(out);
+            if(temp != null) {
+                temp.delete();
+            }
+        }
+
+        trim(directory);
+    }
+
+    private static File getFile(String key) {
+        File directory = getDirectory();
+        return directory == null ? null : new File(directory, key + FILE_SUFFIX);
+    }
+
+    /**
+     * Deletes the least recently used binaries until the cache fits its size limit.
+     */
+    private static synchronized void trim(File directory) {
+        File[] files = directory.listFiles();
+        if(files == null) {
+            return;
+        }
+
+        long size = 0;
+        for(File file : files) {
+            size += file.length();
+        }
+        if(size <= sMaxSize) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for(int i = 0; i < files.length && size > sMaxSize; i++) {
+            long length = files[i].length();
+            if(files[i].delete()) {
+                size -= length;
+            }
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        if(closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+}
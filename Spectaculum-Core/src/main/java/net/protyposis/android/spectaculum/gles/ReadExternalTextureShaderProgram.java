@@ -16,6 +16,7 @@
 
 package net.protyposis.android.spectaculum.gles;
 
+import android.opengl.GLES11Ext;
 import android.opengl.GLES20;
 
 /**
@@ -28,6 +29,8 @@ public class ReadExternalTextureShaderProgram extends TextureShaderProgram {
     }
 
     public void setTexture(ExternalSurfaceTexture texture) {
-        GLES20.glUniformMatrix4fv(mSTMatrixHandle, 1, false, texture.getTransformMatrix(), 0);
+        GLState.get().activeTexture(GLES20.GL_TEXTURE0);
+        GLState.get().bindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, texture.getHandle());
+        setUniformMatrix4fv(mSTMatrixHandle, texture.getTransformMatrix(), 0);
     }
 }
@@ -0,0 +1,322 @@
+/*
+ * Copyright 2016 Mario Guggenberger <mg@protyposis.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.protyposis.android.spectaculum.gles;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A render graph for multi-pass effects. Instead of managing intermediate framebuffers by hand,
+ * an effect declares a sequence of passes together with the textures that each pass reads and
+ * writes. Before execution, the graph computes the lifetime of every transient texture and maps
+ * all transient textures onto as few physical framebuffers as possible, which are acquired from
+ * a {@link FramebufferPool} for the duration of the execution. Transient textures whose lifetime
+ * ends before the target is written the first time are additionally mapped onto the target.
+ *
+ * Usage:
+ * <pre>
+ * graph.reset();
+ * int tmp = graph.createTexture();
+ * graph.addPass("first", firstPass, tmp, RenderGraph.SOURCE);
+ * graph.addPass("second", secondPass, RenderGraph.TARGET, tmp);
+ * graph.execute(source, target);
+ * </pre>
+ *
+ * Passes are executed in the order they are added. A pass must not read and write the same texture.
+ */
+public class RenderGraph {
+
+    /**
+     * Handle of the source texture that is passed to {@link #execute(Texture2D, Framebuffer)}.
+     * The source is read-only.
+     */
+    public static final int SOURCE = 0;
+
+    /**
+     * Handle of the target framebuffer that is passed to {@link #execute(Texture2D, Framebuffer)}.
+     */
+    public static final int TARGET = 1;
+
+    private static final int FIRST_RESOURCE = 2;
+    private static final int SLOT_NONE = -1;
+    private static final int SLOT_TARGET = -2;
+
+    /**
+     * A render pass, i.e. a function that renders its input textures into the output framebuffer.
+     * The pass must bind the output framebuffer itself.
+     */
+    public interface Pass {
+        void execute(Texture2D[] inputs, Framebuffer output);
+    }
+
+    private static class Node {
+        String name;
+        Pass pass;
+        int output;
+        int[] inputs;
+        Texture2D[] inputTextures;
+    }
+
+    private FramebufferPool mFramebufferPool;
+    private int mWidth;
+    private int mHeight;
+
+    private List<Node> mNodes;
+    private int mNodeCount;
+
+    /**
+     * Resources with a handle >= FIRST_RESOURCE. Null entries are transient textures that are
+     * allocated by the graph, non-null entries are imported textures.
+     */
+    private List<Texture2D> mResources;
+
+    // Analysis data, indexed by resource handle
+    private int[] mFirstWrite = new int[0];
+    private int[] mLastUse = new int[0];
+    private int[] mSlot = new int[0];
+    private int[] mFreeSlots = new int[0];
+
+    private List<Framebuffer> mFramebuffers;
+    private int mFramebufferCount;
+
+    public RenderGraph(FramebufferPool framebufferPool, int width, int height) {
+        mFramebufferPool = framebufferPool;
+        mWidth = width;
+        mHeight = height;
+        mNodes = new ArrayList<>();
+        mResources = new ArrayList<>();
+        mFramebuffers = new ArrayList<>();
+    }
+
+    /**
+     * Sets the resolution of the transient textures.
+     */
+    public void setSize(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+    }
+
+    /**
+     * Removes all passes and resources to start the declaration of a new graph.
+     */
+    public void reset() {
+        for(int i = 0; i < mNodeCount; i++) {
+            Node node = mNodes.get(i);
+            node.pass = null;
+            Arrays.fill(node.inputTextures, null);
+        }
+        mNodeCount = 0;
+        mResources.clear();
+    }
+
+    /**
+     * Creates a transient texture in the resolution of the graph. Transient textures only
+     * exist during the execution of the graph.
+     * @return the handle of the texture
+     */
+    public int createTexture() {
+        mResources.add(null);
+        return FIRST_RESOURCE + mResources.size() - 1;
+    }
+
+    /**
+     * Imports an external texture into the graph so it can be used as an input of passes.
+     * @return the handle of the texture
+     */
+    public int importTexture(Texture2D texture) {
+        mResources.add(texture);
+        return FIRST_RESOURCE + mResources.size() - 1;
+    }
+
+    /**
+     * Adds a pass to the graph.
+     * @param name the name of the pass, used for debugging and profiling
+     * @param pass the pass function
+     * @param output the handle of the texture that the pass writes
+     * @param inputs the handles of the textures that the pass reads
+     */
+    public void addPass(String name, Pass pass, int output, int... inputs) {
+        if(output == SOURCE || isImported(output)) {
+            throw new IllegalArgumentException("pass " + name + " writes a read-only texture");
+        }
+        for(int input : inputs) {
+            if(input == output) {
+                throw new IllegalArgumentException("pass " + name + " reads and writes the same texture");
+            }
+        }
+
+        Node node;
+        if(mNodeCount < mNodes.size()) {
+            node = mNodes.get(mNodeCount);
+        } else {
+            node = new Node();
+            mNodes.add(node);
+        }
+        mNodeCount++;
+
+        node.name = name;
+        node.pass = pass;
+        node.output = output;
+        node.inputs = inputs;
+        if(node.inputTextures == null || node.inputTextures.length != inputs.length) {
+            node.inputTextures = new Texture2D[inputs.length];
+        }
+    }
+
+    /**
+     * Executes all passes of the graph.
+     * @param source the texture that is referenced by {@link #SOURCE}
+     * @param target the framebuffer that is referenced by {@link #TARGET}
+     */
+    public void execute(Texture2D source, Framebuffer target) {
+        allocate(canAliasTarget(target));
+
+        try {
+            for(int i = 0; i < mFramebufferCount; i++) {
+                mFramebuffers.add(mFramebufferPool.acquire(mWidth, mHeight));
+            }
+
+            for(int i = 0; i < mNodeCount; i++) {
+                Node node = mNodes.get(i);
+                for(int j = 0; j < node.inputs.length; j++) {
+                    node.inputTextures[j] = getTexture(node.inputs[j], source, target);
+                }
+                PassProfiler.beginPass(node.name);
+                node.pass.execute(node.inputTextures, getFramebuffer(node.output, target));
+                PassProfiler.endPass();
+            }
+        } finally {
+            // Also when a pass fails, else the framebuffers stay pinned and the next execution reads stale slots
+            for(int i = 0; i < mFramebuffers.size(); i++) {
+                mFramebufferPool.release(mFramebuffers.get(i));
+            }
+            mFramebuffers.clear();
+        }
+    }
+
+    /**
+     * Computes the lifetimes of all transient textures and assigns them to physical framebuffer slots.
+     */
+    private void allocate(boolean aliasTarget) {
+        int resourceCount = FIRST_RESOURCE + mResources.size();
+        if(mFirstWrite.length < resourceCount) {
+            mFirstWrite = new int[resourceCount];
+            mLastUse = new int[resourceCount];
+            mSlot = new int[resourceCount];
+            mFreeSlots = new int[resourceCount];
+        }
+        Arrays.fill(mFirstWrite, 0, resourceCount, -1);
+        Arrays.fill(mLastUse, 0, resourceCount, -1);
+        Arrays.fill(mSlot, 0, resourceCount, SLOT_NONE);
+
+        // Lifetime analysis
+        for(int i = 0; i < mNodeCount; i++) {
+            Node node = mNodes.get(i);
+            for(int input : node.inputs) {
+                if(input != SOURCE && !isImported(input) && mFirstWrite[input] == -1) {
+                    throw new IllegalStateException("pass " + node.name + " reads a texture before it has been written");
+                }
+                mLastUse[input] = i;
+            }
+            if(mFirstWrite[node.output] == -1) {
+                mFirstWrite[node.output] = i;
+            }
+            mLastUse[node.output] = i;
+        }
+
+        /* The target can host transient textures whose lifetime ends before the target
+         * is written for the first time. */
+        int targetFree = mFirstWrite[TARGET] == -1 ? mNodeCount : mFirstWrite[TARGET];
+        boolean targetAvailable = aliasTarget;
+
+        // Greedy slot assignment in pass order
+        int freeSlotCount = 0;
+        mFramebufferCount = 0;
+        for(int i = 0; i < mNodeCount; i++) {
+            int output = mNodes.get(i).output;
+            if(output >= FIRST_RESOURCE && mSlot[output] == SLOT_NONE) {
+                if(targetAvailable && mLastUse[output] < targetFree) {
+                    mSlot[output] = SLOT_TARGET;
+                    targetAvailable = false;
+                } else if(freeSlotCount > 0) {
+                    mSlot[output] = mFreeSlots[--freeSlotCount];
+                } else {
+                    mSlot[output] = mFramebufferCount++;
+                }
+            }
+
+            // Return slots of textures that are not used anymore after this pass
+            for(int r = FIRST_RESOURCE; r < resourceCount; r++) {
+                if(mLastUse[r] == i && mSlot[r] != SLOT_NONE) {
+                    if(mSlot[r] == SLOT_TARGET) {
+                        targetAvailable = true;
+                    } else {
+                        mFreeSlots[freeSlotCount++] = mSlot[r];
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean canAliasTarget(Framebuffer target) {
+        return target.getWidth() == mWidth && target.getHeight() == mHeight
+                && target.getTexture().getInternalFormat() == Texture2D.getFloatTextureInternalFormat();
+    }
+
+    private boolean isImported(int handle) {
+        return handle >= FIRST_RESOURCE && mResources.get(handle - FIRST_RESOURCE) != null;
+    }
+
+    private Texture2D getTexture(int handle, Texture2D source, Framebuffer target) {
+        if(handle == SOURCE) {
+            return source;
+        } else if(isImported(handle)) {
+            return mResources.get(handle - FIRST_RESOURCE);
+        }
+        return getFramebuffer(handle, target).getTexture();
+    }
+
+    private Framebuffer getFramebuffer(int handle, Framebuffer target) {
+        if(handle == TARGET || mSlot[handle] == SLOT_TARGET) {
+            return target;
+        }
+        return mFramebuffers.get(mSlot[handle]);
+    }
+
+    /**
+     * Returns the number of passes of the declared graph.
+     */
+    public int getPassCount() {
+        return mNodeCount;
+    }
+
+    /**
+     * Returns the name of a pass of the declared graph.
+     */
+    public String getPassName(int index) {
+        return mNodes.get(index).name;
+    }
+
+    /**
+     * Returns the number of physical framebuffers that the last execution required in addition
+     * to the target framebuffer.
+     */
+    public int getFramebufferCount() {
+        return mFramebufferCount;
+    }
+}
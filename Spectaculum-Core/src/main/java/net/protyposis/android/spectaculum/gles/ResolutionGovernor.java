@@ -0,0 +1,168 @@
+/*
+ * Copyright 2016 Mario Guggenberger <mg@protyposis.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.protyposis.android.spectaculum.gles;
+
+import android.util.Log;
+
+/**
+ * A closed-loop controller that adjusts the processing resolution scale to hold a target frame rate.
+ * It is fed with measured frame render times and steps through a fixed list of scale levels.
+ *
+ * To avoid oscillation, the governor applies hysteresis: it steps down quickly when frames take
+ * longer than the target, but only steps up after a longer period in which the predicted render
+ * time at the next higher level (render time scales with the number of pixels) stays clearly
+ * below the target. After every step, measurements are ignored for a cooldown period until the
+ * pipeline has settled to the new resolution.
+ */
+public class ResolutionGovernor {
+
+    private static final String TAG = ResolutionGovernor.class.getSimpleName();
+
+    /**
+     * The default scale levels, from full to a quarter of the pixels.
+     */
+    public static final float[] DEFAULT_SCALES = { 1.0f, 0.85f, 0.7f, 0.6f, 0.5f };
+
+    /**
+     * Smoothing factor of the exponential moving average of the frame time.
+     */
+    private static final float AVERAGE_ALPHA = 0.2f;
+
+    /**
+     * Fraction of the target frame time that the predicted frame time of the next higher level
+     * must stay below before stepping up.
+     */
+    private static final float STEP_UP_HEADROOM = 0.8f;
+
+    private static final int STEP_DOWN_SAMPLES = 5;
+    private static final int STEP_UP_SAMPLES = 60;
+    private static final int COOLDOWN_SAMPLES = 10;
+
+    private float[] mScales;
+    private long mTargetFrameTimeNs;
+    private int mLevel;
+    private float mAverageFrameTimeNs;
+    private int mOverCount;
+    private int mUnderCount;
+    private int mCooldown;
+
+    /**
+     * Creates a governor with custom scale levels.
+     * @param targetFrameRate the frame rate to hold
+     * @param scales the scale levels in descending order
+     */
+    public ResolutionGovernor(float targetFrameRate, float[] scales) {
+        if(targetFrameRate <= 0) {
+            throw new IllegalArgumentException("invalid target frame rate " + targetFrameRate);
+        }
+        if(scales.length == 0) {
+            throw new IllegalArgumentException("no scale levels");
+        }
+        mTargetFrameTimeNs = (long) (1000000000L / targetFrameRate);
+        mScales = scales;
+        reset();
+    }
+
+    public ResolutionGovernor(float targetFrameRate) {
+        this(targetFrameRate, DEFAULT_SCALES);
+    }
+
+    /**
+     * Resets the governor to the highest scale level.
+     */
+    public void reset() {
+        mLevel = 0;
+        mAverageFrameTimeNs = 0;
+        mOverCount = 0;
+        mUnderCount = 0;
+        mCooldown = COOLDOWN_SAMPLES;
+    }
+
+    /**
+     * Adds a measured frame render time and updates the scale level.
+     * @param frameTimeNs the render time of a frame in nanoseconds
+     * @return true if the scale level has changed, else false
+     */
+    public boolean addFrameTime(long frameTimeNs) {
+        if(mCooldown > 0) {
+            mCooldown--;
+            return false;
+        }
+
+        if(mAverageFrameTimeNs == 0) {
+            mAverageFrameTimeNs = frameTimeNs;
+        } else {
+            mAverageFrameTimeNs += AVERAGE_ALPHA * (frameTimeNs - mAverageFrameTimeNs);
+        }
+
+        if(mAverageFrameTimeNs > mTargetFrameTimeNs) {
+            mUnderCount = 0;
+            if(++mOverCount >= STEP_DOWN_SAMPLES && mLevel < mScales.length - 1) {
+                return setLevel(mLevel + 1);
+            }
+        } else if(mLevel > 0
+                && predictFrameTime(mLevel - 1) < mTargetFrameTimeNs * STEP_UP_HEADROOM) {
+            mOverCount = 0;
+            if(++mUnderCount >= STEP_UP_SAMPLES) {
+                return setLevel(mLevel - 1);
+            }
+        } else {
+            mOverCount = 0;
+            mUnderCount = 0;
+        }
+
+        return false;
+    }
+
+    /**
+     * Predicts the frame time at another level from the current average, assuming that the
+     * render time is proportional to the number of processed pixels.
+     */
+    private float predictFrameTime(int level) {
+        float ratio = mScales[level] / mScales[mLevel];
+        return mAverageFrameTimeNs * ratio * ratio;
+    }
+
+    private boolean setLevel(int level) {
+        Log.d(TAG, String.format("average frame time %.2fms, scale %.2f -> %.2f",
+                mAverageFrameTimeNs / 1000000f, mScales[mLevel], mScales[level]));
+        mAverageFrameTimeNs = predictFrameTime(level);
+        mLevel = level;
+        mOverCount = 0;
+        mUnderCount = 0;
+        mCooldown = COOLDOWN_SAMPLES;
+        return true;
+    }
+
+    /**
+     * Gets the current scale of the processing resolution.
+     */
+    public float getScale() {
+        return mScales[mLevel];
+    }
+
+    /**
+     * Gets the smoothed frame render time in nanoseconds.
+     */
+    public long getAverageFrameTime() {
+        return (long) mAverageFrameTimeNs;
+    }
+
+    public long getTargetFrameTime() {
+        return mTargetFrameTimeNs;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2016 Mario Guggenberger <mg@protyposis.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.protyposis.android.spectaculum.gles;
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * The static vertex buffer with the geometry of {@link TexturedRectangle}, owned by the context
+ * that is current on the calling thread and shared by all rectangles drawn in it. The buffer is
+ * created on first use and stays on the GPU, so draws do not upload any vertex data.
+ *
+ * The buffer contains a unit quad for transformed draws, followed by a single triangle that
+ * covers the whole viewport for untransformed draws. The triangle avoids the diagonal seam of
+ * the quad, along which the GPU shades partially covered pixel blocks twice.
+ */
+public class ScreenGeometry {
+
+    /**
+     * First vertex and vertex count of the quad, drawn as a triangle strip.
+     */
+    static final int QUAD_FIRST = 0;
+    static final int QUAD_COUNT = 4;
+
+    /**
+     * First vertex and vertex count of the full-screen triangle.
+     */
+    static final int TRIANGLE_FIRST = 4;
+    static final int TRIANGLE_COUNT = 3;
+
+    // model data in the layout of TexturedRectangle
+    private static final float[] sVerticesData = {
+            // X, Y, Z,
+            // U, V
+
+            // quad
+            -1.0f, -1.0f, 0.0f,
+            0.0f, 0.0f,
+
+            1.0f, -1.0f, 0.0f,
+            1.0f, 0.0f,
+
+            -1.0f, 1.0f, 0.0f,
+            0.0f, 1.0f,
+
+            1.0f, 1.0f, 0.0f,
+            1.0f, 1.0f,
+
+            // full-screen triangle, the parts outside the viewport are clipped
+            -1.0f, -1.0f, 0.0f,
+            0.0f, 0.0f,
+
+            3.0f, -1.0f, 0.0f,
+            2.0f, 0.0f,
+
+            -1.0f, 3.0f, 0.0f,
+            0.0f, 2.0f
+    };
+
+    private static final ThreadLocal<ScreenGeometry> sGeometry = new ThreadLocal<ScreenGeometry>() {
+        @Override
+        protected ScreenGeometry initialValue() {
+            return new ScreenGeometry();
+        }
+    };
+
+    /**
+     * Gets the geometry of the context that is current on the calling thread.
+     */
+    public static ScreenGeometry get() {
+        return sGeometry.get();
+    }
+
+    private int mBuffer;
+
+    private ScreenGeometry() {
+    }
+
+    /**
+     * Binds the vertex buffer to the array buffer target, creating it if necessary.
+     */
+    public void bind() {
+        if(mBuffer == 0) {
+            FloatBuffer vertices = ByteBuffer.allocateDirect(sVerticesData.length * Shape.sBytesPerFloat)
+                    .order(ByteOrder.nativeOrder())
+                    .asFloatBuffer();
+            vertices.put(sVerticesData).position(0);
+
+            int[] buffer = new int[1];
+            GLES20.glGenBuffers(1, buffer, 0);
+            mBuffer = buffer[0];
+            GLState.get().bindArrayBuffer(mBuffer);
+            GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, sVerticesData.length * Shape.sBytesPerFloat,
+                    vertices, GLES20.GL_STATIC_DRAW);
+            GLUtils.checkError("ScreenGeometry.bind");
+            return;
+        }
+        GLState.get().bindArrayBuffer(mBuffer);
+    }
+
+    /**
+     * Forgets the vertex buffer without deleting it. Must be called when a new context has been
+     * created on the calling thread, because the buffer of the previous context is gone.
+     */
+    public void reset() {
+        mBuffer = 0;
+    }
+
+    /**
+     * Deletes the vertex buffer. Must be called before the context is destroyed.
+     */
+    public void release() {
+        if(mBuffer != 0) {
+            GLES20.glDeleteBuffers(1, new int[] { mBuffer }, 0);
+            GLState.get().onBufferDeleted(mBuffer);
+            mBuffer = 0;
+        }
+    }
+}
@@ -18,6 +18,8 @@ package net.protyposis.android.spectaculum.gles;
 
 import android.opengl.GLES20;
 import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
 
 import java.security.InvalidParameterException;
 
@@ -30,10 +32,28 @@ public class ShaderProgram {
 
     private static final String TAG = ShaderProgram.class.getSimpleName();
 
+    /**
+     * The vertex attribute locations that are bound in all programs
+     */
+    public static final int ATTRIBUTE_POSITION = 0;
+    public static final int ATTRIBUTE_TEXTURE_COORD = 1;
+    public static final int ATTRIBUTE_COLOR = 2;
+
     private int mVShaderHandle;
     private int mFShaderHandle;
     protected int mProgramHandle;
 
+    private String mVertexShaderCode;
+    private String mFragmentShaderCode;
+
+    /**
+     * The uniform values that have been uploaded to the program, by location
+     */
+    private SparseArray<float[]> mUniformFloatValues = new SparseArray<>();
+    private SparseIntArray mUniformIntValues = new SparseIntArray();
+    private float[] mUniformValues = new float[4];
+    private int mUniformVersion;
+
     public ShaderProgram(String vertexShaderName, String fragmentShaderName) {
         String vertexShaderCode = LibraryHelper.loadTextFromAsset("shaders/" + vertexShaderName);
         String fragmentShaderCode = LibraryHelper.loadTextFromAsset("shaders/" + fragmentShaderName);
@@ -41,14 +61,44 @@ public class ShaderProgram {
         vertexShaderCode = preprocessVertexShaderCode(vertexShaderCode);
         fragmentShaderCode = preprocessFragmentShaderCode(fragmentShaderCode);
 
+        link(vertexShaderCode, fragmentShaderCode);
+    }
+
+    /**
+     * Creates a variant of a program with the same vertex shader and a modified fragment shader.
+     * @param program the program to derive the variant from
+     * @param fragmentShaderCode the preprocessed code of the variant's fragment shader
+     */
+    protected ShaderProgram(ShaderProgram program, String fragmentShaderCode) {
+        link(program.mVertexShaderCode, fragmentShaderCode);
+    }
+
+    private void link(String vertexShaderCode, String fragmentShaderCode) {
+        mVertexShaderCode = vertexShaderCode;
+        mFragmentShaderCode = fragmentShaderCode;
+
+        mProgramHandle = GLES20.glCreateProgram();
+
+        // Load the linked binary from a previous run to skip the compilation
+        String cacheKey = ProgramBinaryCache.getKey(vertexShaderCode, fragmentShaderCode);
+        if(cacheKey != null && ProgramBinaryCache.load(mProgramHandle, cacheKey)) {
+            return;
+        }
+
         mVShaderHandle = loadShader(GLES20.GL_VERTEX_SHADER, vertexShaderCode);
         mFShaderHandle = loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentShaderCode);
 
-        mProgramHandle = GLES20.glCreateProgram();
         GLES20.glAttachShader(mProgramHandle, mVShaderHandle);
         GLUtils.checkError("glAttachShader V");
         GLES20.glAttachShader(mProgramHandle, mFShaderHandle);
         GLUtils.checkError("glAttachShader F");
+        // same locations in all programs, so vertex attribute arrays can stay set up between them
+        GLES20.glBindAttribLocation(mProgramHandle, ATTRIBUTE_POSITION, "a_Position");
+        GLES20.glBindAttribLocation(mProgramHandle, ATTRIBUTE_TEXTURE_COORD, "a_TextureCoord");
+        GLES20.glBindAttribLocation(mProgramHandle, ATTRIBUTE_COLOR, "a_Color");
+        if(cacheKey != null) {
+            ProgramBinaryCache.prepare(mProgramHandle);
+        }
         GLES20.glLinkProgram(mProgramHandle);
 
         int[] linkStatus = new int[1];
@@ -56,6 +106,8 @@ public class ShaderProgram {
         if (linkStatus[0] != GLES20.GL_TRUE) {
             Log.e(TAG, "Error linking program: " + GLES20.glGetProgramInfoLog(mProgramHandle));
             GLES20.glDeleteProgram(mProgramHandle);
+        } else if(cacheKey != null) {
+            ProgramBinaryCache.store(mProgramHandle, cacheKey);
         }
 
         // delete the shaders after compiling the program to free some space (if they will not be reused later)
@@ -66,6 +118,7 @@ public class ShaderProgram {
 
     public void deleteProgram() {
         GLES20.glDeleteProgram(mProgramHandle);
+        GLState.get().onProgramDeleted(mProgramHandle);
         GLUtils.checkError("glDeleteProgram");
     }
 
@@ -73,6 +126,13 @@ public class ShaderProgram {
         return mProgramHandle;
     }
 
+    /**
+     * Gets the preprocessed code of the fragment shader that the program has been linked with.
+     */
+    public String getFragmentShaderCode() {
+        return mFragmentShaderCode;
+    }
+
     public static int loadShader(int type, String shaderCode) {
         if(type != GLES20.GL_VERTEX_SHADER && type != GLES20.GL_FRAGMENT_SHADER) {
             throw new InvalidParameterException("invalid shader type");
@@ -103,7 +163,165 @@ public class ShaderProgram {
     }
 
     public void use() {
-        GLES20.glUseProgram(mProgramHandle);
+        GLState.get().useProgram(this);
+    }
+
+    /*
+     * The uniform setters skip the upload if the uniform already has the value. GL uploads
+     * uniforms to the program in use, so values are only cached while this program is in use.
+     * Otherwise, the value is uploaded to the program in use as before, whose cached value
+     * is dropped.
+     */
+
+    protected void setUniform1i(int location, int value) {
+        if(location == -1) {
+            return;
+        }
+        GLState state = GLState.get();
+        if(state.getProgram() == this) {
+            int index = mUniformIntValues.indexOfKey(location);
+            if(index >= 0 && mUniformIntValues.valueAt(index) == value) {
+                state.count(GLState.Call.UNIFORM, true);
+                return;
+            }
+            mUniformIntValues.put(location, value);
+            mUniformVersion++;
+        } else if(state.getProgram() != null) {
+            state.getProgram().dropUniform(location);
+        }
+        GLES20.glUniform1i(location, value);
+        state.count(GLState.Call.UNIFORM, false);
+    }
+
+    protected void setUniform1f(int location, float x) {
+        mUniformValues[0] = x;
+        if(updateUniform(location, mUniformValues, 0, 1)) {
+            GLES20.glUniform1f(location, x);
+        }
+    }
+
+    protected void setUniform2f(int location, float x, float y) {
+        mUniformValues[0] = x;
+        mUniformValues[1] = y;
+        if(updateUniform(location, mUniformValues, 0, 2)) {
+            GLES20.glUniform2f(location, x, y);
+        }
+    }
+
+    protected void setUniform3f(int location, float x, float y, float z) {
+        mUniformValues[0] = x;
+        mUniformValues[1] = y;
+        mUniformValues[2] = z;
+        if(updateUniform(location, mUniformValues, 0, 3)) {
+            GLES20.glUniform3f(location, x, y, z);
+        }
+    }
+
+    protected void setUniform4f(int location, float x, float y, float z, float w) {
+        mUniformValues[0] = x;
+        mUniformValues[1] = y;
+        mUniformValues[2] = z;
+        mUniformValues[3] = w;
+        if(updateUniform(location, mUniformValues, 0, 4)) {
+            GLES20.glUniform4f(location, x, y, z, w);
+        }
+    }
+
+    protected void setUniform1fv(int location, int count, float[] values, int offset) {
+        if(updateUniform(location, values, offset, count)) {
+            GLES20.glUniform1fv(location, count, values, offset);
+        }
+    }
+
+    protected void setUniform2fv(int location, int count, float[] values, int offset) {
+        if(updateUniform(location, values, offset, count * 2)) {
+            GLES20.glUniform2fv(location, count, values, offset);
+        }
+    }
+
+    protected void setUniform3fv(int location, int count, float[] values, int offset) {
+        if(updateUniform(location, values, offset, count * 3)) {
+            GLES20.glUniform3fv(location, count, values, offset);
+        }
+    }
+
+    protected void setUniform4fv(int location, int count, float[] values, int offset) {
+        if(updateUniform(location, values, offset, count * 4)) {
+            GLES20.glUniform4fv(location, count, values, offset);
+        }
+    }
+
+    protected void setUniformMatrix4fv(int location, float[] matrix, int offset) {
+        if(updateUniform(location, matrix, offset, 16)) {
+            GLES20.glUniformMatrix4fv(location, 1, false, matrix, offset);
+        }
+    }
+
+    /**
+     * Checks if uniform values need to be uploaded and caches them.
+     * @return true if the values have changed and need to be uploaded
+     */
+    private boolean updateUniform(int location, float[] values, int offset, int length) {
+        if(location == -1) {
+            return false;
+        }
+        GLState state = GLState.get();
+        if(state.getProgram() != this) {
+            if(state.getProgram() != null) {
+                state.getProgram().dropUniform(location);
+            }
+            state.count(GLState.Call.UNIFORM, false);
+            return true;
+        }
+
+        float[] cached = mUniformFloatValues.get(location);
+        if(cached != null && cached.length == length) {
+            boolean equal = true;
+            for(int i = 0; i < length && equal; i++) {
+                equal = cached[i] == values[offset + i];
+            }
+            if(equal) {
+                state.count(GLState.Call.UNIFORM, true);
+                return false;
+            }
+        } else {
+            cached = new float[length];
+            mUniformFloatValues.put(location, cached);
+        }
+        System.arraycopy(values, offset, cached, 0, length);
+        mUniformVersion++;
+        state.count(GLState.Call.UNIFORM, false);
+        return true;
+    }
+
+    private void dropUniform(int location) {
+        mUniformFloatValues.remove(location);
+        mUniformIntValues.delete(location);
+        mUniformVersion++;
+    }
+
+    /**
+     * Gets a counter that changes whenever a uniform value of the program changes, which allows
+     * derived programs to skip copying the values when they have not changed.
+     */
+    int getUniformVersion() {
+        return mUniformVersion;
+    }
+
+    /**
+     * Gets the cached float values of a uniform.
+     * @return the values, or null if the uniform has not been set with a float setter
+     */
+    float[] getUniformFloatValues(int location) {
+        return mUniformFloatValues.get(location);
+    }
+
+    boolean hasUniformIntValue(int location) {
+        return mUniformIntValues.indexOfKey(location) >= 0;
+    }
+
+    int getUniformIntValue(int location) {
+        return mUniformIntValues.get(location);
     }
 
     protected String preprocessVertexShaderCode(String vertexShaderCode) {
@@ -48,6 +48,10 @@ public abstract class Shape {
         Matrix.translateM(mModelMatrix, 0, x, y, z);
     }
 
+    public void scale(float x, float y, float z) {
+        Matrix.scaleM(mModelMatrix, 0, x, y, z);
+    }
+
     public void calculateMVP(float[] viewMatrix, float[] projectionMatrix) {
         Matrix.multiplyMM(mMVPMatrix, 0, viewMatrix, 0, mModelMatrix, 0);
         Matrix.multiplyMM(mMVPMatrix, 0, projectionMatrix, 0, mMVPMatrix, 0);
@@ -33,18 +33,22 @@ public class Texture2D extends Texture {
 
     private int mWidth;
     private int mHeight;
+    private int mInternalFormat;
+    private int mType;
 
     public Texture2D(int internalformat, int format, int width, int height, int type, Buffer pixels) {
         super();
 
         mWidth = width;
         mHeight = height;
+        mInternalFormat = internalformat;
+        mType = type;
 
         setupTexture();
 
         GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, internalformat, mWidth, mHeight, 0, format, type, pixels);
 
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0); // unbind texture
+        GLState.get().bindTexture(GLES20.GL_TEXTURE_2D, 0); // unbind texture
     }
 
     public Texture2D(int width, int height) {
@@ -56,6 +60,8 @@ public class Texture2D extends Texture {
 
         mWidth = bitmap.getWidth();
         mHeight = bitmap.getHeight();
+        mInternalFormat = GLES20.GL_RGBA;
+        mType = GLES20.GL_UNSIGNED_BYTE;
 
         setupTexture();
 
@@ -63,7 +69,21 @@ public class Texture2D extends Texture {
         // This method automatically puts the texture into the next larger power of 2 size
         android.opengl.GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
 
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0); // unbind texture
+        GLState.get().bindTexture(GLES20.GL_TEXTURE_2D, 0); // unbind texture
+    }
+
+    /**
+     * Replaces the content of the texture with a bitmap of the same size, which avoids the
+     * reallocation of the texture storage.
+     */
+    public void update(Bitmap bitmap) {
+        if(bitmap.getWidth() != mWidth || bitmap.getHeight() != mHeight) {
+            throw new IllegalArgumentException("bitmap size " + bitmap.getWidth() + "x" + bitmap.getHeight()
+                    + " does not match texture size " + mWidth + "x" + mHeight);
+        }
+        GLState.get().bindTexture(GLES20.GL_TEXTURE_2D, mTexture);
+        android.opengl.GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, bitmap);
+        GLState.get().bindTexture(GLES20.GL_TEXTURE_2D, 0);
     }
 
     private void setupTexture() {
@@ -71,7 +91,7 @@ public class Texture2D extends Texture {
         GLES20.glGenTextures(1, textures, 0);
 
         mTexture = textures[0];
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTexture);
+        GLState.get().bindTexture(GLES20.GL_TEXTURE_2D, mTexture);
         GLUtils.checkError("glBindTexture");
 
         GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
@@ -86,7 +106,7 @@ public class Texture2D extends Texture {
      * Sets the filter mode of the texture. Specify -1 to keep the current setting.
      */
     public void setFilterMode(int minFilter, int maxFilter) {
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTexture);
+        GLState.get().bindTexture(GLES20.GL_TEXTURE_2D, mTexture);
 
         if(minFilter > -1) {
             GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, minFilter);
@@ -96,7 +116,7 @@ public class Texture2D extends Texture {
             GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, maxFilter);
         }
 
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        GLState.get().bindTexture(GLES20.GL_TEXTURE_2D, 0);
     }
 
     public int getWidth() {
@@ -107,17 +127,70 @@ public class Texture2D extends Texture {
         return mHeight;
     }
 
+    public int getInternalFormat() {
+        return mInternalFormat;
+    }
+
+    /**
+     * Returns the estimated amount of memory that the texture data occupies in bytes.
+     */
+    public long getByteSize() {
+        return (long) mWidth * mHeight * getBytesPerPixel(mInternalFormat, mType);
+    }
+
     @Override
     public void delete() {
         GLES20.glDeleteTextures(1, new int[] { mTexture }, 0);
+        GLState.get().onTextureDeleted(mTexture);
     }
 
-    public static Texture2D generateFloatTexture(int width, int height) {
+    /**
+     * Returns the internal format that {@link #generateFloatTexture(int, int)} uses on the current
+     * device, which is a 16 bit float format if supported, else the 8 bit fallback format.
+     */
+    public static int getFloatTextureInternalFormat() {
         if(GLUtils.HAS_GLES30 && GLUtils.HAS_GL_OES_texture_half_float && GLUtils.HAS_FLOAT_FRAMEBUFFER_SUPPORT) {
-            return new Texture2D(GLES30.GL_RGBA16F, GLES20.GL_RGBA, width, height, GLES20.GL_FLOAT, null);
+            return GLES30.GL_RGBA16F;
         } else {
+            return GLES20.GL_RGBA;
+        }
+    }
+
+    public static Texture2D generateFloatTexture(int width, int height) {
+        int internalformat = getFloatTextureInternalFormat();
+        if(internalformat == GLES20.GL_RGBA) {
             Log.i(TAG, "Texture fallback mode to GLES20 8 bit");
-            return new Texture2D(GLES20.GL_RGBA, GLES20.GL_RGBA, width, height, GLES20.GL_UNSIGNED_BYTE, null);
+        }
+        return generateTexture(internalformat, width, height);
+    }
+
+    /**
+     * Generates an empty RGBA texture with the given internal format, which is either
+     * {@link GLES20#GL_RGBA} (8 bit), {@link GLES30#GL_RGBA16F} or {@link GLES30#GL_RGBA32F}.
+     */
+    public static Texture2D generateTexture(int internalformat, int width, int height) {
+        int type = internalformat == GLES20.GL_RGBA ? GLES20.GL_UNSIGNED_BYTE : GLES20.GL_FLOAT;
+        return new Texture2D(internalformat, GLES20.GL_RGBA, width, height, type, null);
+    }
+
+    private static int getBytesPerPixel(int internalformat, int type) {
+        switch (internalformat) {
+            case GLES30.GL_RGBA32F:
+                return 16;
+            case GLES30.GL_RGBA16F:
+                return 8;
+            case GLES30.GL_RGB16F:
+                return 6;
+            case GLES20.GL_RGBA:
+                // Unsized formats on GLES2 can carry float data through OES_texture_(half_)float
+                return type == GLES20.GL_FLOAT ? 16 : 4;
+            case GLES20.GL_RGB:
+                return type == GLES20.GL_FLOAT ? 12 : 3;
+            case GLES20.GL_LUMINANCE:
+            case GLES20.GL_ALPHA:
+                return type == GLES20.GL_FLOAT ? 4 : 1;
+            default:
+                return 4;
         }
     }
 }
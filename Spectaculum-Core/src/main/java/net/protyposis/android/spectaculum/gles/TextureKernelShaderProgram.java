@@ -73,8 +73,8 @@ public class TextureKernelShaderProgram extends TextureShaderProgram {
     }
 
     public void setKernel(Kernel kernel) {
-        GLES20.glUseProgram(getHandle());
-        GLES20.glUniform1fv(mKernelHandle, 9, kernel.mKernel, 0);
+        use();
+        setUniform1fv(mKernelHandle, 9, kernel.mKernel, 0);
     }
 
     @Override
@@ -89,7 +89,7 @@ public class TextureKernelShaderProgram extends TextureShaderProgram {
                 -rw, rh,    0f, rh,     rw, rh
         };
 
-        GLES20.glUseProgram(getHandle());
-        GLES20.glUniform2fv(mTexOffsetHandle, 9, texOffset, 0);
+        use();
+        setUniform2fv(mTexOffsetHandle, 9, texOffset, 0);
     }
 }
@@ -40,7 +40,19 @@ public class TextureShaderProgram extends ShaderProgram {
 
     protected TextureShaderProgram(String vertexShaderName, String fragmentShaderName) {
         super(vertexShaderName, fragmentShaderName);
+        initHandles();
+    }
+
+    /**
+     * Creates a variant of a texture shader program with a modified fragment shader.
+     * @see ShaderProgram#ShaderProgram(ShaderProgram, String)
+     */
+    protected TextureShaderProgram(TextureShaderProgram program, String fragmentShaderCode) {
+        super(program, fragmentShaderCode);
+        initHandles();
+    }
 
+    private void initHandles() {
         mMVPMatrixHandle = GLES20.glGetUniformLocation(mProgramHandle, "u_MVPMatrix");
         GLUtils.checkError("glGetUniformLocation u_MVPMatrix");
         mSTMatrixHandle = GLES20.glGetUniformLocation(mProgramHandle, "u_STMatrix");
@@ -57,13 +69,13 @@ public class TextureShaderProgram extends ShaderProgram {
 
     public void setTextureSize(int width, int height) {
         use();
-        GLES20.glUniform2f(mTextureSizeHandle, width, height);
+        setUniform2f(mTextureSizeHandle, width, height);
     }
 
     public void setTexture(Texture2D texture) {
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture.getHandle());
-        GLES20.glUniform1i(mTextureHandle, 0); // bind texture unit 0 to the uniform
-        GLES20.glUniformMatrix4fv(mSTMatrixHandle, 1, false, texture.getTransformMatrix(), 0);
+        GLState.get().activeTexture(GLES20.GL_TEXTURE0);
+        GLState.get().bindTexture(GLES20.GL_TEXTURE_2D, texture.getHandle());
+        setUniform1i(mTextureHandle, 0); // bind texture unit 0 to the uniform
+        setUniformMatrix4fv(mSTMatrixHandle, texture.getTransformMatrix(), 0);
     }
 }
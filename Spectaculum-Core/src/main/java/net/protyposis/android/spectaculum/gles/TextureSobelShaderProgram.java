@@ -42,12 +42,12 @@ public class TextureSobelShaderProgram extends TextureShaderProgram {
 
     public void setThreshold(float low, float high) {
         use();
-        GLES20.glUniform1f(mThresholdLHandle, low);
-        GLES20.glUniform1f(mThresholdHHandle, high);
+        setUniform1f(mThresholdLHandle, low);
+        setUniform1f(mThresholdHHandle, high);
     }
 
     public void setColor(float r, float g, float b) {
         use();
-        GLES20.glUniform3f(mColorHandle, r, g, b);
+        setUniform3f(mColorHandle, r, g, b);
     }
 }
@@ -18,10 +18,6 @@ package net.protyposis.android.spectaculum.gles;
 
 import android.opengl.GLES20;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-
 /**
  * Created by Mario on 14.06.2014.
  */
@@ -52,56 +48,41 @@ public class TexturedRectangle extends Shape {
      * */
     protected static final int sUVDataSize = 2;
 
-    // model data
-    private float[] mVerticesData = {
-            // X, Y, Z,
-            // U, V
-            -1.0f, -1.0f, 0.0f,
-            0.0f, 0.0f,
-
-            1.0f, -1.0f, 0.0f,
-            1.0f, 0.0f,
-
-            -1.0f, 1.0f, 0.0f,
-            0.0f, 1.0f,
-
-            1.0f, 1.0f, 0.0f,
-            1.0f, 1.0f
-    };
-
-    // model data buffer
-    private FloatBuffer mVertices;
-
-    public TexturedRectangle() {
-        mVertices = ByteBuffer.allocateDirect(mVerticesData.length * sBytesPerFloat)
-                .order(ByteOrder.nativeOrder())
-                .asFloatBuffer();
-        mVertices.put(mVerticesData).position(0);
-    }
-
     public void draw(TextureShaderProgram shaderProgram) {
+        GLState state = GLState.get();
 
-        // write vertex data
-        mVertices.position(sPositionOffset);
-        GLES20.glVertexAttribPointer(shaderProgram.mPositionHandle, sPositionDataSize,
-                GLES20.GL_FLOAT, false, sStrideBytes, mVertices);
-        GLES20.glEnableVertexAttribArray(shaderProgram.mPositionHandle);
-
-        // write uv data
-        mVertices.position(sUVOffset);
-        GLES20.glVertexAttribPointer(shaderProgram.mTextureCoordHandle, sUVDataSize,
-                GLES20.GL_FLOAT, false, sStrideBytes, mVertices);
-        GLES20.glEnableVertexAttribArray(shaderProgram.mTextureCoordHandle);
+        // point the attributes into the shared vertex buffer, which is skipped if they already
+        // point there, as is usually the case because all programs use the same locations
+        ScreenGeometry.get().bind();
+        state.vertexAttribPointer(shaderProgram.mPositionHandle, sPositionDataSize,
+                sStrideBytes, sPositionOffset * sBytesPerFloat);
+        state.vertexAttribPointer(shaderProgram.mTextureCoordHandle, sUVDataSize,
+                sStrideBytes, sUVOffset * sBytesPerFloat);
 
         //GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
         //GLES20.glBindTexture(GL_TEXTURE_EXTERNAL_OES, mTextureID);
 
         // write the MVP matrix
-        GLES20.glUniformMatrix4fv(shaderProgram.mMVPMatrixHandle, 1, false, mMVPMatrix, 0);
+        shaderProgram.setUniformMatrix4fv(shaderProgram.mMVPMatrixHandle, mMVPMatrix, 0);
 
-        // finally, render the rectangle
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+        // finally, render the rectangle, as a single triangle if it covers the whole viewport
+        if(isIdentity(mMVPMatrix)) {
+            GLES20.glDrawArrays(GLES20.GL_TRIANGLES,
+                    ScreenGeometry.TRIANGLE_FIRST, ScreenGeometry.TRIANGLE_COUNT);
+        } else {
+            GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP,
+                    ScreenGeometry.QUAD_FIRST, ScreenGeometry.QUAD_COUNT);
+        }
 
         GLUtils.checkError("TexturedRectangle.draw");
     }
+
+    private static boolean isIdentity(float[] m) {
+        for(int i = 0; i < 16; i++) {
+            if(m[i] != (i % 5 == 0 ? 1.0f : 0.0f)) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
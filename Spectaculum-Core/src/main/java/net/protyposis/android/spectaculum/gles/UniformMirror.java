@@ -0,0 +1,152 @@
+/*
+ * Copyright 2016 Mario Guggenberger <mg@protyposis.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.protyposis.android.spectaculum.gles;
+
+import android.opengl.GLES20;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Copies uniform values from a source program to a target program that has been derived from it,
+ * e.g. a shader variant. This allows effects to set their parameters on their own program only,
+ * while the derived program renders with the same values. The values are taken from the uniform
+ * cache of the source program instead of being read back from GL, and are only copied when they
+ * have changed.
+ */
+class UniformMirror {
+
+    private static class Uniform {
+        int sourceLocation;
+        int targetLocation;
+        int type;
+    }
+
+    private ShaderProgram mSource;
+    private ShaderProgram mTarget;
+    private Map<String, Integer> mSourceUniforms; // name -> type
+    private List<Uniform> mUniforms;
+    private int mSyncedVersion = -1;
+
+    UniformMirror(ShaderProgram source, ShaderProgram target) {
+        mSource = source;
+        mTarget = target;
+        mSourceUniforms = new LinkedHashMap<>();
+        mUniforms = new ArrayList<>();
+
+        int sourceProgram = source.getHandle();
+        int[] count = new int[1];
+        GLES20.glGetProgramiv(sourceProgram, GLES20.GL_ACTIVE_UNIFORMS, count, 0);
+
+        int[] length = new int[1];
+        int[] size = new int[1];
+        int[] type = new int[1];
+        byte[] nameBuffer = new byte[256];
+
+        for(int i = 0; i < count[0]; i++) {
+            GLES20.glGetActiveUniform(sourceProgram, i, nameBuffer.length, length, 0,
+                    size, 0, type, 0, nameBuffer, 0);
+            String name = new String(nameBuffer, 0, length[0]);
+            if(name.endsWith("[0]")) {
+                name = name.substring(0, name.length() - 3);
+            }
+            mSourceUniforms.put(name, type[0]);
+        }
+        GLUtils.checkError("glGetActiveUniform");
+    }
+
+    /**
+     * Mirrors all active uniforms of the source program to the equally named uniforms of the
+     * target program, except the excluded ones.
+     */
+    void addAll(Set<String> excluded) {
+        for(String name : mSourceUniforms.keySet()) {
+            if(!excluded.contains(name)) {
+                add(name, name);
+            }
+        }
+    }
+
+    /**
+     * Mirrors a uniform of the source program to a uniform of the target program. Uniforms that are
+     * not active in one of the programs are ignored. Arrays are mirrored as a whole.
+     * @param sourceName the name of the uniform in the source program
+     * @param targetName the name of the uniform in the target program
+     */
+    void add(String sourceName, String targetName) {
+        Integer type = mSourceUniforms.get(sourceName);
+        if(type == null) {
+            return;
+        }
+
+        Uniform uniform = new Uniform();
+        uniform.sourceLocation = GLES20.glGetUniformLocation(mSource.getHandle(), sourceName);
+        uniform.targetLocation = GLES20.glGetUniformLocation(mTarget.getHandle(), targetName);
+        uniform.type = type;
+        if(uniform.sourceLocation != -1 && uniform.targetLocation != -1) {
+            mUniforms.add(uniform);
+            mSyncedVersion = -1;
+        }
+    }
+
+    /**
+     * Copies the uniform values of the source program to the target program if they have changed
+     * since the last call. Must be called while the target program is in use. Uniforms that have
+     * never been set on the source program keep their default value.
+     */
+    void sync() {
+        int version = mSource.getUniformVersion();
+        if(version == mSyncedVersion) {
+            return;
+        }
+
+        for(Uniform u : mUniforms) {
+            float[] values = mSource.getUniformFloatValues(u.sourceLocation);
+            if(values == null) {
+                if(mSource.hasUniformIntValue(u.sourceLocation)) {
+                    // int, bool, samplers
+                    mTarget.setUniform1i(u.targetLocation, mSource.getUniformIntValue(u.sourceLocation));
+                }
+                continue;
+            }
+            switch (u.type) {
+                case GLES20.GL_FLOAT:
+                    mTarget.setUniform1fv(u.targetLocation, values.length, values, 0);
+                    break;
+                case GLES20.GL_FLOAT_VEC2:
+                    mTarget.setUniform2fv(u.targetLocation, values.length / 2, values, 0);
+                    break;
+                case GLES20.GL_FLOAT_VEC3:
+                    mTarget.setUniform3fv(u.targetLocation, values.length / 3, values, 0);
+                    break;
+                case GLES20.GL_FLOAT_VEC4:
+                    mTarget.setUniform4fv(u.targetLocation, values.length / 4, values, 0);
+                    break;
+                case GLES20.GL_FLOAT_MAT4:
+                    mTarget.setUniformMatrix4fv(u.targetLocation, values, 0);
+                    break;
+                default:
+                    // The program has no setters for other types, so they cannot have values
+                    break;
+            }
+        }
+        mSyncedVersion = version;
+    }
+}
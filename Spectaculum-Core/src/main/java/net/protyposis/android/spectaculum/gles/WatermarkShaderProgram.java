@@ -52,11 +52,11 @@ public class WatermarkShaderProgram extends TextureShaderProgram {
         use();
 
         // Use TEXTURE1 for the watermark, TEXTURE0 is taken by the input
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, watermarkTexture.getHandle());
-        GLES20.glUniform1i(mWatermarkHandle, 1); // bind texture unit 1 to the uniform
+        GLState.get().activeTexture(GLES20.GL_TEXTURE1);
+        GLState.get().bindTexture(GLES20.GL_TEXTURE_2D, watermarkTexture.getHandle());
+        setUniform1i(mWatermarkHandle, 1); // bind texture unit 1 to the uniform
 
-        GLES20.glUniform2f(mWatermarkSizeHandle, watermarkTexture.getWidth(), watermarkTexture.getHeight());
+        setUniform2f(mWatermarkSizeHandle, watermarkTexture.getWidth(), watermarkTexture.getHeight());
     }
 
     public void setWatermarkScale(float scale) {
@@ -64,7 +64,7 @@ public class WatermarkShaderProgram extends TextureShaderProgram {
             throw new RuntimeException("scale must be in range [0, 10]");
         }
         use();
-        GLES20.glUniform1f(mWatermarkScaleHandle, scale);
+        setUniform1f(mWatermarkScaleHandle, scale);
     }
 
     public void setWatermarkOpacity(float opacity) {
@@ -72,16 +72,16 @@ public class WatermarkShaderProgram extends TextureShaderProgram {
             throw new RuntimeException("opacity must be in range [0, 1]");
         }
         use();
-        GLES20.glUniform1f(mWatermarkOpacityHandle, opacity);
+        setUniform1f(mWatermarkOpacityHandle, opacity);
     }
 
     public void setWatermarkMargin(float x, float y) {
         use();
-        GLES20.glUniform2f(mWatermarkMarginHandle, x, y);
+        setUniform2f(mWatermarkMarginHandle, x, y);
     }
 
     public void setWatermarkAlignment(int alignment) {
         use();
-        GLES20.glUniform1i(mWatermarkAlignmentHandle, alignment);
+        setUniform1i(mWatermarkAlignmentHandle, alignment);
     }
 }
@@ -73,6 +73,10 @@ public class Utils {
 
         @Override
         public void onFrameCaptured(Bitmap bitmap) {
+            if(bitmap == null) {
+                Toast.makeText(mContext, "Failed capturing frame", Toast.LENGTH_LONG).show();
+                return;
+            }
             File targetFile = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES),
                     mFileNamePrefix + System.currentTimeMillis() + ".png");
             if(Utils.saveBitmapToFile(bitmap, targetFile)) {
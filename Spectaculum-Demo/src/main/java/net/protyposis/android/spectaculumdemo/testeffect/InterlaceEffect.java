@@ -30,16 +30,16 @@ public class InterlaceEffect extends ShaderEffect {
     protected TextureShaderProgram initShaderProgram() {
         final InterlaceShaderProgram shaderProgram = new InterlaceShaderProgram();
 
-        addParameter(new FloatParameter("Opacity", 0f, 1f, 0.5f, new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("Opacity", 0f, 1f, 0.5f, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 shaderProgram.setOpacity(value);
             }
         }));
 
-        addParameter(new IntegerParameter("Distance", 1, 10, 5, new IntegerParameter.Delegate() {
+        addParameter(new IntegerParameter("Distance", 1, 10, 5, new IntegerParameter.IntegerDelegate() {
             @Override
-            public void setValue(Integer value) {
+            public void setValue(int value) {
                 shaderProgram.setDistance(value);
             }
         }));
@@ -41,11 +41,11 @@ public class InterlaceShaderProgram extends TextureShaderProgram {
 
     public void setOpacity(float opacity) {
         use();
-        GLES20.glUniform1f(mOpacityHandle, opacity);
+        setUniform1f(mOpacityHandle, opacity);
     }
 
     public void setDistance(int distance) {
         use();
-        GLES20.glUniform1i(mDistanceHandle, distance);
+        setUniform1i(mDistanceHandle, distance);
     }
 }
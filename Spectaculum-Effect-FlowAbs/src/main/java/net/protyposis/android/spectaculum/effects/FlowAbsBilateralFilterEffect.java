@@ -39,32 +39,40 @@ public class FlowAbsBilateralFilterEffect extends FlowAbsSubEffect {
         mSigmaD = 3.0f;
         mSigmaR = 4.25f;
 
-        addParameter(new FloatParameter("Sigma", 0f, 10f, mSigma, new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("Sigma", 0f, 10f, mSigma, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mSigma = value;
             }
         }));
-        addParameter(new IntegerParameter("N", 0, 10, mN, new IntegerParameter.Delegate() {
+        addParameter(new IntegerParameter("N", 0, 10, mN, new IntegerParameter.IntegerDelegate() {
             @Override
-            public void setValue(Integer value) {
+            public void setValue(int value) {
                 mN = value;
             }
         }));
-        addParameter(new FloatParameter("sigmaD", 0f, 10f, mSigmaD, new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("sigmaD", 0f, 10f, mSigmaD, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mSigmaD = value;
             }
         }));
-        addParameter(new FloatParameter("sigmaR", 0f, 10f, mSigmaR, new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("sigmaR", 0f, 10f, mSigmaR, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mSigmaR = value;
             }
         }));
     }
 
+    @Override
+    public int getNeighborhoodRadius() {
+        if(mN == 0) {
+            return 0; // only the pointwise color space conversions
+        }
+        return FlowAbsEffect.tangentFlowMapRadius(mSigma) + FlowAbsEffect.bilateralFilterRadius(mN, mSigmaD);
+    }
+
     @Override
     public void apply(Texture2D source, Framebuffer target) {
         mFlowAbsEffect.mFlowAbs.bilateralFilter(source, target, mSigma, mN, mSigmaD, mSigmaR);
@@ -37,26 +37,31 @@ public class FlowAbsColorQuantizationEffect extends FlowAbsSubEffect {
         mNumBins = 8;
         mPhiQ = 3.4f;
 
-        addParameter(new IntegerParameter("Filter", 0, 2, mFilter, new IntegerParameter.Delegate() {
+        addParameter(new IntegerParameter("Filter", 0, 2, mFilter, new IntegerParameter.IntegerDelegate() {
             @Override
-            public void setValue(Integer value) {
+            public void setValue(int value) {
                 mFilter = value;
             }
         }));
-        addParameter(new IntegerParameter("Bins", 0, 20, mNumBins, new IntegerParameter.Delegate() {
+        addParameter(new IntegerParameter("Bins", 0, 20, mNumBins, new IntegerParameter.IntegerDelegate() {
             @Override
-            public void setValue(Integer value) {
+            public void setValue(int value) {
                 mNumBins = value;
             }
         }));
-        addParameter(new FloatParameter("phiQ", 0f, 10f, mPhiQ, new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("phiQ", 0f, 10f, mPhiQ, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mPhiQ = value;
             }
         }));
     }
 
+    @Override
+    public int getNeighborhoodRadius() {
+        return FlowAbsEffect.gaussKernelRadius(mFilter);
+    }
+
     @Override
     public void apply(Texture2D source, Framebuffer target) {
         mFlowAbsEffect.mFlowAbs.colorQuantization(source, target, mFilter, mNumBins, mPhiQ);
@@ -41,38 +41,43 @@ public class FlowAbsDOGEffect extends FlowAbsSubEffect {
         mTau = 0.99f;
         mPhi = 2.0f;
 
-        addParameter(new IntegerParameter("N", 0, 10, mN, new IntegerParameter.Delegate() {
+        addParameter(new IntegerParameter("N", 0, 10, mN, new IntegerParameter.IntegerDelegate() {
             @Override
-            public void setValue(Integer value) {
+            public void setValue(int value) {
                 mN = value;
             }
         }));
-        addParameter(new FloatParameter("sigmaE", 0f, 10f, mSigmaE, new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("sigmaE", 0f, 10f, mSigmaE, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mSigmaE = value;
             }
         }));
-        addParameter(new FloatParameter("sigmaR", 0f, 10f, mSigmaR, new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("sigmaR", 0f, 10f, mSigmaR, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mSigmaR = value;
             }
         }));
-        addParameter(new FloatParameter("tau", 0f, 10f, mTau, new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("tau", 0f, 10f, mTau, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mTau = value;
             }
         }));
-        addParameter(new FloatParameter("phi", 0f, 10f, mPhi, new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("phi", 0f, 10f, mPhi, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mPhi = value;
             }
         }));
     }
 
+    @Override
+    public int getNeighborhoodRadius() {
+        return mN * FlowAbsEffect.radius(mSigmaR);
+    }
+
     @Override
     public void apply(Texture2D source, Framebuffer target) {
         mFlowAbsEffect.mFlowAbs.dog(source, target, mN, mSigmaE, mSigmaR, mTau, mPhi);
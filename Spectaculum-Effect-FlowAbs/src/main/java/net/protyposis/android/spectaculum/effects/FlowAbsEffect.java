@@ -81,128 +81,128 @@ public class FlowAbsEffect extends BaseEffect {
         mFsType = 1;
         mFsSigma = 1.0f;
 
-        addParameter(new FloatParameter("SST Sigma", 0f, 10f, mSstSigma, new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("SST Sigma", 0f, 10f, mSstSigma, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mSstSigma = value;
             }
         }));
 
-        addParameter(new IntegerParameter("BF N E", 0, 10, mBfNE, new IntegerParameter.Delegate() {
+        addParameter(new IntegerParameter("BF N E", 0, 10, mBfNE, new IntegerParameter.IntegerDelegate() {
             @Override
-            public void setValue(Integer value) {
+            public void setValue(int value) {
                 mBfNE = value;
             }
         }));
-        addParameter(new IntegerParameter("BF N A", 0, 10, mBfNA, new IntegerParameter.Delegate() {
+        addParameter(new IntegerParameter("BF N A", 0, 10, mBfNA, new IntegerParameter.IntegerDelegate() {
             @Override
-            public void setValue(Integer value) {
+            public void setValue(int value) {
                 mBfNA = value;
             }
         }));
-        addParameter(new FloatParameter("BF sigmaD", 0f, 10f, mBfSigmaD, new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("BF sigmaD", 0f, 10f, mBfSigmaD, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mBfSigmaD = value;
             }
         }));
-        addParameter(new FloatParameter("BF sigmaR", 0f, 10f, mBfSigmaR, new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("BF sigmaR", 0f, 10f, mBfSigmaR, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mBfSigmaR = value;
             }
         }));
 
-        addParameter(new IntegerParameter("(F)DOG Type", 0, 1, mFDogType, new IntegerParameter.Delegate() {
+        addParameter(new IntegerParameter("(F)DOG Type", 0, 1, mFDogType, new IntegerParameter.IntegerDelegate() {
             @Override
-            public void setValue(Integer value) {
+            public void setValue(int value) {
                 mFDogType = value;
             }
         }));
-        addParameter(new IntegerParameter("(F)DOG N", 0, 10, mFDogN, new IntegerParameter.Delegate() {
+        addParameter(new IntegerParameter("(F)DOG N", 0, 10, mFDogN, new IntegerParameter.IntegerDelegate() {
             @Override
-            public void setValue(Integer value) {
+            public void setValue(int value) {
                 mFDogN = value;
             }
         }));
-        addParameter(new FloatParameter("(F)DOG sigmaE", 0f, 10f, mFDogSigmaE, new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("(F)DOG sigmaE", 0f, 10f, mFDogSigmaE, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mFDogSigmaE = value;
             }
         }));
-        addParameter(new FloatParameter("(F)DOG sigmaR", 0f, 10f, mFDogSigmaR, new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("(F)DOG sigmaR", 0f, 10f, mFDogSigmaR, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mFDogSigmaR = value;
             }
         }));
-        addParameter(new FloatParameter("FDOG sigmaM", 0f, 10f, mFDogSigmaM, new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("FDOG sigmaM", 0f, 10f, mFDogSigmaM, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mFDogSigmaM = value;
             }
         }));
-        addParameter(new FloatParameter("(F)DOG tau", 0f, 10f, mFDogTau, new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("(F)DOG tau", 0f, 10f, mFDogTau, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mFDogTau = value;
             }
         }));
-        addParameter(new FloatParameter("(F)DOG phi", 0f, 10f, mFDogPhi, new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("(F)DOG phi", 0f, 10f, mFDogPhi, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mFDogPhi = value;
             }
         }));
 
-        addParameter(new IntegerParameter("CQ Filter", 0, 2, mCqFilter, new IntegerParameter.Delegate() {
+        addParameter(new IntegerParameter("CQ Filter", 0, 2, mCqFilter, new IntegerParameter.IntegerDelegate() {
             @Override
-            public void setValue(Integer value) {
+            public void setValue(int value) {
                 mCqFilter = value;
             }
         }));
-        addParameter(new IntegerParameter("CQ Bins", 0, 20, mCqNumBins, new IntegerParameter.Delegate() {
+        addParameter(new IntegerParameter("CQ Bins", 0, 20, mCqNumBins, new IntegerParameter.IntegerDelegate() {
             @Override
-            public void setValue(Integer value) {
+            public void setValue(int value) {
                 mCqNumBins = value;
             }
         }));
-        addParameter(new FloatParameter("CQ phiQ", 0f, 10f, mCqPhiQ, new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("CQ phiQ", 0f, 10f, mCqPhiQ, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mCqPhiQ = value;
             }
         }));
 
-        addParameter(new FloatParameter("Edge R", 0f, 1f, mEdgeColor[0], new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("Edge R", 0f, 1f, mEdgeColor[0], new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mEdgeColor[0] = value;
             }
         }));
-        addParameter(new FloatParameter("Edge G", 0f, 1f, mEdgeColor[1], new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("Edge G", 0f, 1f, mEdgeColor[1], new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mEdgeColor[1] = value;
             }
         }));
-        addParameter(new FloatParameter("Edge B", 0f, 1f, mEdgeColor[2], new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("Edge B", 0f, 1f, mEdgeColor[2], new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mEdgeColor[2] = value;
             }
         }));
 
-        addParameter(new IntegerParameter("FS Type", 0, 3, mFsType, new IntegerParameter.Delegate() {
+        addParameter(new IntegerParameter("FS Type", 0, 3, mFsType, new IntegerParameter.IntegerDelegate() {
             @Override
-            public void setValue(Integer value) {
+            public void setValue(int value) {
                 mFsType = value;
             }
         }));
-        addParameter(new FloatParameter("FS Sigma", 0f, 10f, mFsSigma, new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("FS Sigma", 0f, 10f, mFsSigma, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mFsSigma = value;
             }
         }));
@@ -210,10 +210,62 @@ public class FlowAbsEffect extends BaseEffect {
 
     @Override
     public void init(int width, int height) {
-        mFlowAbs = new FlowAbs(width, height);
+        mFlowAbs = new FlowAbs(width, height, getFramebufferPool());
         setInitialized();
     }
 
+    @Override
+    public void resize(int width, int height) {
+        mFlowAbs.resize(width, height);
+    }
+
+    /**
+     * Accumulates the radii of all filter passes. The Gaussian-like kernels of the shaders are
+     * cut off at twice their sigma.
+     */
+    @Override
+    public int getNeighborhoodRadius() {
+        int radius = tangentFlowMapRadius(mSstSigma);
+        radius += bilateralFilterRadius(mBfNE + mBfNA, mBfSigmaD);
+        radius += fdogRadius(mFDogN, mFDogSigmaR, mFDogSigmaM); // also covers the isotropic DoG
+        radius += gaussKernelRadius(mCqFilter); // color quantization filter
+        // The final smoothing reuses the tangent flow map of the pipeline
+        radius += mFsType == 3 ? radius(mFsSigma) : gaussKernelRadius(mFsType);
+        return radius;
+    }
+
+    static int radius(float sigma) {
+        return (int) Math.ceil(2 * sigma);
+    }
+
+    /**
+     * Structure tensor (3x3 Sobel) and its Gaussian smoothing.
+     */
+    static int tangentFlowMapRadius(float sigma) {
+        return 1 + radius(sigma);
+    }
+
+    /**
+     * Each iteration consists of a pass across and a pass along the flow.
+     */
+    static int bilateralFilterRadius(int n, float sigmaD) {
+        return n * 2 * radius(sigmaD);
+    }
+
+    /**
+     * Each iteration consists of a DoG across the flow and an integral along the flow.
+     */
+    static int fdogRadius(int n, float sigmaR, float sigmaM) {
+        return n * (radius(sigmaR) + radius(sigmaM));
+    }
+
+    /**
+     * The fixed 3x3 (type 1) and 5x5 (type 2) Gaussian kernels, type 0 is no filter.
+     */
+    static int gaussKernelRadius(int type) {
+        return type == 1 ? 1 : (type == 2 ? 2 : 0);
+    }
+
     @Override
     public void apply(Texture2D source, Framebuffer target) {
         mFlowAbs.flowAbs(source, target,
@@ -46,50 +46,55 @@ public class FlowAbsFDOGEffect extends FlowAbsSubEffect {
         mSigmaM = 3.0f;
         mPhi = 2.0f;
 
-        addParameter(new FloatParameter("Sigma", 0f, 10f, mSigma, new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("Sigma", 0f, 10f, mSigma, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mSigma = value;
             }
         }));
-        addParameter(new IntegerParameter("N", 0, 10, mN, new IntegerParameter.Delegate() {
+        addParameter(new IntegerParameter("N", 0, 10, mN, new IntegerParameter.IntegerDelegate() {
             @Override
-            public void setValue(Integer value) {
+            public void setValue(int value) {
                 mN = value;
             }
         }));
-        addParameter(new FloatParameter("sigmaE", 0f, 10f, mSigmaE, new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("sigmaE", 0f, 10f, mSigmaE, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mSigmaE = value;
             }
         }));
-        addParameter(new FloatParameter("sigmaR", 0f, 10f, mSigmaR, new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("sigmaR", 0f, 10f, mSigmaR, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mSigmaR = value;
             }
         }));
-        addParameter(new FloatParameter("sigmaM", 0f, 10f, mSigmaM, new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("sigmaM", 0f, 10f, mSigmaM, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mSigmaM = value;
             }
         }));
-        addParameter(new FloatParameter("tau", 0f, 10f, mTau, new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("tau", 0f, 10f, mTau, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mTau = value;
             }
         }));
-        addParameter(new FloatParameter("phi", 0f, 10f, mPhi, new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("phi", 0f, 10f, mPhi, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mPhi = value;
             }
         }));
     }
 
+    @Override
+    public int getNeighborhoodRadius() {
+        return FlowAbsEffect.tangentFlowMapRadius(mSigma) + FlowAbsEffect.fdogRadius(mN, mSigmaR, mSigmaM);
+    }
+
     @Override
     public void apply(Texture2D source, Framebuffer target) {
         mFlowAbsEffect.mFlowAbs.fdog(source, target, mSigma, mN, mSigmaE, mSigmaR, mTau, mSigmaM, mPhi);
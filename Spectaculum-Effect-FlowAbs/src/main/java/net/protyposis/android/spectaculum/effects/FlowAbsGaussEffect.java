@@ -33,14 +33,19 @@ public class FlowAbsGaussEffect extends FlowAbsSubEffect {
         super();
         mSigma = 2.0f;
 
-        addParameter(new FloatParameter("Sigma", 0f, 10f, mSigma, new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("Sigma", 0f, 10f, mSigma, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mSigma = value;
             }
         }));
     }
 
+    @Override
+    public int getNeighborhoodRadius() {
+        return FlowAbsEffect.radius(mSigma);
+    }
+
     @Override
     public void apply(Texture2D source, Framebuffer target) {
         mFlowAbsEffect.mFlowAbs.gauss(source, target, mSigma);
@@ -26,6 +26,15 @@ import net.protyposis.android.spectaculum.gles.Texture2D;
  * Created by Mario on 05.09.2014.
  */
 public class FlowAbsNoiseTextureEffect extends FlowAbsSubEffect {
+
+    /**
+     * The noise texture is generated for the whole frame and cannot be tiled.
+     */
+    @Override
+    public int getNeighborhoodRadius() {
+        return NEIGHBORHOOD_UNBOUNDED;
+    }
+
     @Override
     public void apply(Texture2D source, Framebuffer target) {
         mFlowAbsEffect.mFlowAbs.noiseTexture(target);
@@ -35,20 +35,28 @@ public class FlowAbsSmoothEffect extends FlowAbsSubEffect {
         mType = 1;
         mSigma = 1.0f;
 
-        addParameter(new IntegerParameter("Type", 0, 3, mType, new IntegerParameter.Delegate() {
+        addParameter(new IntegerParameter("Type", 0, 3, mType, new IntegerParameter.IntegerDelegate() {
             @Override
-            public void setValue(Integer value) {
+            public void setValue(int value) {
                 mType = value;
             }
         }));
-        addParameter(new FloatParameter("Sigma", 0f, 10f, mSigma, new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("Sigma", 0f, 10f, mSigma, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mSigma = value;
             }
         }));
     }
 
+    @Override
+    public int getNeighborhoodRadius() {
+        if(mType == 3) {
+            return FlowAbsEffect.tangentFlowMapRadius(mSigma) + FlowAbsEffect.radius(mSigma);
+        }
+        return FlowAbsEffect.gaussKernelRadius(mType);
+    }
+
     @Override
     public void apply(Texture2D source, Framebuffer target) {
         mFlowAbsEffect.mFlowAbs.smoothFilter(source, target, mType, mSigma);
@@ -39,10 +39,16 @@ public abstract class FlowAbsSubEffect extends BaseEffect {
     @Override
     public void init(int width, int height) {
         if(!mFlowAbsEffect.isInitialized()) {
+            mFlowAbsEffect.setFramebufferPool(getFramebufferPool());
             mFlowAbsEffect.init(width, height);
         }
     }
 
+    @Override
+    public void resize(int width, int height) {
+        mFlowAbsEffect.resize(width, height);
+    }
+
     FlowAbsSubEffect init(FlowAbsEffect flowAbsEffect) {
         mFlowAbsEffect = flowAbsEffect;
         return this;
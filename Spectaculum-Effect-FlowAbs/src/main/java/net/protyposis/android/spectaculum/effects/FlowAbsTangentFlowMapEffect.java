@@ -33,14 +33,20 @@ public class FlowAbsTangentFlowMapEffect extends FlowAbsSubEffect {
         super();
         mSigma = 2.0f;
 
-        addParameter(new FloatParameter("Sigma", 0f, 10f, mSigma, new FloatParameter.Delegate() {
+        addParameter(new FloatParameter("Sigma", 0f, 10f, mSigma, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mSigma = value;
             }
         }));
     }
 
+    @Override
+    public int getNeighborhoodRadius() {
+        // The flow is visualized on the noise texture, which is generated for the whole frame
+        return NEIGHBORHOOD_UNBOUNDED;
+    }
+
     @Override
     public void apply(Texture2D source, Framebuffer target) {
         mFlowAbsEffect.mFlowAbs.tangentFlowMap(source, target, mSigma);
@@ -45,10 +45,10 @@ public class ColorQuantizationShaderProgram extends FlowabsShaderProgram {
     }
 
     public void setNumBins(int numBins) {
-        GLES20.glUniform1i(mNBinsHandler, numBins);
+        setUniform1i(mNBinsHandler, numBins);
     }
 
     public void setPhiQ(float phiQ) {
-        GLES20.glUniform1f(mPhiQHandler, phiQ);
+        setUniform1f(mPhiQHandler, phiQ);
     }
 }
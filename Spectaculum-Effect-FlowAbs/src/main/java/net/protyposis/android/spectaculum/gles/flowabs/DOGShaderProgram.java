@@ -53,15 +53,15 @@ public class DOGShaderProgram extends FlowabsShaderProgram {
     }
 
     public void setSigmaE(float sigmaE) {
-        GLES20.glUniform1f(mSigmaEHandle, sigmaE);
+        setUniform1f(mSigmaEHandle, sigmaE);
     }
     public void setSigmaR(float sigmaR) {
-        GLES20.glUniform1f(mSigmaRHandle, sigmaR);
+        setUniform1f(mSigmaRHandle, sigmaR);
     }
     public void setTau(float tau) {
-        GLES20.glUniform1f(mTauHandle, tau);
+        setUniform1f(mTauHandle, tau);
     }
     public void setPhi(float phi) {
-        GLES20.glUniform1f(mPhiHandle, phi);
+        setUniform1f(mPhiHandle, phi);
     }
 }
@@ -21,6 +21,7 @@ package net.protyposis.android.spectaculum.gles.flowabs;
 
 import android.opengl.GLES20;
 
+import net.protyposis.android.spectaculum.gles.GLState;
 import net.protyposis.android.spectaculum.gles.GLUtils;
 import net.protyposis.android.spectaculum.gles.Texture2D;
 
@@ -58,22 +59,22 @@ public class FDOG1ShaderProgram extends FlowabsShaderProgram {
     }
 
     public void setTexture(Texture2D img, Texture2D tfm) {
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, img.getHandle());
-        GLES20.glUniform1i(mTextureHandle, 0); // bind texture unit 0 to the uniform
+        GLState.get().activeTexture(GLES20.GL_TEXTURE0);
+        GLState.get().bindTexture(GLES20.GL_TEXTURE_2D, img.getHandle());
+        setUniform1i(mTextureHandle, 0); // bind texture unit 0 to the uniform
 
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, tfm.getHandle());
-        GLES20.glUniform1i(mTextureHandle2, 1); // bind texture unit 0 to the uniform
+        GLState.get().activeTexture(GLES20.GL_TEXTURE1);
+        GLState.get().bindTexture(GLES20.GL_TEXTURE_2D, tfm.getHandle());
+        setUniform1i(mTextureHandle2, 1); // bind texture unit 0 to the uniform
 
-        GLES20.glUniformMatrix4fv(mSTMatrixHandle, 1, false, img.getTransformMatrix(), 0);
+        setUniformMatrix4fv(mSTMatrixHandle, img.getTransformMatrix(), 0);
     }
 
     public void setSigmaM(float sigmaM) {
-        GLES20.glUniform1f(mSigmaMHandle, sigmaM);
+        setUniform1f(mSigmaMHandle, sigmaM);
     }
 
     public void setPhi(float phi) {
-        GLES20.glUniform1f(mPhiHandle, phi);
+        setUniform1f(mPhiHandle, phi);
     }
 }
@@ -20,23 +20,102 @@
 package net.protyposis.android.spectaculum.gles.flowabs;
 
 import net.protyposis.android.spectaculum.gles.Framebuffer;
+import net.protyposis.android.spectaculum.gles.FramebufferPool;
+import net.protyposis.android.spectaculum.gles.RenderGraph;
 import net.protyposis.android.spectaculum.gles.Texture2D;
 import net.protyposis.android.spectaculum.gles.TextureShaderProgram;
 import net.protyposis.android.spectaculum.gles.TexturedRectangle;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Created by maguggen on 11.07.2014.
  */
 public class FlowAbs {
 
-    private Framebuffer mFramebuffer1;
-    private Framebuffer mFramebuffer2;
-    private Framebuffer mFramebuffer3;
-    private Framebuffer mFramebuffer4;
-    private Framebuffer mFramebuffer5;
-    private Framebuffer mFramebuffer6;
-    private Framebuffer mFramebuffer7;
-    private Framebuffer mFramebuffer8;
+    private static final int SOURCE = RenderGraph.SOURCE;
+    private static final int TARGET = RenderGraph.TARGET;
+
+    /**
+     * The render graph of a filter. The graph is declared once and then only executed, until a
+     * parameter changes that determines the passes of the filter, or the resolution changes.
+     */
+    private class FilterGraph {
+
+        private RenderGraph mRenderGraph;
+        private long mStructure;
+        private boolean mDeclared;
+
+        FilterGraph() {
+            mRenderGraph = new RenderGraph(mFramebufferPool, mWidth, mHeight);
+            mFilterGraphs.add(this);
+        }
+
+        /**
+         * Starts a new declaration of the graph if it has not been declared with the structure yet.
+         * @param structure the parameters that determine the passes of the filter, packed into a value
+         * @return true if the passes need to be declared, else false
+         */
+        boolean declare(long structure) {
+            if(mDeclared && structure == mStructure) {
+                return false;
+            }
+            mDeclared = true;
+            mStructure = structure;
+            mRenderGraph.reset();
+            mGraph = mRenderGraph;
+            return true;
+        }
+
+        void resize(int width, int height) {
+            mRenderGraph.setSize(width, height);
+            // The noise texture is regenerated
+            mDeclared = false;
+        }
+
+        void execute(Texture2D source, Framebuffer target) {
+            mRenderGraph.execute(source, target);
+        }
+    }
+
+    /**
+     * A pass that draws its input with a shader program that has no further inputs or parameters.
+     */
+    private class ShaderPass implements RenderGraph.Pass {
+
+        private TextureShaderProgram mShader;
+
+        ShaderPass(TextureShaderProgram shader) {
+            mShader = shader;
+        }
+
+        @Override
+        public void execute(Texture2D[] inputs, Framebuffer output) {
+            output.bind(Framebuffer.BindMode.DONT_CARE);
+            mShader.use();
+            mShader.setTexture(inputs[0]);
+            mTexturedRectangle.draw(mShader);
+        }
+    }
+
+    private int mWidth;
+    private int mHeight;
+    private FramebufferPool mFramebufferPool;
+    private List<FilterGraph> mFilterGraphs;
+    private RenderGraph mGraph; // the graph that is currently being declared
+
+    private FilterGraph mTangentFlowMapGraph;
+    private FilterGraph mGaussGraph;
+    private FilterGraph mSmoothFilterGraph;
+    private FilterGraph mNoiseTextureGraph;
+    private FilterGraph mBilateralFilterGraph;
+    private FilterGraph mDogGraph;
+    private FilterGraph mRgb2LabGraph;
+    private FilterGraph mLab2RgbGraph;
+    private FilterGraph mFdogGraph;
+    private FilterGraph mColorQuantizationGraph;
+    private FilterGraph mFlowAbsGraph;
 
     private RandomLuminanceNoiseTexture mNoiseTexture;
 
@@ -59,283 +138,473 @@ public class FlowAbs {
     private MixWithEdgesShaderProgram mMixEdgesShader;
     private OverlayShaderProgram mOverlayShader;
 
-    public FlowAbs(int width, int height) {
+    /*
+     * The parameters of the passes, which are set by the public methods before a graph is executed.
+     * Within a graph, all passes of a kind use the same parameters.
+     */
+    private float mGaussSigma;
+    private float mLicSigma;
+    private float mBfSigmaD;
+    private float mBfSigmaR;
+    private float mDogSigmaE;
+    private float mDogSigmaR;
+    private float mDogTau;
+    private float mDogPhi;
+    private float mFdogSigmaM;
+    private int mCqNumBins;
+    private float mCqPhiQ;
+    private float[] mEdgeColor;
+
+    private RenderGraph.Pass mCopyPass;
+    private RenderGraph.Pass mSstPass;
+    private RenderGraph.Pass mGaussPass;
+    private RenderGraph.Pass mTfmPass;
+    private RenderGraph.Pass mLicPass;
+    private RenderGraph.Pass mGauss3x3Pass;
+    private RenderGraph.Pass mGauss5x5Pass;
+    private RenderGraph.Pass[] mBilateralFilterPasses;
+    private RenderGraph.Pass mDogPass;
+    private RenderGraph.Pass mRgb2LabPass;
+    private RenderGraph.Pass mLab2RgbPass;
+    private RenderGraph.Pass mFdog0Pass;
+    private RenderGraph.Pass mFdog1Pass;
+    private RenderGraph.Pass mCqPass;
+    private RenderGraph.Pass mMixPass;
+    private RenderGraph.Pass mOverlayPass;
+
+    public FlowAbs(int width, int height, FramebufferPool framebufferPool) {
+        mFramebufferPool = framebufferPool;
+        mFilterGraphs = new ArrayList<>();
+        mTangentFlowMapGraph = new FilterGraph();
+        mGaussGraph = new FilterGraph();
+        mSmoothFilterGraph = new FilterGraph();
+        mNoiseTextureGraph = new FilterGraph();
+        mBilateralFilterGraph = new FilterGraph();
+        mDogGraph = new FilterGraph();
+        mRgb2LabGraph = new FilterGraph();
+        mLab2RgbGraph = new FilterGraph();
+        mFdogGraph = new FilterGraph();
+        mColorQuantizationGraph = new FilterGraph();
+        mFlowAbsGraph = new FilterGraph();
+
         mTexturedRectangle = new TexturedRectangle();
         mTexturedRectangle.reset();
 
         mSstShader = new SmoothedStructureTensorShaderProgram();
-        mSstShader.setTextureSize(width, height);
-
         mGaussShader = new GaussShaderProgram();
-        mGaussShader.setTextureSize(width, height);
-
         mGauss3x3Shader = new TextureGauss3x3ShaderProgram();
-        mGauss3x3Shader.setTextureSize(width, height);
-
         mGauss5x5Shader = new TextureGauss5x5ShaderProgram();
-        mGauss5x5Shader.setTextureSize(width, height);
-
         mTfmShader = new TangentFlowMapShaderProgram();
-        mTfmShader.setTextureSize(width, height);
-
         mLicShader = new LineIntegralConvolutionShaderProgram();
-        mLicShader.setTextureSize(width, height);
-
         mDogShader = new DOGShaderProgram();
-        mDogShader.setTextureSize(width, height);
-
         mRgb2LabShader = new RGB2LABShaderProgram();
-        mRgb2LabShader.setTextureSize(width, height);
-
         mLab2RgbShader = new LAB2RGBShaderProgram();
-        mLab2RgbShader.setTextureSize(width, height);
-
         mFdog0Shader = new FDOG0ShaderProgram();
-        mFdog0Shader.setTextureSize(width, height);
-
         mFdog1Shader = new FDOG1ShaderProgram();
-        mFdog1Shader.setTextureSize(width, height);
-
         mTextureCopyShader = new TextureShaderProgram();
-        mTextureCopyShader.setTextureSize(width, height);
-
         mBilateralFilterShader = new OrientationAlignedBilateralFilterShaderProgram();
-        mBilateralFilterShader.setTextureSize(width, height);
-
         mColorQuantizationShader = new ColorQuantizationShaderProgram();
-        mColorQuantizationShader.setTextureSize(width, height);
-
         mMixEdgesShader = new MixWithEdgesShaderProgram();
-        mMixEdgesShader.setTextureSize(width, height);
-
         mOverlayShader = new OverlayShaderProgram();
-        mOverlayShader.setTextureSize(width, height);
 
-        mFramebuffer1 = new Framebuffer(width, height);
-        mFramebuffer2 = new Framebuffer(width, height);
-        mFramebuffer3 = new Framebuffer(width, height);
-        mFramebuffer4 = new Framebuffer(width, height);
-        mFramebuffer5 = new Framebuffer(width, height);
-        mFramebuffer6 = new Framebuffer(width, height);
-        mFramebuffer7 = new Framebuffer(width, height);
-        mFramebuffer8 = new Framebuffer(width, height);
+        initPasses();
 
+        resize(width, height);
+    }
+
+    /**
+     * Adapts all shaders, the noise texture and the intermediate textures to a new resolution.
+     */
+    public void resize(int width, int height) {
+        if(width == mWidth && height == mHeight) {
+            return;
+        }
+        mWidth = width;
+        mHeight = height;
+
+        for(FilterGraph graph : mFilterGraphs) {
+            graph.resize(width, height);
+        }
+
+        mSstShader.setTextureSize(width, height);
+        mGaussShader.setTextureSize(width, height);
+        mGauss3x3Shader.setTextureSize(width, height);
+        mGauss5x5Shader.setTextureSize(width, height);
+        mTfmShader.setTextureSize(width, height);
+        mLicShader.setTextureSize(width, height);
+        mDogShader.setTextureSize(width, height);
+        mRgb2LabShader.setTextureSize(width, height);
+        mLab2RgbShader.setTextureSize(width, height);
+        mFdog0Shader.setTextureSize(width, height);
+        mFdog1Shader.setTextureSize(width, height);
+        mTextureCopyShader.setTextureSize(width, height);
+        mBilateralFilterShader.setTextureSize(width, height);
+        mColorQuantizationShader.setTextureSize(width, height);
+        mMixEdgesShader.setTextureSize(width, height);
+        mOverlayShader.setTextureSize(width, height);
+
+        if(mNoiseTexture != null) {
+            mNoiseTexture.delete();
+        }
         mNoiseTexture = RandomLuminanceNoiseTexture.generate(width, height);
     }
 
-    private void copy(Texture2D source, Framebuffer target) {
-        target.bind();
-        mTextureCopyShader.use();
-        mTextureCopyShader.setTexture(source);
-        mTexturedRectangle.draw(mTextureCopyShader);
+    /**
+     * Creates the passes of all filters, which read their parameters from the fields when they
+     * are executed, so they can be reused by all graphs.
+     */
+    private void initPasses() {
+        mCopyPass = new ShaderPass(mTextureCopyShader);
+        mSstPass = new ShaderPass(mSstShader);
+        mTfmPass = new ShaderPass(mTfmShader);
+        mGauss3x3Pass = new ShaderPass(mGauss3x3Shader);
+        mGauss5x5Pass = new ShaderPass(mGauss5x5Shader);
+        mRgb2LabPass = new ShaderPass(mRgb2LabShader);
+        mLab2RgbPass = new ShaderPass(mLab2RgbShader);
+
+        mGaussPass = new RenderGraph.Pass() {
+            @Override
+            public void execute(Texture2D[] inputs, Framebuffer output) {
+                output.bind(Framebuffer.BindMode.DONT_CARE);
+                mGaussShader.use();
+                mGaussShader.setSigma(mGaussSigma);
+                mGaussShader.setTexture(inputs[0]);
+                mTexturedRectangle.draw(mGaussShader);
+            }
+        };
+
+        mLicPass = new RenderGraph.Pass() {
+            @Override
+            public void execute(Texture2D[] inputs, Framebuffer output) {
+                output.bind(Framebuffer.BindMode.DONT_CARE);
+                mLicShader.use();
+                mLicShader.setTexture(inputs[0], inputs[1]);
+                mLicShader.setSigma(mLicSigma);
+                mTexturedRectangle.draw(mLicShader);
+            }
+        };
+
+        mBilateralFilterPasses = new RenderGraph.Pass[2];
+        for(int pass = 0; pass < 2; pass++) {
+            final int filterPass = pass;
+            mBilateralFilterPasses[pass] = new RenderGraph.Pass() {
+                @Override
+                public void execute(Texture2D[] inputs, Framebuffer output) {
+                    output.bind(Framebuffer.BindMode.DONT_CARE);
+                    mBilateralFilterShader.use();
+                    mBilateralFilterShader.setSigmaD(mBfSigmaD);
+                    mBilateralFilterShader.setSigmaR(mBfSigmaR);
+                    mBilateralFilterShader.setTexture(inputs[0], inputs[1]); // TODO set GL_LINEAR ?
+                    mBilateralFilterShader.setPass(filterPass);
+                    mTexturedRectangle.draw(mBilateralFilterShader);
+                }
+            };
+        }
+
+        mDogPass = new RenderGraph.Pass() {
+            @Override
+            public void execute(Texture2D[] inputs, Framebuffer output) {
+                output.bind(Framebuffer.BindMode.DONT_CARE);
+                mDogShader.use();
+                mDogShader.setTexture(inputs[0]);
+                mDogShader.setSigmaE(mDogSigmaE);
+                mDogShader.setSigmaR(mDogSigmaR);
+                mDogShader.setTau(mDogTau);
+                mDogShader.setPhi(mDogPhi);
+                mTexturedRectangle.draw(mDogShader);
+            }
+        };
+
+        mFdog0Pass = new RenderGraph.Pass() {
+            @Override
+            public void execute(Texture2D[] inputs, Framebuffer output) {
+                output.bind(Framebuffer.BindMode.DONT_CARE);
+                mFdog0Shader.use();
+                mFdog0Shader.setTexture(inputs[0], inputs[1]);
+                mFdog0Shader.setSigmaE(mDogSigmaE);
+                mFdog0Shader.setSigmaR(mDogSigmaR);
+                mFdog0Shader.setTau(mDogTau);
+                mTexturedRectangle.draw(mFdog0Shader);
+            }
+        };
+
+        mFdog1Pass = new RenderGraph.Pass() {
+            @Override
+            public void execute(Texture2D[] inputs, Framebuffer output) {
+                output.bind(Framebuffer.BindMode.DONT_CARE);
+                mFdog1Shader.use();
+                mFdog1Shader.setTexture(inputs[0], inputs[1]);
+                mFdog1Shader.setSigmaM(mFdogSigmaM);
+                mFdog1Shader.setPhi(mDogPhi);
+                mTexturedRectangle.draw(mFdog1Shader);
+            }
+        };
+
+        mCqPass = new RenderGraph.Pass() {
+            @Override
+            public void execute(Texture2D[] inputs, Framebuffer output) {
+                output.bind(Framebuffer.BindMode.DONT_CARE);
+                mColorQuantizationShader.use();
+                mColorQuantizationShader.setNumBins(mCqNumBins);
+                mColorQuantizationShader.setPhiQ(mCqPhiQ);
+                mColorQuantizationShader.setTexture(inputs[0]);
+                mTexturedRectangle.draw(mColorQuantizationShader);
+            }
+        };
+
+        mMixPass = new RenderGraph.Pass() {
+            @Override
+            public void execute(Texture2D[] inputs, Framebuffer output) {
+                output.bind(Framebuffer.BindMode.DONT_CARE);
+                mMixEdgesShader.use();
+                mMixEdgesShader.setColor(mEdgeColor[0], mEdgeColor[1], mEdgeColor[2]);
+                mMixEdgesShader.setTexture(inputs[0], inputs[1]);
+                mTexturedRectangle.draw(mMixEdgesShader);
+            }
+        };
+
+        mOverlayPass = new RenderGraph.Pass() {
+            @Override
+            public void execute(Texture2D[] inputs, Framebuffer output) {
+                output.bind(Framebuffer.BindMode.DONT_CARE);
+                mOverlayShader.use();
+                mOverlayShader.setTexture(inputs[0], inputs[1]);
+                mTexturedRectangle.draw(mOverlayShader);
+            }
+        };
     }
 
-    private void tangentFlowMap(Texture2D source, Framebuffer target, Framebuffer tmp1, float sigma) {
-        target.bind();
-        mSstShader.use();
-        mSstShader.setTexture(source);
-        mTexturedRectangle.draw(mSstShader);
-
-        tmp1.bind();
-        mGaussShader.use();
-        mGaussShader.setTexture(target.getTexture());
-        mGaussShader.setSigma(sigma);
-        mTexturedRectangle.draw(mGaussShader);
-
-        target.bind();
-        mTfmShader.use();
-        mTfmShader.setTexture(tmp1.getTexture());
-        mTexturedRectangle.draw(mTfmShader);
+    /*
+     * The filters are declared as passes of a render graph, which takes care of mapping the
+     * intermediate textures onto a minimal number of framebuffers. The private methods add passes
+     * to the graph that is being declared and operate on texture handles. The public methods set
+     * the parameters of the passes, declare the graph of the filter if its passes have changed,
+     * and execute it.
+     */
+
+    private void copy(int source, int target) {
+        mGraph.addPass("copy", mCopyPass, target, source);
     }
 
-    public void tangentFlowMap(Texture2D source, Framebuffer target, float sigma) {
-        tangentFlowMap(source, mFramebuffer1, mFramebuffer2, sigma);
+    private void tangentFlowMap(int source, int target) {
+        int sst = mGraph.createTexture();
+        int sstGauss = mGraph.createTexture();
+
+        mGraph.addPass("sst", mSstPass, sst, source);
+        gauss(sst, sstGauss);
+        mGraph.addPass("tfm", mTfmPass, target, sstGauss);
+    }
 
-        //copy(mFramebuffer1.getTexture(), target);
+    public void tangentFlowMap(Texture2D source, Framebuffer target, float sigma) {
+        mGaussSigma = sigma;
+        mLicSigma = 5.0f;
+        if(mTangentFlowMapGraph.declare(0)) {
+            int tfm = mGraph.createTexture();
+            int noise = mGraph.importTexture(mNoiseTexture);
+            tangentFlowMap(SOURCE, tfm);
+            lineIntegralConvolution(noise, tfm, TARGET);
+        }
+        mTangentFlowMapGraph.execute(source, target);
+    }
 
-        target.bind();
-        mLicShader.use();
-        mLicShader.setTexture(mNoiseTexture, mFramebuffer1.getTexture());
-        mLicShader.setSigma(5.0f);
-        mTexturedRectangle.draw(mLicShader);
+    private void gauss(int source, int target) {
+        mGraph.addPass("gauss", mGaussPass, target, source);
     }
 
     public void gauss(Texture2D source, Framebuffer target, float sigma) {
-        target.bind();
-        mGaussShader.use();
-        mGaussShader.setSigma(sigma);
-        mGaussShader.setTexture(source);
-        mTexturedRectangle.draw(mGaussShader);
+        mGaussSigma = sigma;
+        if(mGaussGraph.declare(0)) {
+            gauss(SOURCE, TARGET);
+        }
+        mGaussGraph.execute(source, target);
     }
 
-    private void smoothFilter(Texture2D source, Texture2D tfm, Framebuffer target, int type, float sigma) {
-        target.bind();
+    private void lineIntegralConvolution(int source, int tfm, int target) {
+        mGraph.addPass("lic", mLicPass, target, source, tfm);
+    }
+
+    private void gaussKernel(int source, int target, int type) {
+        if(type == 1) {
+            mGraph.addPass("gauss3x3", mGauss3x3Pass, target, source);
+        } else {
+            mGraph.addPass("gauss5x5", mGauss5x5Pass, target, source);
+        }
+    }
+
+    private void smoothFilter(int source, int tfm, int target, int type) {
         if(type == 3) {
-            mLicShader.use();
-            mLicShader.setTexture(source, tfm);
-            mLicShader.setSigma(sigma);
-            mTexturedRectangle.draw(mLicShader);
+            lineIntegralConvolution(source, tfm, target);
         } else {
-            TextureShaderProgram gauss = (type == 1 ? mGauss3x3Shader : mGauss5x5Shader);
-            gauss.use();
-            gauss.setTexture(source);
-            mTexturedRectangle.draw(gauss);
+            gaussKernel(source, target, type);
         }
     }
 
     public void smoothFilter(Texture2D source, Framebuffer target, int type, float sigma) {
-        if(type == 0) {
-            copy(source, target);
-        } else {
-            if(type == 3) {
-                tangentFlowMap(source, mFramebuffer1, mFramebuffer2, sigma);
+        mGaussSigma = sigma;
+        mLicSigma = sigma;
+        if(mSmoothFilterGraph.declare(type)) {
+            if(type == 0) {
+                copy(SOURCE, TARGET);
+            } else if(type == 3) {
+                int tfm = mGraph.createTexture();
+                tangentFlowMap(SOURCE, tfm);
+                lineIntegralConvolution(SOURCE, tfm, TARGET);
+            } else {
+                gaussKernel(SOURCE, TARGET, type);
             }
-            smoothFilter(source, mFramebuffer1.getTexture(), target, type, sigma);
         }
+        mSmoothFilterGraph.execute(source, target);
     }
 
     /**
      * DEBUG method to check if noise texture is ok
      */
     public void noiseTexture(Framebuffer target) {
-        copy(mNoiseTexture, target);
+        if(mNoiseTextureGraph.declare(0)) {
+            copy(mGraph.importTexture(mNoiseTexture), TARGET);
+        }
+        mNoiseTextureGraph.execute(mNoiseTexture, target);
     }
 
-    private void bilateralFilter(Texture2D lab, Texture2D tfm, Framebuffer target, int n, float sigmaD, float sigmaR, Framebuffer tmp1) {
-        mBilateralFilterShader.use();
-        mBilateralFilterShader.setSigmaD(sigmaD);
-        mBilateralFilterShader.setSigmaR(sigmaR);
+    private void bilateralFilter(int lab, int tfm, int target, int n) {
+        int tmp = mGraph.createTexture();
 
         for(int i = 0; i < n; ++i) {
-            tmp1.bind();
-            mBilateralFilterShader.setTexture(i == 0 ? lab : target.getTexture(), tfm); // TODO set GL_LINEAR ?
-            mBilateralFilterShader.setPass(0);
-            mTexturedRectangle.draw(mBilateralFilterShader);
-
-            target.bind();
-            mBilateralFilterShader.setTexture(tmp1.getTexture(), tfm); // TODO set GL_LINEAR ?
-            mBilateralFilterShader.setPass(1);
-            mTexturedRectangle.draw(mBilateralFilterShader);
+            mGraph.addPass("bf0", mBilateralFilterPasses[0], tmp, i == 0 ? lab : target, tfm);
+            mGraph.addPass("bf1", mBilateralFilterPasses[1], target, tmp, tfm);
         }
     }
 
     public void bilateralFilter(Texture2D source, Framebuffer target, float gaussSigma, int n, float sigmaD, float sigmaR) {
-        rgb2lab(source, mFramebuffer1);
-        if(n > 0) {
-            tangentFlowMap(source, mFramebuffer2, mFramebuffer3, gaussSigma);
-            bilateralFilter(mFramebuffer1.getTexture(), mFramebuffer2.getTexture(), mFramebuffer3, n, sigmaD, sigmaR, mFramebuffer4);
-            lab2rgb(mFramebuffer3.getTexture(), target);
-        } else {
-            lab2rgb(mFramebuffer1.getTexture(), target);
+        mGaussSigma = gaussSigma;
+        mBfSigmaD = sigmaD;
+        mBfSigmaR = sigmaR;
+        if(mBilateralFilterGraph.declare(n)) {
+            int lab = mGraph.createTexture();
+            rgb2lab(SOURCE, lab);
+            if(n > 0) {
+                int tfm = mGraph.createTexture();
+                int bf = mGraph.createTexture();
+                tangentFlowMap(SOURCE, tfm);
+                bilateralFilter(lab, tfm, bf, n);
+                lab2rgb(bf, TARGET);
+            } else {
+                lab2rgb(lab, TARGET);
+            }
         }
+        mBilateralFilterGraph.execute(source, target);
     }
 
-    private void dog(Texture2D source, Framebuffer target, Framebuffer tmp1, int n, float sigmaE, float sigmaR, float tau, float phi) {
+    private void dog(int source, int target, int n) {
+        int tmp = mGraph.createTexture();
+
         for (int i = 0; i < n; ++i) {
-            Texture2D src = source;
+            int src = source;
             if (i > 0) {
-                overlay(target.getTexture(), source, tmp1);
-                src = tmp1.getTexture();
+                overlay(target, source, tmp);
+                src = tmp;
             }
-            target.bind();
-            mDogShader.use();
-            mDogShader.setTexture(src);
-            mDogShader.setSigmaE(sigmaE);
-            mDogShader.setSigmaR(sigmaR);
-            mDogShader.setTau(tau);
-            mDogShader.setPhi(phi);
-            mTexturedRectangle.draw(mDogShader);
+            mGraph.addPass("dog", mDogPass, target, src);
         }
     }
 
     public void dog(Texture2D source, Framebuffer target, int n, float sigmaE, float sigmaR, float tau, float phi) {
-        dog(source, target, mFramebuffer1, n, sigmaE, sigmaR, tau, phi);
+        setDogParameters(sigmaE, sigmaR, tau, phi);
+        if(mDogGraph.declare(n)) {
+            dog(SOURCE, TARGET, n);
+        }
+        mDogGraph.execute(source, target);
+    }
+
+    private void setDogParameters(float sigmaE, float sigmaR, float tau, float phi) {
+        mDogSigmaE = sigmaE;
+        mDogSigmaR = sigmaR;
+        mDogTau = tau;
+        mDogPhi = phi;
+    }
+
+    private void rgb2lab(int source, int target) {
+        mGraph.addPass("rgb2lab", mRgb2LabPass, target, source);
     }
 
     public void rgb2lab(Texture2D source, Framebuffer target) {
-        target.bind();
-        mRgb2LabShader.use();
-        mRgb2LabShader.setTexture(source);
-        mTexturedRectangle.draw(mRgb2LabShader);
+        if(mRgb2LabGraph.declare(0)) {
+            rgb2lab(SOURCE, TARGET);
+        }
+        mRgb2LabGraph.execute(source, target);
+    }
+
+    private void lab2rgb(int source, int target) {
+        mGraph.addPass("lab2rgb", mLab2RgbPass, target, source);
     }
 
     public void lab2rgb(Texture2D source, Framebuffer target) {
-        target.bind();
-        mLab2RgbShader.use();
-        mLab2RgbShader.setTexture(source);
-        mTexturedRectangle.draw(mLab2RgbShader);
+        if(mLab2RgbGraph.declare(0)) {
+            lab2rgb(SOURCE, TARGET);
+        }
+        mLab2RgbGraph.execute(source, target);
     }
 
-    private void fdog(Texture2D labOrBfeSource, Texture2D tfm, Framebuffer target,
-                      Framebuffer tmp1, Framebuffer tmp2, Framebuffer tmp3,
-                      int n, float sigmaE, float sigmaR, float tau, float sigmaM, float phi) {
+    private void fdog(int labOrBfeSource, int tfm, int target, int n) {
+        int fdog0 = mGraph.createTexture();
+        int overlay = mGraph.createTexture();
+        int edges = mGraph.createTexture();
+
         for (int i = 0; i < n; ++i) {
-            Texture2D src = labOrBfeSource;
+            int src = labOrBfeSource;
             if(i > 0) {
-                overlay(tmp3.getTexture(), labOrBfeSource, tmp2);
-                src = tmp2.getTexture();
+                overlay(edges, labOrBfeSource, overlay);
+                src = overlay;
             }
-            tmp1.bind();
-            mFdog0Shader.use();
-            mFdog0Shader.setTexture(src, tfm);
-            mFdog0Shader.setSigmaE(sigmaE);
-            mFdog0Shader.setSigmaR(sigmaR);
-            mFdog0Shader.setTau(tau);
-            mTexturedRectangle.draw(mFdog0Shader);
-
-            (i == (n-1) ? target : tmp3).bind();
-            mFdog1Shader.use();
-            mFdog1Shader.setTexture(tmp1.getTexture(), tfm);
-            mFdog1Shader.setSigmaM(sigmaM);
-            mFdog1Shader.setPhi(phi);
-            mTexturedRectangle.draw(mFdog1Shader);
+            mGraph.addPass("fdog0", mFdog0Pass, fdog0, src, tfm);
+            mGraph.addPass("fdog1", mFdog1Pass, i == (n-1) ? target : edges, fdog0, tfm);
         }
     }
 
     public void fdog(Texture2D source, Framebuffer target, float gaussSigma,
                      int n, float sigmaE, float sigmaR, float tau, float sigmaM, float phi) {
-        rgb2lab(source, mFramebuffer1);
-        tangentFlowMap(source, mFramebuffer2, mFramebuffer3, gaussSigma);
-        fdog(mFramebuffer1.getTexture(), mFramebuffer2.getTexture(), target,
-                mFramebuffer3, mFramebuffer4, mFramebuffer5, n, sigmaE, sigmaR, tau, sigmaM, phi);
+        mGaussSigma = gaussSigma;
+        setDogParameters(sigmaE, sigmaR, tau, phi);
+        mFdogSigmaM = sigmaM;
+        if(mFdogGraph.declare(n)) {
+            int lab = mGraph.createTexture();
+            int tfm = mGraph.createTexture();
+            rgb2lab(SOURCE, lab);
+            tangentFlowMap(SOURCE, tfm);
+            fdog(lab, tfm, TARGET, n);
+        }
+        mFdogGraph.execute(source, target);
     }
 
-    private void colorQuantization(Texture2D source, Framebuffer target, Framebuffer tmp1, int filter, int numBins, float phiQ) {
-        (filter > 0 ? tmp1 : target).bind();
-        mColorQuantizationShader.use();
-        mColorQuantizationShader.setNumBins(numBins);
-        mColorQuantizationShader.setPhiQ(phiQ);
-        mColorQuantizationShader.setTexture(source);
-        mTexturedRectangle.draw(mColorQuantizationShader);
+    private void colorQuantization(int source, int target, int filter) {
+        int quantized = filter > 0 ? mGraph.createTexture() : target;
+
+        mGraph.addPass("cq", mCqPass, quantized, source);
 
         if(filter > 0) {
-            FlowabsShaderProgram gaussShader = (filter == 1) ? mGauss3x3Shader : mGauss5x5Shader;
-            target.bind();
-            gaussShader.use();
-            gaussShader.setTexture(tmp1.getTexture());
-            mTexturedRectangle.draw(gaussShader);
+            gaussKernel(quantized, target, filter);
         }
     }
 
     public void colorQuantization(Texture2D source, Framebuffer target, int filter, int numBins, float phiQ) {
-        rgb2lab(source, mFramebuffer1); // TODO should be bilateral filter
-        colorQuantization(mFramebuffer1.getTexture(), mFramebuffer2, mFramebuffer3, filter, numBins, phiQ);
-        lab2rgb(mFramebuffer2.getTexture(), target);
+        mCqNumBins = numBins;
+        mCqPhiQ = phiQ;
+        if(mColorQuantizationGraph.declare(filter)) {
+            int lab = mGraph.createTexture();
+            int cq = mGraph.createTexture();
+            rgb2lab(SOURCE, lab); // TODO should be bilateral filter
+            colorQuantization(lab, cq, filter);
+            lab2rgb(cq, TARGET);
+        }
+        mColorQuantizationGraph.execute(source, target);
     }
 
-    public void mix(Texture2D source, Texture2D edges, Framebuffer target, float[] edgeColor) {
-        target.bind();
-        mMixEdgesShader.use();
-        mMixEdgesShader.setColor(edgeColor[0], edgeColor[1], edgeColor[2]);
-        mMixEdgesShader.setTexture(source, edges);
-        mTexturedRectangle.draw(mMixEdgesShader);
+    private void mix(int source, int edges, int target) {
+        mGraph.addPass("mix", mMixPass, target, source, edges);
     }
 
-    public void overlay(Texture2D source, Texture2D edges, Framebuffer target) {
-        target.bind();
-        mOverlayShader.use();
-        mOverlayShader.setTexture(source, edges);
-        mTexturedRectangle.draw(mOverlayShader);
+    private void overlay(int source, int edges, int target) {
+        mGraph.addPass("overlay", mOverlayPass, target, source, edges);
     }
 
     public void flowAbs(Texture2D source, Framebuffer target,
@@ -345,35 +614,56 @@ public class FlowAbs {
                         int cqFilter, int cqNumBins, float cqPhiQ,
                         float[] edgeColor,
                         int fsType, float fsSigma) {
-        rgb2lab(source, mFramebuffer1); // -> FB1 lab
-        tangentFlowMap(source, mFramebuffer2, mFramebuffer3, sstSigma); // -> FB2 tfm
-        if(bfNE > 0) {
-            bilateralFilter(mFramebuffer1.getTexture(), mFramebuffer2.getTexture(), mFramebuffer3, bfNE, bfSigmaD, bfSigmaR, mFramebuffer4); // -> FB3 bfe
-        }
-        if(bfNA > 0) {
-            bilateralFilter(mFramebuffer1.getTexture(), mFramebuffer2.getTexture(), mFramebuffer4, bfNE, bfSigmaD, bfSigmaR, mFramebuffer5); // -> FB4 bfa
-        }
-        if(fdogType == 0) {
-            fdog((bfNE > 0 ? mFramebuffer3 : mFramebuffer1).getTexture(), mFramebuffer2.getTexture(),
-                    mFramebuffer5, mFramebuffer6, mFramebuffer7, mFramebuffer8,
-                    fdogN, fdogSigmaE, fdogSigmaR, fdogTau, fdogSigmaM, fdogPhi); // -> FB5 fdog edges
-        } else {
-            dog((bfNE > 0 ? mFramebuffer3 : mFramebuffer1).getTexture(), mFramebuffer5, mFramebuffer6, fdogN, fdogSigmaE, fdogSigmaR, fdogTau, fdogPhi); // -> FB5 dog edges
-        }
-        // FB3 bfe free
-        colorQuantization((bfNA > 0 ? mFramebuffer4 : mFramebuffer1).getTexture(), mFramebuffer3, mFramebuffer6, cqFilter, cqNumBins, cqPhiQ); // -> FB3 cq
-        // FB1 lab free
-        // FB4 bfa free
-        lab2rgb(mFramebuffer3.getTexture(), mFramebuffer1); // -> FB1 cq_rgb
-        // FB3 cq free
-        mix(mFramebuffer1.getTexture(), mFramebuffer5.getTexture(), mFramebuffer3, edgeColor); // -> FS3 ov
-        // FB1 cq_rgb free
-        // FB5 edges free
-        if(fsType == 0) {
-            copy(mFramebuffer3.getTexture(), target);
-        } else {
-            smoothFilter(mFramebuffer3.getTexture(), mFramebuffer2.getTexture(), target, fsType, fsSigma);
+        mGaussSigma = sstSigma;
+        mBfSigmaD = bfSigmaD;
+        mBfSigmaR = bfSigmaR;
+        setDogParameters(fdogSigmaE, fdogSigmaR, fdogTau, fdogPhi);
+        mFdogSigmaM = fdogSigmaM;
+        mCqNumBins = cqNumBins;
+        mCqPhiQ = cqPhiQ;
+        mEdgeColor = edgeColor;
+        mLicSigma = fsSigma;
+
+        // The iteration counts and filter types determine the passes, 10 bits each
+        long structure = bfNE | (long) bfNA << 10 | (long) fdogType << 20 | (long) fdogN << 30
+                | (long) cqFilter << 40 | (long) fsType << 50;
+        if(mFlowAbsGraph.declare(structure)) {
+            int lab = mGraph.createTexture();
+            int tfm = mGraph.createTexture();
+            int bfe = mGraph.createTexture();
+            int bfa = mGraph.createTexture();
+            int edges = mGraph.createTexture();
+            int cq = mGraph.createTexture();
+            int cqRgb = mGraph.createTexture();
+            int ov = fsType == 0 ? TARGET : mGraph.createTexture();
+
+            rgb2lab(SOURCE, lab);
+            tangentFlowMap(SOURCE, tfm);
+            if(bfNE > 0) {
+                bilateralFilter(lab, tfm, bfe, bfNE);
+            }
+            if(bfNA > 0) {
+                bilateralFilter(lab, tfm, bfa, bfNE);
+            }
+            if(fdogN > 0) {
+                if (fdogType == 0) {
+                    fdog(bfNE > 0 ? bfe : lab, tfm, edges, fdogN);
+                } else {
+                    dog(bfNE > 0 ? bfe : lab, edges, fdogN);
+                }
+            }
+            colorQuantization(bfNA > 0 ? bfa : lab, cq, cqFilter);
+            if(fdogN > 0) {
+                lab2rgb(cq, cqRgb);
+                mix(cqRgb, edges, ov);
+            } else {
+                // Without edge detection iterations there are no edges to mix in
+                lab2rgb(cq, ov);
+            }
+            if(fsType != 0) {
+                smoothFilter(ov, tfm, TARGET, fsType);
+            }
         }
-        // FB* free
+        mFlowAbsGraph.execute(source, target);
     }
 }
@@ -36,11 +36,11 @@ public class GaussShaderProgram extends FlowabsShaderProgram {
         mSigmaHandle = GLES20.glGetUniformLocation(mProgramHandle, "sigma");
         GLUtils.checkError("glGetUniformLocation sigma");
 
-        GLES20.glUseProgram(getHandle());
+        use();
         setSigma(2.0f);
     }
 
     public void setSigma(float sigma) {
-        GLES20.glUniform1f(mSigmaHandle, sigma);
+        setUniform1f(mSigmaHandle, sigma);
     }
 }
@@ -21,6 +21,7 @@ package net.protyposis.android.spectaculum.gles.flowabs;
 
 import android.opengl.GLES20;
 
+import net.protyposis.android.spectaculum.gles.GLState;
 import net.protyposis.android.spectaculum.gles.GLUtils;
 import net.protyposis.android.spectaculum.gles.Texture2D;
 
@@ -54,18 +55,18 @@ public class MixWithEdgesShaderProgram extends FlowabsShaderProgram {
     }
 
     public void setTexture(Texture2D img, Texture2D edges) {
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, img.getHandle());
-        GLES20.glUniform1i(mTextureHandle, 0); // bind texture unit 0 to the uniform
+        GLState.get().activeTexture(GLES20.GL_TEXTURE0);
+        GLState.get().bindTexture(GLES20.GL_TEXTURE_2D, img.getHandle());
+        setUniform1i(mTextureHandle, 0); // bind texture unit 0 to the uniform
 
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, edges.getHandle());
-        GLES20.glUniform1i(mTextureHandle2, 1); // bind texture unit 1 to the uniform
+        GLState.get().activeTexture(GLES20.GL_TEXTURE1);
+        GLState.get().bindTexture(GLES20.GL_TEXTURE_2D, edges.getHandle());
+        setUniform1i(mTextureHandle2, 1); // bind texture unit 1 to the uniform
 
-        GLES20.glUniformMatrix4fv(mSTMatrixHandle, 1, false, img.getTransformMatrix(), 0);
+        setUniformMatrix4fv(mSTMatrixHandle, img.getTransformMatrix(), 0);
     }
 
     public void setColor(float r, float g, float b) {
-        GLES20.glUniform3f(mEdgeColorHandle, r, g, b);
+        setUniform3f(mEdgeColorHandle, r, g, b);
     }
 }
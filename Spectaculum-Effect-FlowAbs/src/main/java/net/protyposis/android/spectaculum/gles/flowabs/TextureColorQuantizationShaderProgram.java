@@ -39,8 +39,8 @@ public class TextureColorQuantizationShaderProgram extends FlowabsShaderProgram
         mPhiQHandle = GLES20.glGetUniformLocation(mProgramHandle, "phi_q");
         GLUtils.checkError("glGetUniformLocation phi_q");
 
-        GLES20.glUseProgram(getHandle());
-        GLES20.glUniform1i(mNumBinsHandle, 4);
-        GLES20.glUniform1f(mPhiQHandle, 3.4f);
+        use();
+        setUniform1i(mNumBinsHandle, 4);
+        setUniform1f(mPhiQHandle, 3.4f);
     }
 }
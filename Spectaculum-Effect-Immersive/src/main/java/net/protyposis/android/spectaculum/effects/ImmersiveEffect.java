@@ -69,23 +69,23 @@ public class ImmersiveEffect extends ShaderEffect {
     protected TextureShaderProgram initShaderProgram() {
         mShaderProgram = new EquirectangularSphereShaderProgram();
 
-        mParameterRotX = new FloatParameter("RotX", -360.0f, 360.0f, mRotX, new FloatParameter.Delegate() {
+        mParameterRotX = new FloatParameter("RotX", -360.0f, 360.0f, mRotX, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mRotX = value;
                 updateRotationMatrix();
             }
         }, "Sets the rotation angle around the X-axis in degrees");
-        mParameterRotY = new FloatParameter("RotY", -360.0f, 360.0f, mRotY, new FloatParameter.Delegate() {
+        mParameterRotY = new FloatParameter("RotY", -360.0f, 360.0f, mRotY, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mRotY = -value; // invert to rotate to the right with a positive value
                 updateRotationMatrix();
             }
         }, "Sets the rotation angle around the Y-axis in degrees");
-        mParameterRotZ = new FloatParameter("RotZ", -360.0f, 360.0f, mRotZ, new FloatParameter.Delegate() {
+        mParameterRotZ = new FloatParameter("RotZ", -360.0f, 360.0f, mRotZ, new FloatParameter.FloatDelegate() {
             @Override
-            public void setValue(Float value) {
+            public void setValue(float value) {
                 mRotZ = value;
                 updateRotationMatrix();
             }
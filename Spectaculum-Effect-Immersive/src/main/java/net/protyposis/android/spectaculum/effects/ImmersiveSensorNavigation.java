@@ -62,9 +62,9 @@ public class ImmersiveSensorNavigation implements SensorEventListener {
         final Handler h = new Handler();
 
         // Create an effect parameter to toggle the sensor navigation on/off
-        mParameter = new BooleanParameter("SensorNav", false, new BooleanParameter.Delegate() {
+        mParameter = new BooleanParameter("SensorNav", false, new BooleanParameter.BooleanDelegate() {
             @Override
-            public void setValue(final Boolean value) {
+            public void setValue(final boolean value) {
                 // Activate/deactivate on UI thread
                 // Parameters are usually set on the GL thread, so we need to transfer this back to the UI thread
                 h.post(new Runnable() {
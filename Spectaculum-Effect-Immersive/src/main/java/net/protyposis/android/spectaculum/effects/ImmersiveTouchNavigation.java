@@ -55,9 +55,9 @@ public class ImmersiveTouchNavigation {
         final Handler h = new Handler();
 
         // Create an effect parameter to toggle the touch navigation on/off
-        mParameter = new BooleanParameter("TouchNav", false, new BooleanParameter.Delegate() {
+        mParameter = new BooleanParameter("TouchNav", false, new BooleanParameter.BooleanDelegate() {
             @Override
-            public void setValue(final Boolean value) {
+            public void setValue(final boolean value) {
                 // Activate/deactivate on UI thread
                 // Parameters are usually set on the GL thread, so we need to transfer this back to the UI thread
                 h.post(new Runnable() {
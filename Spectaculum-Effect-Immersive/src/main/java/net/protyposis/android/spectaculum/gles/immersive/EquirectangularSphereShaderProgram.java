@@ -41,7 +41,7 @@ public class EquirectangularSphereShaderProgram extends TextureShaderProgram {
 
     public void setRotationMatrix(float[] rotationMatrix) {
         use();
-        GLES20.glUniformMatrix4fv(mRotationMatrixHandle, 1, false, rotationMatrix, 0);
+        setUniformMatrix4fv(mRotationMatrixHandle, rotationMatrix, 0);
     }
 
     public void setMode(int mode) {
@@ -49,6 +49,6 @@ public class EquirectangularSphereShaderProgram extends TextureShaderProgram {
             throw new RuntimeException("mode must be in range [0, 2]");
         }
         use();
-        GLES20.glUniform1i(mModeHandle, mode);
+        setUniform1i(mModeHandle, mode);
     }
 }
@@ -17,7 +17,9 @@
 package net.protyposis.android.spectaculum.effects;
 
 import net.protyposis.android.spectaculum.gles.Framebuffer;
+import net.protyposis.android.spectaculum.gles.RenderGraph;
 import net.protyposis.android.spectaculum.gles.Texture2D;
+import net.protyposis.android.spectaculum.gles.TextureShaderProgram;
 import net.protyposis.android.spectaculum.gles.TexturedRectangle;
 import net.protyposis.android.spectaculum.gles.qrmarker.CannyShaderProgram;
 import net.protyposis.android.spectaculum.gles.qrmarker.ConsenseShaderProgram;
@@ -36,8 +38,8 @@ public class QrMarkerEffect extends BaseEffect {
     private QrResponseShaderProgram mQrResponseShader;
     private ConsenseShaderProgram mConsensusShader;
 
-    private Framebuffer mFramebuffer1;
-    private Framebuffer mFramebuffer2;
+    private RenderGraph mGraph;
+    private RenderGraph mCannyEdgeGraph;
 
     private TexturedRectangle mTexturedRectangle;
 
@@ -49,64 +51,66 @@ public class QrMarkerEffect extends BaseEffect {
 
     @Override
     public void init(int width, int height) {
-        // PART OF THE UGLY HACK described in setTextureSizeHack
-        // Cannot call it on base class QrMarkerShaderProgram because it is hidden outside its package
-        GaussShaderProgram.setTextureSizeHack(width, height);
-
         mGaussShader = new GaussShaderProgram();
-        mGaussShader.setTextureSize(width, height);
-
         mGradientShader = new GradientShaderProgram();
-        mGradientShader.setTextureSize(width, height);
-
         mCannyShader = new CannyShaderProgram();
-        mCannyShader.setTextureSize(width, height);
-
         mQrResponseShader = new QrResponseShaderProgram();
-        mQrResponseShader.setTextureSize(width, height);
-
         mConsensusShader = new ConsenseShaderProgram();
-        mConsensusShader.setTextureSize(width, height);
 
-        mFramebuffer1 = new Framebuffer(width, height);
-        mFramebuffer2 = new Framebuffer(width, height);
+        // The graphs do not change, so they are declared once and only executed per frame
+        mGraph = new RenderGraph(getFramebufferPool(), width, height);
+        int canny = mGraph.createTexture();
+        int response = mGraph.createTexture();
+        addCannyEdge(mGraph, RenderGraph.SOURCE, canny);
+        addPass(mGraph, "qrresponse", mQrResponseShader, response, canny);
+        addPass(mGraph, "consensus", mConsensusShader, RenderGraph.TARGET, response);
+
+        mCannyEdgeGraph = new RenderGraph(getFramebufferPool(), width, height);
+        addCannyEdge(mCannyEdgeGraph, RenderGraph.SOURCE, RenderGraph.TARGET);
 
         mTexturedRectangle = new TexturedRectangle();
         mTexturedRectangle.reset();
 
+        resize(width, height);
+
         setInitialized();
     }
 
+    @Override
+    public void resize(int width, int height) {
+        mGaussShader.setTextureSize(width, height);
+        mGradientShader.setTextureSize(width, height);
+        mCannyShader.setTextureSize(width, height);
+        mQrResponseShader.setTextureSize(width, height);
+        mConsensusShader.setTextureSize(width, height);
+        mGraph.setSize(width, height);
+        mCannyEdgeGraph.setSize(width, height);
+    }
+
     @Override
     public void apply(Texture2D source, Framebuffer target) {
-        applyCannyEdge(source, mFramebuffer1);
+        mGraph.execute(source, target);
+    }
 
-        mFramebuffer2.bind();
-        mQrResponseShader.use();
-        mQrResponseShader.setTexture(mFramebuffer1.getTexture());
-        mTexturedRectangle.draw(mQrResponseShader);
+    private void addCannyEdge(RenderGraph graph, int source, int target) {
+        int gauss = graph.createTexture();
+        int gradient = graph.createTexture();
 
-        target.bind();
-        mConsensusShader.use();
-        mConsensusShader.setTexture(mFramebuffer2.getTexture());
-        mTexturedRectangle.draw(mConsensusShader);
+        addPass(graph, "gauss", mGaussShader, gauss, source);
+        addPass(graph, "gradient", mGradientShader, gradient, gauss);
+        addPass(graph, "canny", mCannyShader, target, gradient);
     }
 
-    private void applyCannyEdge(Texture2D source, Framebuffer target) {
-        mFramebuffer1.bind();
-        mGaussShader.use();
-        mGaussShader.setTexture(source);
-        mTexturedRectangle.draw(mGaussShader);
-
-        mFramebuffer2.bind();
-        mGradientShader.use();
-        mGradientShader.setTexture(mFramebuffer1.getTexture());
-        mTexturedRectangle.draw(mGradientShader);
-
-        target.bind();
-        mCannyShader.use();
-        mCannyShader.setTexture(mFramebuffer2.getTexture());
-        mTexturedRectangle.draw(mCannyShader);
+    private void addPass(RenderGraph graph, String name, final TextureShaderProgram shader, int target, int source) {
+        graph.addPass(name, new RenderGraph.Pass() {
+            @Override
+            public void execute(Texture2D[] inputs, Framebuffer output) {
+                output.bind(Framebuffer.BindMode.DONT_CARE);
+                shader.use();
+                shader.setTexture(inputs[0]);
+                mTexturedRectangle.draw(shader);
+            }
+        }, target, source);
     }
 
     public CannyEdgeEffect getCannyEdgeEffect() {
@@ -123,13 +127,19 @@ public class QrMarkerEffect extends BaseEffect {
         @Override
         public void init(int width, int height) {
             if(!QrMarkerEffect.this.isInitialized()) {
+                QrMarkerEffect.this.setFramebufferPool(getFramebufferPool());
                 QrMarkerEffect.this.init(width, height);
             }
         }
 
+        @Override
+        public void resize(int width, int height) {
+            QrMarkerEffect.this.resize(width, height);
+        }
+
         @Override
         public void apply(Texture2D source, Framebuffer target) {
-            applyCannyEdge(source, target);
+            mCannyEdgeGraph.execute(source, target);
         }
     }
 }
@@ -26,9 +26,6 @@ import net.protyposis.android.spectaculum.gles.TextureShaderProgram;
  */
 abstract class QrMarkerShaderProgram extends TextureShaderProgram {
 
-    private static int sSamplerWidth;
-    private static int sSamplerHeight;
-
     public QrMarkerShaderProgram(String fragmentShaderName) {
         super("qrmarker/" + fragmentShaderName);
 
@@ -52,11 +49,14 @@ abstract class QrMarkerShaderProgram extends TextureShaderProgram {
         fragmentShaderCode = fragmentShaderCode.replace("uniform sampler2D text;", "uniform sampler2D texture;");
         fragmentShaderCode = fragmentShaderCode.replace("texture2D(text,", "texture2D(texture,");
 
-        /* The sampler texture size is hardcoded as constants.
-         * Replace them with the actual dimensions.
+        /* The sampler texture size is hardcoded as constants. Replace them with the texture size
+         * uniform, so the programs can be resized without being recompiled. Global variables
+         * cannot be initialized from uniforms, so the texel size is computed where it is used.
          */
-        fragmentShaderCode = fragmentShaderCode.replace("1.0 / 640.0;", "1.0 / " + sSamplerWidth + ".0;");
-        fragmentShaderCode = fragmentShaderCode.replace("1.0 / 480.0;", "1.0 / " + sSamplerHeight + ".0;");
+        fragmentShaderCode = fragmentShaderCode.replaceFirst("const float texWidth\\s*=\\s*1\\.0 / 640\\.0;",
+                "uniform vec2 u_TextureSize;\n#define texWidth (1.0 / u_TextureSize.x)\n");
+        fragmentShaderCode = fragmentShaderCode.replaceFirst("const float texHeight\\s*=\\s*1\\.0 / 480\\.0;",
+                "#define texHeight (1.0 / u_TextureSize.y)\n");
 
         /* The gl_TexCoord variable does not exist in GLES. Replace with a valid variable. */
         fragmentShaderCode = fragmentShaderCode.replace("gl_TexCoord[0].st", "v_TextureCoord");
@@ -99,14 +99,9 @@ abstract class QrMarkerShaderProgram extends TextureShaderProgram {
     }
 
     /**
-     * This method is a VERY UGLY HACK. The QRMarker shaders have their sampler width and height
-     * hardcoded as constants, and for the preprocessFragmentShaderCode function to replace them
-     * correctly, they need to be known in advance. Passing them in the constructor does not work
-     * because the super() call, which in turn calls preprocessFragmentShaderCode, needs to come
-     * first, before class variables can be set.
+     * @deprecated the texture size is a uniform now, set it with {@link #setTextureSize(int, int)}
      */
+    @Deprecated
     public static void setTextureSizeHack(int width, int height) {
-        sSamplerWidth = width;
-        sSamplerHeight = height;
     }
 }